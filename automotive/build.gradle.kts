@@ -1,3 +1,5 @@
+import com.example.carmusicplayer.build.AssetManifestTask
+
 plugins {
     alias(libs.plugins.android.application)
 }
@@ -31,6 +33,24 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // Robolectric tests see the merged assets, bundled music included
+        unitTests.isIncludeAndroidResources = true
+    }
+}
+
+// Tags of the bundled music, read once at build time instead of on every device
+val generateAssetManifest = tasks.register<AssetManifestTask>("generateAssetManifest") {
+    musicFiles.from(fileTree("src/main/assets/music"))
+}
+
+androidComponents {
+    onVariants { variant ->
+        variant.sources.assets?.addGeneratedSourceDirectory(
+            generateAssetManifest,
+            AssetManifestTask::getOutputDir
+        )
+    }
 }
 
 dependencies {
@@ -40,6 +60,8 @@ dependencies {
     implementation(libs.material)
     implementation(project(":shared"))
     testImplementation(libs.junit)
+    testImplementation(libs.ext.junit)
+    testImplementation(libs.robolectric)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cold-start timings: first screen from the mapped snapshot versus the
+ * database path HomeFragment used before. Results are written to logcat
+ * under the LibrarySnapshotBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LibrarySnapshotBenchmark {
+
+    private static final String TAG = "LibrarySnapshotBenchmark";
+    private static final String TEST_DB = "snapshot_test.db";
+    private static final int SONG_COUNT = 20_000;
+
+    private Context context;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        snapshotFile = new File(context.getCacheDir(), "benchmark.snapshot");
+
+        MusicDatabaseHelper helper = new MusicDatabaseHelper(context, TEST_DB);
+        helper.insertSongs(MusicDatabaseBenchmark.createSongs(SONG_COUNT, "cold"), false).join();
+        LibrarySnapshot.write(snapshotFile, helper.getLocalSongs());
+        helper.close();
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(TEST_DB);
+        snapshotFile.delete();
+    }
+
+    @Test
+    public void snapshotVersusDatabaseColdStart() {
+        // Snapshot path: map the file and decode the rows of the first screen
+        long start = SystemClock.elapsedRealtime();
+        LibrarySnapshot snapshot = LibrarySnapshot.open(snapshotFile);
+        assertNotNull(snapshot);
+        for (int i = 0; i < PagedSongAdapter.PAGE_SIZE; i++) {
+            snapshot.get(i);
+        }
+        long snapshotMs = SystemClock.elapsedRealtime() - start;
+
+        // Database path: open SQLite (schema check, WAL setup) and read the library
+        start = SystemClock.elapsedRealtime();
+        MusicDatabaseHelper helper = new MusicDatabaseHelper(context, TEST_DB);
+        List<Song> firstPage = helper.getLocalSongsPage(null, PagedSongAdapter.PAGE_SIZE);
+        long firstPageMs = SystemClock.elapsedRealtime() - start;
+        List<Song> library = helper.getLocalSongs();
+        long fullLibraryMs = SystemClock.elapsedRealtime() - start;
+        helper.close();
+
+        assertEquals(SONG_COUNT, snapshot.size());
+        assertEquals(library.size(), snapshot.size());
+        for (int i = 0; i < firstPage.size(); i++) {
+            assertEquals(firstPage.get(i).getId(), snapshot.get(i).getId());
+        }
+        Log.i(TAG, "Cold start over " + SONG_COUNT + " songs: snapshot first screen " +
+                snapshotMs + " ms, database first page " + firstPageMs +
+                " ms, database full library " + fullLibraryMs + " ms");
+    }
+
+    @Test
+    public void snapshotWriteCost() throws IOException {
+        MusicDatabaseHelper helper = new MusicDatabaseHelper(context, TEST_DB);
+        List<Song> library = helper.getLocalSongs();
+        helper.close();
+
+        long start = SystemClock.elapsedRealtime();
+        LibrarySnapshot.write(snapshotFile, library);
+        long writeMs = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "Snapshot of " + library.size() + " songs: " + snapshotFile.length() +
+                " bytes written in " + writeMs + " ms");
+        assertEquals(library.size(), LibrarySnapshot.open(snapshotFile).size());
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Metadata extraction of a folder of generated WAV files with one worker
+ * versus pools of increasing size. Results are written to logcat under the
+ * MetadataExtractorBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MetadataExtractorBenchmark {
+
+    private static final String TAG = "MetadataExtractorBenchmark";
+    private static final String TEST_DB = "extractor_test.db";
+    private static final int FILE_COUNT = 200;
+    private static final int SAMPLE_RATE = 8000;
+
+    private Context context;
+    private File folder;
+    private List<String> paths;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        folder = new File(context.getCacheDir(), "extractor_benchmark");
+        folder.mkdirs();
+        paths = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            File file = new File(folder, "track_" + i + ".wav");
+            // One to three seconds of silence, so durations differ
+            writeSilentWav(file, 1 + i % 3);
+            paths.add(file.getPath());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(TEST_DB);
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void poolVersusSingleWorker() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long singleMs = 0;
+        for (int threads = 1; threads <= Math.max(4, cores); threads *= 2) {
+            long start = SystemClock.elapsedRealtime();
+            List<Song> songs;
+            try (MetadataExtractor extractor = new MetadataExtractor(context, threads)) {
+                songs = extractor.extract(paths, false, MetadataExtractor.DEFAULT_BATCH_SIZE,
+                        batch -> { });
+            }
+            long elapsedMs = SystemClock.elapsedRealtime() - start;
+            if (threads == 1) {
+                singleMs = elapsedMs;
+            }
+
+            assertEquals(FILE_COUNT, songs.size());
+            Log.i(TAG, "Extract " + FILE_COUNT + " files with " + threads + " of " + cores +
+                    " cores: " + elapsedMs + " ms (" +
+                    String.format("%.2f", singleMs / (double) Math.max(1, elapsedMs)) + "x)");
+        }
+    }
+
+    @Test
+    public void everyFileReadOnceWithDuration() {
+        List<Song> songs;
+        try (MetadataExtractor extractor = new MetadataExtractor(context, 4)) {
+            songs = extractor.extract(paths, false, 16, batch -> assertTrue(batch.size() <= 16));
+        }
+        Set<String> seen = new HashSet<>();
+        for (Song song : songs) {
+            assertTrue(seen.add(song.getPath()));
+            // Untagged files are titled after the file name
+            assertTrue(song.getTitle().startsWith("track "));
+            assertTrue(song.getDuration() >= 900);
+        }
+        assertEquals(new HashSet<>(paths), seen);
+    }
+
+    @Test
+    public void batchesStreamIntoBulkInsert() {
+        MusicDatabaseHelper helper = new MusicDatabaseHelper(context, TEST_DB);
+        List<Integer> inserted = new ArrayList<>();
+
+        long start = SystemClock.elapsedRealtime();
+        try (MetadataExtractor extractor = new MetadataExtractor(context)) {
+            extractor.extract(paths, false, 32,
+                    batch -> inserted.add(helper.insertSongs(batch, false).join()));
+        }
+        long elapsedMs = SystemClock.elapsedRealtime() - start;
+
+        int total = 0;
+        for (int count : inserted) {
+            total += count;
+        }
+        assertEquals(FILE_COUNT, total);
+        assertEquals(FILE_COUNT, helper.getSongCount());
+        Log.i(TAG, "Extract and insert " + FILE_COUNT + " files in " + inserted.size() +
+                " batches: " + elapsedMs + " ms");
+        helper.close();
+    }
+
+    // 16-bit mono PCM WAV of the given length, all zero samples
+    private static void writeSilentWav(File file, int seconds) throws IOException {
+        int dataSize = SAMPLE_RATE * 2 * seconds;
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(36 + dataSize)
+                .put(new byte[]{'W', 'A', 'V', 'E'})
+                .put(new byte[]{'f', 'm', 't', ' '}).putInt(16)
+                .putShort((short) 1).putShort((short) 1)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2)
+                .putShort((short) 2).putShort((short) 16)
+                .put(new byte[]{'d', 'a', 't', 'a'}).putInt(dataSize);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(header.array());
+            out.write(new byte[dataSize]);
+        }
+    }
+}
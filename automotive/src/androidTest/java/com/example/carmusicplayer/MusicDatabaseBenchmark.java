@@ -0,0 +1,555 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rough on-device timings for the database layer. Results are written to
+ * logcat under the MusicDatabaseBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MusicDatabaseBenchmark {
+
+    private static final String TAG = "MusicDatabaseBenchmark";
+    private static final String TEST_DB = "benchmark_test.db";
+
+    private Context context;
+    private MusicDatabaseHelper helper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        helper = new MusicDatabaseHelper(context, TEST_DB);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void bulkInsertVersusRowAtATime() {
+        int count = 10_000;
+
+        long start = SystemClock.elapsedRealtime();
+        // Wait for each row, as a caller writing one song at a time would
+        for (Song song : createSongs(count, "row")) {
+            helper.insertSong(song, false).join();
+        }
+        long rowAtATimeMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(count, helper.getSongCount());
+
+        start = SystemClock.elapsedRealtime();
+        int inserted = helper.insertSongs(createSongs(count, "bulk"), false).join();
+        long bulkMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(count, inserted);
+        assertEquals(count * 2, helper.getSongCount());
+
+        Log.i(TAG, "Insert " + count + " songs: row-at-a-time " + rowAtATimeMs +
+                " ms, bulk " + bulkMs + " ms");
+        assertTrue(bulkMs < rowAtATimeMs);
+    }
+
+    @Test
+    public void bulkInsertSkipsKnownPaths() {
+        List<Song> songs = createSongs(100, "dup");
+        assertEquals(100, (int) helper.insertSongs(songs, false).join());
+        assertEquals(0, (int) helper.insertSongs(createSongs(100, "dup"), false).join());
+        assertEquals(100, helper.getSongCount());
+    }
+
+    @Test
+    public void firstPageVersusFullLibrary() {
+        int count = 30_000;
+        helper.insertSongs(createSongs(count, "lib"), false).join();
+
+        long start = SystemClock.elapsedRealtime();
+        List<Song> firstPage = helper.getLocalSongsPage(null, PagedSongAdapter.PAGE_SIZE);
+        long firstPageMs = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        List<Song> all = helper.getLocalSongs();
+        long fullMs = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(PagedSongAdapter.PAGE_SIZE, firstPage.size());
+        assertEquals(count, all.size());
+        Log.i(TAG, "Library of " + count + ": first page " + firstPageMs +
+                " ms, full list " + fullMs + " ms");
+    }
+
+    @Test
+    public void keysetPagingVisitsEveryRowOnce() {
+        // Few distinct titles so most page boundaries fall inside a run of equal titles
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            songs.add(new Song(0, "Title " + (i % 7), "Artist", "Album",
+                    "/music/paging/track_" + i + ".mp3", 1000, 0));
+        }
+        helper.insertSongs(songs, false).join();
+
+        int seen = 0;
+        Song after = null;
+        List<Song> page;
+        do {
+            page = helper.getLocalSongsPage(after, 64);
+            for (Song song : page) {
+                if (after != null) {
+                    int order = after.getTitle().compareTo(song.getTitle());
+                    assertTrue(order < 0 || (order == 0 && after.getId() < song.getId()));
+                }
+                after = song;
+                seen++;
+            }
+        } while (page.size() == 64);
+
+        assertEquals(1_000, seen);
+    }
+
+    @Test
+    public void ftsSearchVersusLinearFilter() {
+        int count = 100_000;
+        helper.insertSongs(createSongs(count, "search"), false).join();
+        List<Song> library = helper.getLocalSongs();
+        String[] queries = {"a", "artist 12", "album 11", "track 9999", "nothing"};
+
+        long start = SystemClock.elapsedRealtime();
+        for (String query : queries) {
+            linearFilter(library, query);
+        }
+        long linearMs = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (String query : queries) {
+            helper.searchSongs(query, 200);
+        }
+        long ftsMs = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "Search " + queries.length + " queries over " + count + " songs: linear " +
+                linearMs + " ms, FTS " + ftsMs + " ms");
+        assertFalse(helper.searchSongs("artist 12", 200).isEmpty());
+        assertTrue(helper.searchSongs("nothing", 200).isEmpty());
+    }
+
+    @Test
+    public void searchRanksTitlePrefixFirst() {
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song(0, "Another Day", "Nobody", "Blue Sky", "/music/rank/1.mp3", 1000, 0));
+        songs.add(new Song(0, "Zebra", "Blue Sky", "Ocean", "/music/rank/2.mp3", 1000, 0));
+        songs.add(new Song(0, "Blue Moon", "Somebody", "Night", "/music/rank/3.mp3", 1000, 0));
+        helper.insertSongs(songs, false).join();
+
+        List<Song> results = helper.searchSongs("blue", 10);
+        assertEquals(3, results.size());
+        assertEquals("Blue Moon", results.get(0).getTitle());
+        assertEquals("Zebra", results.get(1).getTitle());
+    }
+
+    @Test
+    public void rowMapperVersusPerRowColumnLookup() {
+        int count = 50_000;
+        helper.insertSongs(createSongs(count, "read"), false).join();
+        SQLiteDatabase db = helper.getReadableDatabase();
+
+        // Before: SELECT * with getColumnIndexOrThrow for every column of every row
+        long start = SystemClock.elapsedRealtime();
+        List<Song> before = new ArrayList<>();
+        Cursor cursor = db.query(MusicDatabaseHelper.TABLE_SONGS, null, null, null, null, null,
+                MusicDatabaseHelper.COLUMN_TITLE + " ASC");
+        while (cursor.moveToNext()) {
+            before.add(new Song(
+                    cursor.getLong(cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_ID)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_TITLE)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_ARTIST)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_ALBUM)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_PATH)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_DURATION)),
+                    0));
+        }
+        cursor.close();
+        long beforeMs = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        // After: list projection, indices resolved once per cursor
+        start = SystemClock.elapsedRealtime();
+        List<Song> after = helper.getAllSongsPage(null, count);
+        long afterMs = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        assertEquals(count, before.size());
+        assertEquals(count, after.size());
+        Log.i(TAG, "Read " + count + " rows: per-row lookup " + (count * 1000L / beforeMs) +
+                " rows/s, row mapper + list projection " + (count * 1000L / afterMs) + " rows/s");
+    }
+
+    @Test
+    public void readersStayUnblockedDuringWriteBurst() throws Exception {
+        helper.insertSongs(createSongs(5_000, "base"), false).join();
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger reads = new AtomicInteger();
+        AtomicLong maxReadMs = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            while (writing.get()) {
+                long start = SystemClock.elapsedRealtime();
+                helper.getLocalSongsPage(null, PagedSongAdapter.PAGE_SIZE);
+                long elapsed = SystemClock.elapsedRealtime() - start;
+                maxReadMs.accumulateAndGet(elapsed, Math::max);
+                reads.incrementAndGet();
+            }
+        });
+        reader.start();
+
+        // 10k individual writes, queued without waiting, as UI callers issue them
+        long start = SystemClock.elapsedRealtime();
+        List<CompletableFuture<Long>> writes = new ArrayList<>();
+        for (Song song : createSongs(10_000, "burst")) {
+            writes.add(helper.insertSong(song, false));
+        }
+        long enqueueMs = SystemClock.elapsedRealtime() - start;
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        long burstMs = SystemClock.elapsedRealtime() - start;
+        writing.set(false);
+        reader.join();
+
+        assertEquals(15_000, helper.getSongCount());
+        assertTrue(reads.get() > 0);
+        Log.i(TAG, "10k-row write burst: enqueue " + enqueueMs + " ms, committed after " +
+                burstMs + " ms; " + reads.get() + " concurrent reads, slowest " +
+                maxReadMs.get() + " ms");
+        assertTrue("Reader blocked for " + maxReadMs.get() + " ms", maxReadMs.get() < 250);
+    }
+
+    @Test
+    public void playHistoryCompactsAndStaysBounded() {
+        List<Song> songs = createSongs(50, "history");
+        helper.insertSongs(songs, false).join();
+
+        long day = 24L * 60 * 60 * 1000;
+        long now = 1_000 * day;
+        // A year of plays, 50 a day
+        List<PlayEvent> events = new ArrayList<>();
+        for (int d = 365; d >= 0; d--) {
+            for (Song song : songs) {
+                events.add(new PlayEvent(song, now - d * day + song.getId()));
+            }
+        }
+        assertEquals(events.size(), (int) helper.insertPlayEvents(events).join());
+
+        long start = SystemClock.elapsedRealtime();
+        int compacted = helper.compactPlayHistory(now).join();
+        long compactMs = SystemClock.elapsedRealtime() - start;
+        assertTrue(compacted > 0);
+        // Compacting again must not double the daily counts
+        helper.compactPlayHistory(now).join();
+
+        SQLiteDatabase db = helper.getReadableDatabase();
+        long rawRows = DatabaseUtils.queryNumEntries(db, MusicDatabaseHelper.TABLE_PLAY_EVENTS);
+        long dailyPlays = DatabaseUtils.longForQuery(db,
+                "SELECT SUM(play_count) FROM " + MusicDatabaseHelper.TABLE_PLAY_DAILY, null);
+        assertEquals(events.size(), rawRows + dailyPlays);
+
+        start = SystemClock.elapsedRealtime();
+        List<Song> recent = helper.getRecentlyPlayed(PagedSongAdapter.PAGE_SIZE);
+        long recentMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(PagedSongAdapter.PAGE_SIZE, recent.size());
+        assertEquals(songs.get(songs.size() - 1).getId(), recent.get(0).getId());
+
+        Log.i(TAG, "Play history of " + events.size() + " events: compaction " + compactMs +
+                " ms left " + rawRows + " raw rows; recent page " + recentMs + " ms");
+    }
+
+    @Test
+    public void artistAggregatesFollowInsertsUpdatesAndDeletes() {
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song(0, "One", "Band", "First", "/music/agg/1.mp3", 1000, 0));
+        songs.add(new Song(0, "Two", "Band", "First", "/music/agg/2.mp3", 2000, 0));
+        songs.add(new Song(0, "Three", "Band", "Second", "/music/agg/3.mp3", 3000, 0));
+        songs.add(new Song(0, "Solo", "Singer", "Alone", "/music/agg/4.mp3", 4000, 0));
+        helper.insertSongs(songs, false).join();
+        // Online songs stay out of the browse tables
+        helper.insertSong(new Song(0, "Stream", "Band", "First", "http://example.com/5.mp3", 5000, 0),
+                false).join();
+
+        List<Artist> artists = helper.getArtists(null, 10);
+        assertEquals(2, artists.size());
+        Artist band = artists.get(0);
+        assertEquals("Band", band.getName());
+        assertEquals(3, band.getTrackCount());
+        assertEquals(6000, band.getTotalDuration());
+        List<Album> albums = helper.getAlbumsForArtist(band.getId());
+        assertEquals(2, albums.size());
+        assertEquals("First", albums.get(0).getTitle());
+        assertEquals(2, albums.get(0).getTrackCount());
+
+        // Moving the only song of "Singer" to "Band" removes the emptied artist
+        long soloId = songs.get(3).getId();
+        helper.getWritableDatabase().execSQL("UPDATE songs SET artist = 'Band' WHERE id = " + soloId);
+        artists = helper.getArtists(null, 10);
+        assertEquals(1, artists.size());
+        assertEquals(4, artists.get(0).getTrackCount());
+        assertEquals(3, helper.getAlbumsForArtist(artists.get(0).getId()).size());
+
+        helper.deleteAllSongs().join();
+        assertTrue(helper.getArtists(null, 10).isEmpty());
+    }
+
+    @Test
+    public void artistPageVersusGroupBy() {
+        int count = 100_000;
+        helper.insertSongs(createSongs(count, "browse"), false).join();
+        SQLiteDatabase db = helper.getReadableDatabase();
+
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = db.rawQuery("SELECT artist, COUNT(*), SUM(duration) FROM songs" +
+                " GROUP BY artist ORDER BY artist LIMIT " + PagedSongAdapter.PAGE_SIZE, null);
+        int grouped = cursor.getCount();
+        cursor.close();
+        long groupByMs = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        List<Artist> firstPage = helper.getArtists(null, PagedSongAdapter.PAGE_SIZE);
+        List<Artist> secondPage = helper.getArtists(firstPage.get(firstPage.size() - 1),
+                PagedSongAdapter.PAGE_SIZE);
+        long pagesMs = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(PagedSongAdapter.PAGE_SIZE, grouped);
+        assertEquals(PagedSongAdapter.PAGE_SIZE, secondPage.size());
+        assertTrue(firstPage.get(firstPage.size() - 1).getName()
+                .compareTo(secondPage.get(0).getName()) < 0);
+        Log.i(TAG, "Artists over " + count + " songs: GROUP BY page " + groupByMs +
+                " ms, two aggregate-table pages " + pagesMs + " ms");
+    }
+
+    @Test
+    public void queryStatsRecordReadsAndWrites() {
+        helper.insertSongs(createSongs(500, "stats"), false).join();
+        QueryStats stats = helper.getQueryStats();
+        stats.setSlowQueryThresholdMs(0);
+        helper.getLocalSongs();
+        helper.getLocalSongs();
+        helper.songExists("/music/stats/track_1.mp3");
+
+        QueryStats.MethodSnapshot localSongs = null;
+        QueryStats.MethodSnapshot insertSongs = null;
+        for (QueryStats.MethodSnapshot snapshot : stats.snapshot()) {
+            if (snapshot.method.equals("getLocalSongs")) {
+                localSongs = snapshot;
+            } else if (snapshot.method.equals("insertSongs")) {
+                insertSongs = snapshot;
+            }
+        }
+        assertNotNull(localSongs);
+        assertEquals(2, localSongs.calls);
+        assertEquals(1_000, localSongs.rows);
+        assertEquals(0, localSongs.mainThreadCalls);
+        assertEquals(2, localSongs.slowCalls);
+        assertNotNull(insertSongs);
+        assertEquals(500, insertSongs.rows);
+        assertEquals(Collections.singletonList("music-db-writer"), insertSongs.threads);
+
+        StringWriter dump = new StringWriter();
+        stats.dump(new PrintWriter(dump));
+        Log.i(TAG, dump.toString());
+        assertTrue(dump.toString().contains("songExists"));
+    }
+
+    @Test
+    public void reconcileWritesOnlyChangedRows() {
+        int count = 20_000;
+        List<Song> library = createSongs(count, "scan");
+        helper.insertSongs(library, false).join();
+        helper.insertSongs(createSongs(10, "asset"), true).join();
+        // Favorite of a song that is about to vanish
+        helper.addToFavorites(library.get(0).getId()).join();
+
+        // Listing that lost every 1000th file and gained 25 new ones
+        long start = SystemClock.elapsedRealtime();
+        PathHashIndex known = helper.loadPathHashes(false);
+        List<Song> listing = createSongs(count, "scan");
+        List<Song> added = new ArrayList<>();
+        for (int i = 0; i < listing.size(); i++) {
+            if (i % 1000 != 0 && !known.markSeen(listing.get(i).getPath())) {
+                added.add(listing.get(i));
+            }
+        }
+        added.addAll(createSongs(25, "fresh"));
+        long[] vanished = known.unseenIds();
+        long diffMs = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        int changed = helper.reconcileLibrary(new ArrayList<>(), added, vanished).join();
+        long writeMs = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(count / 1000, vanished.length);
+        assertEquals(25 + count / 1000, changed);
+        assertEquals(count - count / 1000 + 25 + 10, helper.getSongCount());
+        assertFalse(helper.songExists("/music/scan/track_0.mp3"));
+        assertTrue(helper.songExists("/music/scan/track_1.mp3"));
+        // Asset rows belong to another listing and are untouched
+        assertTrue(helper.songExists("/music/asset/track_0.mp3"));
+        assertEquals(0, helper.getFavoritesIndex().size());
+        Log.i(TAG, "Reconcile " + count + " known songs: in-memory diff " + diffMs +
+                " ms, write " + writeMs + " ms");
+    }
+
+    @Test
+    public void unchangedSyncSkipsFullDiff() {
+        int count = 20_000;
+        helper.insertSongs(createSongs(count, "sync"), false).join();
+        helper.insertSongs(createSongs(10, "asset"), true).join();
+
+        // What an incremental sync with nothing new costs on the database side
+        long start = SystemClock.elapsedRealtime();
+        int deviceCount = helper.getDeviceSongCount();
+        long countMs = SystemClock.elapsedRealtime() - start;
+
+        // What a full MediaStore diff has to load before reading any listing
+        start = SystemClock.elapsedRealtime();
+        PathHashIndex known = helper.loadPathHashes(false);
+        long loadMs = SystemClock.elapsedRealtime() - start;
+
+        // Asset rows never come from MediaStore and must not skew the check
+        assertEquals(count, deviceCount);
+        assertEquals(count, known.size());
+        Log.i(TAG, "Deletion check over " + count + " songs: count " + countMs +
+                " ms, full hash load " + loadMs + " ms");
+    }
+
+    @Test
+    public void favoriteRemoteTracksInOneWrite() {
+        List<DeezerService.DeezerTrack> page = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            page.add(new DeezerService.DeezerTrack(900_000_000L + i, "Remote " + i, "Artist", "Album",
+                    30, "https://cdn.example.com/preview/" + i + ".mp3", null));
+        }
+        page.add(new DeezerService.DeezerTrack(900_000_100L, "No preview", "Artist", "Album", 30, null, null));
+
+        // Before: lookup, insert and favorite as three separate operations per track
+        long start = SystemClock.elapsedRealtime();
+        for (DeezerService.DeezerTrack track : page.subList(0, 25)) {
+            if (helper.getSongById(track.getId() + 1_000) == null) {
+                helper.insertSongWithId(new Song(track.getId() + 1_000, track.getTitle(), track.getArtist(),
+                        track.getAlbum(), track.getPreviewUrl() + "?old", track.getDuration() * 1000L, 0)).join();
+            }
+            helper.addToFavorites(track.getId() + 1_000).join();
+        }
+        long threeStepMs = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        int added = helper.favoriteRemoteTracks(page).join();
+        long batchMs = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(25, added);
+        assertTrue(helper.isFavorite(900_000_000L));
+        assertFalse(helper.isFavorite(900_000_100L));
+        assertEquals(50, helper.getFavoriteSongs().size());
+
+        // Favoriting again refreshes the stored preview URL and adds nothing
+        DeezerService.DeezerTrack refreshed = new DeezerService.DeezerTrack(900_000_000L, "Remote 0",
+                "Artist", "Album", 31, "https://cdn.example.com/preview/0-new.mp3", null);
+        assertEquals(0, (int) helper.favoriteRemoteTrack(refreshed).join());
+        Song stored = helper.getSongById(900_000_000L);
+        assertEquals("https://cdn.example.com/preview/0-new.mp3", stored.getPath());
+        assertEquals(31_000, stored.getDuration());
+
+        Log.i(TAG, "Favorite a page of 25 remote tracks: three-step " + threeStepMs +
+                " ms, single batch " + batchMs + " ms");
+    }
+
+    @Test
+    public void favoriteRemoteTrackLeavesLocalSongWithSameIdAlone() {
+        helper.insertSongWithId(new Song(900_000_200L, "Local", "Artist", "Album",
+                "/music/local.mp3", 180_000, 0)).join();
+        DeezerService.DeezerTrack clash = new DeezerService.DeezerTrack(900_000_200L, "Remote", "Artist",
+                "Album", 30, "https://cdn.example.com/preview/clash.mp3", null);
+
+        assertEquals(0, (int) helper.favoriteRemoteTrack(clash).join());
+        assertFalse(helper.isFavorite(900_000_200L));
+        assertEquals("/music/local.mp3", helper.getSongById(900_000_200L).getPath());
+    }
+
+    @Test
+    public void maintenanceRunsInShortChunks() {
+        helper.insertSongs(createSongs(20_000, "churn"), false).join();
+        helper.deleteAllSongs().join();
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        assertTrue(freePages > 0);
+
+        long start = SystemClock.elapsedRealtime();
+        helper.optimize().join();
+        long optimizeMs = SystemClock.elapsedRealtime() - start;
+
+        int chunks = 0;
+        long maxChunkMs = 0;
+        int remaining;
+        do {
+            start = SystemClock.elapsedRealtime();
+            remaining = helper.incrementalVacuum(32).join();
+            maxChunkMs = Math.max(maxChunkMs, SystemClock.elapsedRealtime() - start);
+            chunks++;
+        } while (remaining > 0);
+
+        start = SystemClock.elapsedRealtime();
+        assertNull(helper.quickCheck());
+        long checkMs = SystemClock.elapsedRealtime() - start;
+        for (String index : helper.getIndexNames()) {
+            helper.reindex(index).join();
+        }
+
+        Log.i(TAG, "Maintenance: optimize " + optimizeMs + " ms, " + freePages +
+                " free pages released in " + chunks + " chunks (slowest " + maxChunkMs +
+                " ms), quick_check " + checkMs + " ms");
+        assertEquals(0, DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
+        assertTrue("Vacuum chunk took " + maxChunkMs + " ms", maxChunkMs < 50);
+    }
+
+    // The per-keystroke loop HomeFragment used before the FTS index
+    private static List<Song> linearFilter(List<Song> library, String query) {
+        List<Song> result = new ArrayList<>();
+        String lowerQuery = query.toLowerCase();
+        for (Song song : library) {
+            if (song.getTitle().toLowerCase().contains(lowerQuery) ||
+                song.getArtist().toLowerCase().contains(lowerQuery) ||
+                song.getAlbum().toLowerCase().contains(lowerQuery)) {
+                result.add(song);
+            }
+        }
+        return result;
+    }
+
+    static List<Song> createSongs(int count, String prefix) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(new Song(0, prefix + " track " + i, "Artist " + (i % 300),
+                    "Album " + (i % 1200), "/music/" + prefix + "/track_" + i + ".mp3",
+                    180_000 + i, 0));
+        }
+        return songs;
+    }
+}
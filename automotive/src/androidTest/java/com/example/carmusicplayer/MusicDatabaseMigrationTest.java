@@ -0,0 +1,267 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrades a populated version 2 database and checks that data survives and
+ * that the hot queries are served by indexes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MusicDatabaseMigrationTest {
+
+    private static final String TEST_DB = "migration_test.db";
+    private static final int SONG_COUNT = 50_000;
+    private static final int FAVORITE_COUNT = 500;
+
+    private Context context;
+    private MusicDatabaseHelper helper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        createVersion2Database();
+        helper = new MusicDatabaseHelper(context, TEST_DB);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void upgradeKeepsSongsAndFavorites() {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(SONG_COUNT, DatabaseUtils.queryNumEntries(db, MusicDatabaseHelper.TABLE_SONGS));
+        assertEquals(FAVORITE_COUNT, DatabaseUtils.queryNumEntries(db, MusicDatabaseHelper.TABLE_FAVORITES));
+        assertTrue(helper.songExists("/music/track_42.mp3"));
+        assertTrue(helper.isFavorite(1));
+    }
+
+    @Test
+    public void upgradeMovesFavoritesOffDuplicatePaths() {
+        // Written before the upgrade runs: two copies of track 600, one of track 0
+        SQLiteDatabase legacy = context.openOrCreateDatabase(TEST_DB, Context.MODE_PRIVATE, null);
+        long copy = insertLegacySong(legacy, "/music/track_600.mp3");
+        insertLegacySong(legacy, "/music/track_600.mp3");
+        long favoriteCopy = insertLegacySong(legacy, "/music/track_0.mp3");
+        legacy.execSQL("INSERT INTO favorites (song_id) VALUES (?), (?)", new Object[]{copy, favoriteCopy});
+        legacy.close();
+
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(SONG_COUNT, DatabaseUtils.queryNumEntries(db, MusicDatabaseHelper.TABLE_SONGS));
+        // Track 600 was only a favorite through its copy; track 0 already was one
+        assertEquals(FAVORITE_COUNT + 1, DatabaseUtils.queryNumEntries(db, MusicDatabaseHelper.TABLE_FAVORITES));
+        assertTrue(helper.isFavorite(601));
+        assertTrue(helper.isFavorite(1));
+        assertFalse(helper.isFavorite(copy));
+        assertFalse(helper.isFavorite(favoriteCopy));
+    }
+
+    @Test
+    public void pathLookupUsesIndex() {
+        String plan = explain("SELECT id FROM songs WHERE path = '/music/track_42.mp3'");
+        assertTrue(plan, plan.contains(MusicDatabaseHelper.INDEX_SONGS_PATH));
+    }
+
+    @Test
+    public void titleOrderingAvoidsSort() {
+        String plan = explain("SELECT * FROM songs ORDER BY title ASC");
+        assertTrue(plan, plan.contains(MusicDatabaseHelper.INDEX_SONGS_TITLE));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void assetListingUsesIndex() {
+        String plan = explain("SELECT * FROM songs WHERE is_asset = 1 ORDER BY title ASC");
+        assertTrue(plan, plan.contains(MusicDatabaseHelper.INDEX_SONGS_ASSET_TITLE));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void favoritesOrderingAvoidsSort() {
+        String plan = explain("SELECT s.* FROM songs s INNER JOIN favorites f ON s.id = f.song_id " +
+                "ORDER BY f.added_at DESC");
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void upgradeBackfillsArtistsAndAlbums() {
+        List<Artist> artists = helper.getArtists(null, 1_000);
+        assertEquals(500, artists.size());
+        int tracks = 0;
+        for (Artist artist : artists) {
+            tracks += artist.getTrackCount();
+        }
+        assertEquals(SONG_COUNT, tracks);
+        // Album i % 2000 and artist i % 500 always pair up the same way
+        List<Album> albums = helper.getAlbumsForArtist(artists.get(0).getId());
+        assertEquals(4, albums.size());
+        assertEquals(25, albums.get(0).getTrackCount());
+    }
+
+    @Test
+    public void browseQueriesUseIndexes() {
+        String artistsPlan = explain("SELECT * FROM artists WHERE name > 'M' ORDER BY name ASC LIMIT 50");
+        assertFalse(artistsPlan, artistsPlan.contains("TEMP B-TREE"));
+        assertTrue(artistsPlan, artistsPlan.contains("INDEX"));
+        String albumsPlan = explain("SELECT * FROM albums WHERE artist_id = 1 ORDER BY title ASC");
+        assertFalse(albumsPlan, albumsPlan.contains("TEMP B-TREE"));
+        assertTrue(albumsPlan, albumsPlan.contains("INDEX"));
+    }
+
+    @Test
+    public void upgradeBackfillsPathHashes() {
+        PathHashIndex known = helper.loadPathHashes(false);
+        assertEquals(SONG_COUNT - SONG_COUNT / 10, known.size());
+        assertTrue(known.markSeen("/music/track_1.mp3"));
+        String plan = explain("SELECT id FROM songs WHERE path_hash = 42 AND path = 'x'");
+        assertTrue(plan, plan.contains("INDEX"));
+    }
+
+    @Test
+    public void storageUsageRoundTripsInPlayOrder() {
+        List<StorageUsage> usage = new ArrayList<>();
+        usage.add(new StorageUsage("/imported/b.mp3", 0, 200, 2, 20));
+        usage.add(new StorageUsage("/imported/a.mp3", 0, 100, 1, 10));
+        helper.saveStorageUsage(usage).join();
+        helper.touchStorageUsage("/imported/a.mp3", 30).join();
+
+        List<StorageUsage> loaded = helper.getStorageUsage();
+        assertEquals(2, loaded.size());
+        assertEquals("/imported/b.mp3", loaded.get(0).getPath());
+        assertEquals(30, loaded.get(1).getLastPlayed());
+        String plan = explain("SELECT * FROM storage_usage ORDER BY last_played ASC");
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+        helper.deleteStorageUsage(Collections.singletonList("/imported/b.mp3")).join();
+        assertEquals(1, helper.getStorageUsage().size());
+    }
+
+    @Test
+    public void incrementalVacuumIsNoOpOnLegacyFiles() {
+        // Version 2 files were created without incremental auto-vacuum
+        assertEquals(0, (int) helper.incrementalVacuum(32).join());
+        assertNull(helper.quickCheck());
+    }
+
+    @Test
+    public void largeLegacyFilesAreNotRewrittenOnOpen() {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(0, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        assertEquals(SONG_COUNT, DatabaseUtils.queryNumEntries(db, MusicDatabaseHelper.TABLE_SONGS));
+        assertNull(helper.quickCheck());
+    }
+
+    @Test
+    public void freshDatabaseUsesIncrementalVacuum() {
+        String freshDb = "fresh_" + TEST_DB;
+        context.deleteDatabase(freshDb);
+        MusicDatabaseHelper fresh = new MusicDatabaseHelper(context, freshDb);
+        try {
+            assertEquals(2, DatabaseUtils.longForQuery(fresh.getReadableDatabase(),
+                    "PRAGMA auto_vacuum", null));
+        } finally {
+            fresh.close();
+            context.deleteDatabase(freshDb);
+        }
+    }
+
+    @Test
+    public void optimizeRespectsSqliteVersion() {
+        assertEquals(3_022_000, MusicDatabaseHelper.parseSqliteVersion("3.22.0"));
+        assertEquals(3_032_003, MusicDatabaseHelper.parseSqliteVersion("3.32.3"));
+        assertEquals(3_040_000, MusicDatabaseHelper.parseSqliteVersion("3.40"));
+        assertEquals(1, (int) helper.optimize().join());
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.execSQL("INSERT INTO songs (title, path) VALUES ('One more', '/music/one_more.mp3')");
+        // Without analysis_limit a library this size must not get a full ANALYZE
+        int expected = MusicDatabaseHelper.sqliteVersion(db) >= 3_032_000 ? 1 : 0;
+        assertEquals(expected, (int) helper.optimize().join());
+    }
+
+    private String explain(String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = helper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        int detailColumn = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailColumn)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
+    private static long insertLegacySong(SQLiteDatabase db, String path) {
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO songs (title, artist, album, path) VALUES ('Copy', 'Artist', 'Album', ?)");
+        insert.bindString(1, path);
+        long id = insert.executeInsert();
+        insert.close();
+        return id;
+    }
+
+    // Recreates the schema as shipped in version 2, before any indexes existed
+    private void createVersion2Database() {
+        SQLiteDatabase db = context.openOrCreateDatabase(TEST_DB, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE songs (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "title TEXT NOT NULL, " +
+                "artist TEXT, " +
+                "album TEXT, " +
+                "path TEXT NOT NULL, " +
+                "duration INTEGER DEFAULT 0, " +
+                "is_asset INTEGER DEFAULT 0)");
+        db.execSQL("CREATE TABLE favorites (" +
+                "song_id INTEGER PRIMARY KEY, " +
+                "added_at DATETIME DEFAULT CURRENT_TIMESTAMP)");
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO songs (title, artist, album, path, duration, is_asset) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)");
+            for (int i = 0; i < SONG_COUNT; i++) {
+                insert.bindString(1, "Track " + i);
+                insert.bindString(2, "Artist " + (i % 500));
+                insert.bindString(3, "Album " + (i % 2000));
+                insert.bindString(4, "/music/track_" + i + ".mp3");
+                insert.bindLong(5, 180_000);
+                insert.bindLong(6, i % 10 == 0 ? 1 : 0);
+                insert.executeInsert();
+            }
+            insert.close();
+
+            SQLiteStatement favorite = db.compileStatement("INSERT INTO favorites (song_id) VALUES (?)");
+            for (int i = 1; i <= FAVORITE_COUNT; i++) {
+                favorite.bindLong(1, i);
+                favorite.executeInsert();
+            }
+            favorite.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.setVersion(2);
+        db.close();
+    }
+}
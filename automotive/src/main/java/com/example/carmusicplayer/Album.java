@@ -0,0 +1,29 @@
+package com.example.carmusicplayer;
+
+/**
+ * Model class representing an album of one artist, with the aggregate
+ * track count and duration of its songs
+ */
+public class Album {
+
+    private long id;
+    private long artistId;
+    private String title;
+    private int trackCount;
+    private long totalDuration;
+
+    public Album(long id, long artistId, String title, int trackCount, long totalDuration) {
+        this.id = id;
+        this.artistId = artistId;
+        this.title = title;
+        this.trackCount = trackCount;
+        this.totalDuration = totalDuration;
+    }
+
+    // Getters
+    public long getId() { return id; }
+    public long getArtistId() { return artistId; }
+    public String getTitle() { return title; }
+    public int getTrackCount() { return trackCount; }
+    public long getTotalDuration() { return totalDuration; }
+}
@@ -0,0 +1,26 @@
+package com.example.carmusicplayer;
+
+/**
+ * Model class representing an artist in the library, with the aggregate
+ * track count and duration of their songs
+ */
+public class Artist {
+
+    private long id;
+    private String name;
+    private int trackCount;
+    private long totalDuration;
+
+    public Artist(long id, String name, int trackCount, long totalDuration) {
+        this.id = id;
+        this.name = name;
+        this.trackCount = trackCount;
+        this.totalDuration = totalDuration;
+    }
+
+    // Getters
+    public long getId() { return id; }
+    public String getName() { return name; }
+    public int getTrackCount() { return trackCount; }
+    public long getTotalDuration() { return totalDuration; }
+}
@@ -0,0 +1,92 @@
+package com.example.carmusicplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tags and durations of the bundled music, read at build time by the
+ * generateAssetManifest task and packaged as an asset next to the files.
+ * At runtime the whole manifest is one small read, so new assets need
+ * neither a folder listing nor a media extractor.
+ * <p>
+ * Format: magic, version and entry count, then per entry the asset path,
+ * title, artist and album as modified UTF-8 and the duration in ms. A
+ * duration of -1 marks a file the build could not read; it is probed on
+ * the device instead.
+ */
+public class AssetManifest {
+
+    public static final String ASSET_NAME = "music_manifest.bin";
+    private static final int MAGIC = 0x414d4e46; // "AMNF"
+    private static final int VERSION = 1;
+
+    public static void write(OutputStream out, List<Song> songs) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(songs.size());
+        for (Song song : songs) {
+            data.writeUTF(song.getPath());
+            data.writeUTF(song.getTitle());
+            data.writeUTF(song.getArtist());
+            data.writeUTF(song.getAlbum());
+            data.writeLong(song.getDuration());
+        }
+        data.flush();
+    }
+
+    /**
+     * Read a manifest. Returns null if the stream does not hold one this
+     * version understands.
+     */
+    public static List<Song> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            return null;
+        }
+        int count = data.readInt();
+        List<Song> songs = new ArrayList<>(Math.max(0, count));
+        for (int i = 0; i < count; i++) {
+            String path = data.readUTF();
+            String title = data.readUTF();
+            String artist = data.readUTF();
+            String album = data.readUTF();
+            long duration = data.readLong();
+            songs.add(new Song(0, title, artist, album, path, duration, 0));
+        }
+        return songs;
+    }
+
+    /**
+     * Song for a bundled file from the tags found at build time, with the
+     * same defaults the device applies to untagged files
+     */
+    public static Song fromTags(String assetPath, TagReader.Tags tags) {
+        String fileName = assetPath.substring(assetPath.lastIndexOf('/') + 1);
+        String title = tags != null ? tags.title : null;
+        String artist = tags != null ? tags.artist : null;
+        String album = tags != null ? tags.album : null;
+        if (title == null || title.isEmpty()) {
+            title = fileName.replaceFirst("[.][^.]+$", "").replace("_", " ");
+        }
+        if (artist == null || artist.isEmpty()) artist = "Unknown Artist";
+        if (album == null || album.isEmpty()) album = "Assets";
+        long duration = tags != null ? tags.durationMs : -1;
+        return new Song(0, title, artist, album, assetPath, duration, 0);
+    }
+
+    public static boolean isAudioFile(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".mp3") || lower.endsWith(".wav") ||
+               lower.endsWith(".m4a") || lower.endsWith(".ogg") ||
+               lower.endsWith(".flac") || lower.endsWith(".aac");
+    }
+}
@@ -1,12 +1,11 @@
 package com.example.carmusicplayer;
 
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
-import android.media.MediaMetadataRetriever;
 import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,76 +18,75 @@ public class AssetMusicScanner {
     private static final String MUSIC_FOLDER = "music";
 
     /**
-     * Scan and register all music files from assets/music folder
+     * Build songs for the bundled files the index does not know yet. Known
+     * files are only marked as seen, so their metadata is never read again.
+     * Tags come from the build-time manifest; only files the build could not
+     * read (or every file, in a build without a manifest) are probed, in
+     * parallel. New songs are passed to the sink in batches. Returns null if
+     * the bundled files could not be listed.
      */
-    public static void scanAndRegisterAssets(Context context) {
-        MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(context);
+    public static List<Song> scanNewAssets(Context context, PathHashIndex known,
+                                           MetadataExtractor.BatchSink sink) {
         AssetManager assetManager = context.getAssets();
         
         try {
-            String[] files = assetManager.list(MUSIC_FOLDER);
+            List<Song> manifest = loadManifest(assetManager);
+            List<Song> newSongs = new ArrayList<>();
+            List<String> newPaths = new ArrayList<>();
             
-            if (files != null) {
-                for (String fileName : files) {
-                    if (isAudioFile(fileName)) {
-                        String assetPath = MUSIC_FOLDER + "/" + fileName;
-                        
-                        // Check if already in database
-                        if (!dbHelper.songExists(assetPath)) {
-                            Song song = createSongFromAsset(context, assetPath, fileName);
-                            if (song != null) {
-                                dbHelper.insertSong(song, true);
-                                Log.d(TAG, "Registered asset song: " + song.getTitle());
+            if (manifest != null) {
+                for (Song song : manifest) {
+                    if (known.markSeen(song.getPath())) {
+                        continue;
+                    }
+                    if (song.getDuration() >= 0) {
+                        newSongs.add(song);
+                    } else {
+                        newPaths.add(song.getPath());
+                    }
+                }
+            } else {
+                String[] files = assetManager.list(MUSIC_FOLDER);
+                if (files != null) {
+                    for (String fileName : files) {
+                        if (isAudioFile(fileName)) {
+                            String assetPath = MUSIC_FOLDER + "/" + fileName;
+                            
+                            if (!known.markSeen(assetPath)) {
+                                newPaths.add(assetPath);
                             }
                         }
                     }
                 }
             }
+            
+            for (int i = 0; i < newSongs.size(); i += MetadataExtractor.DEFAULT_BATCH_SIZE) {
+                sink.accept(new ArrayList<>(newSongs.subList(i,
+                        Math.min(newSongs.size(), i + MetadataExtractor.DEFAULT_BATCH_SIZE))));
+            }
+            if (!newPaths.isEmpty()) {
+                try (MetadataExtractor extractor = new MetadataExtractor(context)) {
+                    newSongs.addAll(extractor.extract(newPaths, true,
+                            MetadataExtractor.DEFAULT_BATCH_SIZE, sink));
+                }
+            }
+            Log.d(TAG, "Found " + newSongs.size() + " new asset songs, probed " + newPaths.size());
+            return newSongs;
         } catch (IOException e) {
             Log.e(TAG, "Error scanning assets", e);
+            return null;
         }
     }
 
     /**
-     * Create a Song object from an asset file
+     * The build-time manifest of assets/music in one read, or null if this
+     * build has none
      */
-    private static Song createSongFromAsset(Context context, String assetPath, String fileName) {
-        AssetManager assetManager = context.getAssets();
-        
-        try {
-            AssetFileDescriptor afd = assetManager.openFd(assetPath);
-            
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-            
-            String title = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
-            String artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
-            String album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
-            String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-            
-            // Use filename if no title in metadata
-            if (title == null || title.isEmpty()) {
-                title = fileName.replaceFirst("[.][^.]+$", "")  // Remove extension
-                        .replace("_", " ");  // Replace underscores with spaces
-            }
-            if (artist == null || artist.isEmpty()) artist = "Unknown Artist";
-            if (album == null || album.isEmpty()) album = "Assets";
-            
-            long duration = 0;
-            if (durationStr != null) {
-                duration = Long.parseLong(durationStr);
-            }
-            
-            retriever.release();
-            afd.close();
-            
-            return new Song(0, title, artist, album, assetPath, duration, 0);
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error reading asset: " + assetPath, e);
-            // Create with basic info from filename
-            String title = fileName.replaceFirst("[.][^.]+$", "").replace("_", " ");
-            return new Song(0, title, "Unknown Artist", "Assets", assetPath, 0, 0);
+    private static List<Song> loadManifest(AssetManager assetManager) {
+        try (InputStream in = assetManager.open(AssetManifest.ASSET_NAME)) {
+            return AssetManifest.read(in);
+        } catch (IOException e) {
+            return null;
         }
     }
 
@@ -116,9 +114,6 @@ public class AssetMusicScanner {
     }
 
     private static boolean isAudioFile(String fileName) {
-        String lower = fileName.toLowerCase();
-        return lower.endsWith(".mp3") || lower.endsWith(".wav") || 
-               lower.endsWith(".m4a") || lower.endsWith(".ogg") ||
-               lower.endsWith(".flac") || lower.endsWith(".aac");
+        return AssetManifest.isAudioFile(fileName);
     }
 }
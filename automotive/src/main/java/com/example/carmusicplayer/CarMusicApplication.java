@@ -0,0 +1,57 @@
+package com.example.carmusicplayer;
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.carmusicplayer.shared.MyMusicService;
+import com.example.carmusicplayer.shared.Track;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Connects the playback service to the library: media ids from the car's
+ * media UI resolve to songs, and every play counts for the storage quotas
+ * and the listening history, whichever client started it. The quota manager
+ * starts with the process, so quotas hold before any file is added.
+ */
+public class CarMusicApplication extends Application implements MyMusicService.PlaybackDelegate {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Loads the ledger in the background and enforces quotas left over from the last run
+        StorageQuotaManager.getInstance(this);
+    }
+
+    @Override
+    public void loadTrack(String mediaId, Consumer<Track> callback) {
+        long id;
+        try {
+            id = Long.parseLong(mediaId);
+        } catch (NumberFormatException e) {
+            callback.accept(null);
+            return;
+        }
+        executor.execute(() -> {
+            Song song = MusicDatabaseHelper.getInstance(this).getSongById(id);
+            Track track = song != null ? SongQueue.toTrack(song) : null;
+            mainHandler.post(() -> callback.accept(track));
+        });
+    }
+
+    @Override
+    public void onTrackStarted(Track track) {
+        StorageQuotaManager.getInstance(this).onPlayed(track.getSource());
+    }
+
+    @Override
+    public void onTrackCompleted(Track track) {
+        PlayHistoryRecorder.getInstance(this).recordPlay(SongQueue.toSong(track));
+    }
+}
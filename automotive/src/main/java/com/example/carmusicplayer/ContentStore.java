@@ -0,0 +1,126 @@
+package com.example.carmusicplayer;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed directory of imported audio: every file is stored as
+ * its SHA-256 in hex plus the original extension, so the same content is
+ * only ever stored once. The set of stored hashes and file sizes is read
+ * from the directory listing; the sizes let the importer rule out most new
+ * files as duplicates without hashing them first. Only files registered in
+ * the library count as stored.
+ * <p>
+ * Not thread-safe; the importer uses it from its own thread only.
+ */
+public class ContentStore {
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+    // 64 hex digits, then an optional extension
+    private static final Pattern STORED_NAME = Pattern.compile("[0-9a-f]{64}(\\.[a-z0-9]{1,8})?");
+    private static final Pattern EXTENSION = Pattern.compile("\\.[a-z0-9]{1,8}");
+
+    private final File dir;
+    private final Set<String> hashes = new HashSet<>();
+    private final Set<Long> sizes = new HashSet<>();
+    private final List<File> orphans = new ArrayList<>();
+
+    private ContentStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Index the files already stored in the directory whose absolute path
+     * is in registeredPaths. Stored files missing from it never made it into
+     * the library, e.g. the process died before their row was written; they
+     * are not indexed and are listed by getOrphans(). Files with other
+     * names, e.g. imported before content addressing, are left alone.
+     */
+    public static ContentStore open(File dir, Set<String> registeredPaths) {
+        ContentStore store = new ContentStore(dir);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || !STORED_NAME.matcher(name).matches()) {
+                    continue;
+                }
+                if (registeredPaths.contains(file.getAbsolutePath())) {
+                    store.hashes.add(name.substring(0, 64));
+                    store.sizes.add(file.length());
+                } else {
+                    store.orphans.add(file);
+                }
+            }
+        }
+        return store;
+    }
+
+    // Stored files without a library row, found by open()
+    public List<File> getOrphans() {
+        return orphans;
+    }
+
+    // False means no stored file has this size, so the content cannot be stored yet
+    public boolean mayContain(long size) {
+        return sizes.contains(size);
+    }
+
+    public boolean contains(String hash) {
+        return hashes.contains(hash);
+    }
+
+    // Record a file moved to fileFor(hash, ...) once it is registered in the library
+    public void add(String hash, long size) {
+        hashes.add(hash);
+        sizes.add(size);
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Where content with the given hash is stored. The extension of the
+     * original name is kept so players and the tag reader can tell the
+     * format from the name.
+     */
+    public File fileFor(String hash, String originalName) {
+        return new File(dir, hash + extensionOf(originalName));
+    }
+
+    // ".mp3" for "Song.MP3"; empty if the name has no usable extension
+    static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return "";
+        }
+        String extension = name.substring(dot).toLowerCase(Locale.ROOT);
+        return EXTENSION.matcher(extension).matches() ? extension : "";
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(digest[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+}
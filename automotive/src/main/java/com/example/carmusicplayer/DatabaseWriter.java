@@ -0,0 +1,158 @@
+package com.example.carmusicplayer;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Single writer thread for the music database. Callers queue mutations and
+ * get a future back immediately; the writer drains whatever has queued up
+ * into one transaction, so a burst of writes costs one commit rather than
+ * one per call. With write-ahead logging enabled, readers on other threads
+ * keep running while a batch is being written.
+ */
+public class DatabaseWriter {
+
+    private static final String TAG = "DatabaseWriter";
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * A mutation run on the writer thread inside the batch transaction
+     */
+    public interface Write<T> {
+        T apply(SQLiteDatabase db);
+    }
+
+    private static final class Task<T> {
+        final Write<T> write;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+
+        Task(Write<T> write) {
+            this.write = write;
+        }
+
+        void run(SQLiteDatabase db) {
+            result = write.apply(db);
+        }
+
+        void complete() {
+            future.complete(result);
+        }
+    }
+
+    private final SQLiteOpenHelper helper;
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    // Set by shutdown; guarded by this, so no write is queued behind the last one
+    private boolean closed = false;
+
+    DatabaseWriter(SQLiteOpenHelper helper) {
+        this.helper = helper;
+        thread = new Thread(this::runLoop, "music-db-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Queue a mutation; the future completes once its batch has committed,
+    // or fails right away once the writer is shut down
+    public <T> CompletableFuture<T> submit(Write<T> write) {
+        Task<T> task = new Task<>(write);
+        synchronized (this) {
+            if (closed) {
+                task.future.completeExceptionally(new IllegalStateException("closed"));
+            } else {
+                queue.add(task);
+            }
+        }
+        return task.future;
+    }
+
+    // Wait for everything queued so far to commit, then stop the writer thread
+    void shutdown() {
+        Task<Void> last = new Task<>(db -> null);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(last);
+        }
+        last.future.join();
+        thread.interrupt();
+    }
+
+    private void runLoop() {
+        List<Task<?>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            try {
+                runBatch(batch);
+            } catch (Throwable t) {
+                // Never let a batch take the only writer thread down with it
+                Log.e(TAG, "Database writer failed", t);
+                failAll(batch, t);
+            }
+            batch.clear();
+        }
+    }
+
+    private void runBatch(List<Task<?>> batch) {
+        SQLiteDatabase db;
+        try {
+            db = helper.getWritableDatabase();
+        } catch (Throwable t) {
+            Log.e(TAG, "Cannot open database for writing", t);
+            failAll(batch, t);
+            return;
+        }
+        
+        // Errors too: an OutOfMemoryError in one write must not leave its batch waiting forever
+        Throwable failure = null;
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                for (Task<?> task : batch) {
+                    task.run(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Throwable t) {
+            failure = t;
+        }
+        
+        if (failure == null) {
+            for (Task<?> task : batch) {
+                task.complete();
+            }
+        } else if (batch.size() == 1) {
+            Log.e(TAG, "Database write failed", failure);
+            batch.get(0).future.completeExceptionally(failure);
+        } else {
+            // One bad write rolled back the whole batch; retry each on its own
+            for (Task<?> task : batch) {
+                runBatch(Collections.singletonList(task));
+            }
+        }
+    }
+
+    private static void failAll(List<Task<?>> batch, Throwable t) {
+        for (Task<?> task : batch) {
+            task.future.completeExceptionally(t);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.carmusicplayer;
+
+/**
+ * In-memory copy of the favorites table's song ids. Loaded once from the
+ * database and then kept current by MusicDatabaseHelper whenever a favorite
+ * is added or removed, so list binding never has to query SQLite.
+ */
+public class FavoritesIndex {
+
+    private final LongHashSet songIds;
+
+    FavoritesIndex(long[] initialIds) {
+        songIds = new LongHashSet(initialIds.length);
+        for (long id : initialIds) {
+            songIds.add(id);
+        }
+    }
+
+    public synchronized boolean contains(long songId) {
+        return songIds.contains(songId);
+    }
+
+    public synchronized int size() {
+        return songIds.size();
+    }
+
+    synchronized void add(long songId) {
+        songIds.add(songId);
+    }
+
+    synchronized void remove(long songId) {
+        songIds.remove(songId);
+    }
+}
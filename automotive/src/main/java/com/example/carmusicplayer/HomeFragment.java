@@ -1,5 +1,6 @@
 package com.example.carmusicplayer;
 
+import android.content.Context;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
@@ -30,22 +31,33 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Home Fragment - Library + Now Playing
  */
-public class HomeFragment extends Fragment implements SongAdapter.OnSongClickListener {
+public class HomeFragment extends Fragment implements SongAdapter.OnSongClickListener,
+        LibraryWatcher.OnLibraryChangedListener {
 
     private static final int REPEAT_OFF = 0;
     private static final int REPEAT_ALL = 1;
     private static final int REPEAT_ONE = 2;
 
+    private static final int SEARCH_RESULT_LIMIT = 200;
+    private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    // Cached-row loads and counts for the library list
+    private static final ExecutorService libraryExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     // Views
     private LinearLayout libraryPanel;
     private ImageButton btnToggleLibrary;
     private ImageButton btnSearch;
     private EditText etSearch;
     private TextView tvSongCount;
+    private TextView tvEmptyLibrary;
     private RecyclerView rvSongs;
     
     private ImageView ivAlbumArt;
@@ -64,10 +76,19 @@ public class HomeFragment extends Fragment implements SongAdapter.OnSongClickLis
     private TextView tvVolumePercent;
 
     // Data
-    private List<Song> allSongs = new ArrayList<>();
-    private List<Song> songList = new ArrayList<>();
-    private SongAdapter songAdapter;
+    private MusicDatabaseHelper dbHelper;
+    // Whole library, only materialized when shuffling needs it
+    private List<Song> allSongs;
+    // Mapped copy of the library from the last scan; dropped once a scan finds changes
+    private LibrarySnapshot snapshot;
+    private PagedSongAdapter songAdapter;
     private int currentSongIndex = -1;
+    // Bumped on every keystroke so results of superseded searches are dropped
+    private int searchGeneration = 0;
+    // Bumped per view so cached rows loaded for an old view are dropped
+    private int loadGeneration = 0;
+    // Bumped by every library change, so a whole-library read that raced one is not kept
+    private int libraryVersion = 0;
     
     private boolean isLibraryVisible = true;
     private boolean isSearchVisible = false;
@@ -93,6 +114,7 @@ public class HomeFragment extends Fragment implements SongAdapter.OnSongClickLis
         btnSearch = view.findViewById(R.id.btnSearch);
         etSearch = view.findViewById(R.id.etSearch);
         tvSongCount = view.findViewById(R.id.tvSongCount);
+        tvEmptyLibrary = view.findViewById(R.id.tvEmptyLibrary);
         rvSongs = view.findViewById(R.id.rvSongs);
         
         // Now Playing
@@ -112,7 +134,8 @@ public class HomeFragment extends Fragment implements SongAdapter.OnSongClickLis
         tvVolumePercent = view.findViewById(R.id.tvVolumePercent);
         
         // Setup RecyclerView
-        songAdapter = new SongAdapter(getContext(), songList, this);
+        dbHelper = MusicDatabaseHelper.getInstance(getContext());
+        songAdapter = new PagedSongAdapter(getContext(), this);
         rvSongs.setLayoutManager(new LinearLayoutManager(getContext()));
         rvSongs.setAdapter(songAdapter);
     }
@@ -214,45 +237,65 @@ public class HomeFragment extends Fragment implements SongAdapter.OnSongClickLis
             etSearch.requestFocus();
         } else {
             etSearch.setVisibility(View.GONE);
+            // Clearing the text restores the library through filterSongs
             etSearch.setText("");
-            songList = new ArrayList<>(allSongs);
-            if (isShuffleOn) {
-                Collections.shuffle(songList);
-            }
-            songAdapter.updateSongs(songList);
-            tvSongCount.setText(songList.size() + " songs");
         }
     }
 
     private void filterSongs(String query) {
-        if (query.isEmpty()) {
-            songList = new ArrayList<>(allSongs);
-        } else {
-            songList = new ArrayList<>();
-            String lowerQuery = query.toLowerCase();
-            for (Song song : allSongs) {
-                if (song.getTitle().toLowerCase().contains(lowerQuery) ||
-                    song.getArtist().toLowerCase().contains(lowerQuery) ||
-                    song.getAlbum().toLowerCase().contains(lowerQuery)) {
-                    songList.add(song);
+        final int generation = ++searchGeneration;
+        if (query.trim().isEmpty()) {
+            restoreLibrary();
+            return;
+        }
+        
+        // Full-text lookup in the background, only the latest query is shown
+        searchExecutor.execute(() -> {
+            List<Song> results = dbHelper.searchSongs(query, SEARCH_RESULT_LIMIT);
+            mainHandler.post(() -> {
+                if (generation != searchGeneration || !isAdded()) {
+                    return;
                 }
-            }
+                songAdapter.updateSongs(results);
+                showSongCount(results.size());
+            });
+        });
+    }
+
+    // Back to the unfiltered library, shuffled or paged in title order
+    private void restoreLibrary() {
+        if (!isShuffleOn) {
+            showLibrary();
+            return;
         }
-        songAdapter.updateSongs(songList);
-        tvSongCount.setText(songList.size() + " songs");
+        loadAllSongs(songs -> {
+            // Still shuffling, and no new query arrived meanwhile
+            if (!isShuffleOn || etSearch.getText().length() > 0) {
+                return;
+            }
+            List<Song> songList = new ArrayList<>(songs);
+            Collections.shuffle(songList);
+            songAdapter.updateSongs(songList);
+            showSongCount(songList.size());
+        });
     }
 
     private void toggleShuffle() {
         isShuffleOn = !isShuffleOn;
         if (isShuffleOn) {
             btnShuffle.setColorFilter(getResources().getColor(android.R.color.holo_green_light));
-            Collections.shuffle(songList);
-            songAdapter.updateSongs(songList);
             Toast.makeText(getContext(), "Shuffle ON", Toast.LENGTH_SHORT).show();
+            // Shuffle the search results if filtering, the whole library otherwise
+            if (etSearch.getText().length() > 0) {
+                List<Song> songList = new ArrayList<>(songAdapter.getSongs());
+                Collections.shuffle(songList);
+                songAdapter.updateSongs(songList);
+            } else {
+                restoreLibrary();
+            }
         } else {
             btnShuffle.setColorFilter(0xFF808080);
-            songList = new ArrayList<>(allSongs);
-            songAdapter.updateSongs(songList);
+            showLibrary();
             Toast.makeText(getContext(), "Shuffle OFF", Toast.LENGTH_SHORT).show();
         }
     }
@@ -283,19 +326,157 @@ public class HomeFragment extends Fragment implements SongAdapter.OnSongClickLis
         }
     }
 
+    /**
+     * Load the library without blocking the first frame. The background
+     * pipeline first emits the cached rows (the mapped snapshot, or the first
+     * page and count from the database), then starts the rescan, whose
+     * results arrive batch by batch through onLibraryChanged.
+     */
     private void loadSongs() {
-        allSongs = MusicScanner.getAllSongs(getContext());
-        songList = new ArrayList<>(allSongs);
-        songAdapter.updateSongs(songList);
-        tvSongCount.setText(songList.size() + " songs");
+        Context context = getContext().getApplicationContext();
+        LibraryWatcher watcher = LibraryWatcher.getInstance(context);
+        watcher.addListener(this);
+        
+        final int generation = ++loadGeneration;
+        libraryExecutor.execute(() -> {
+            LibrarySnapshot cached = LibrarySnapshot.open(LibrarySnapshot.getFile(context));
+            // Opens the database and loads what the first bind needs, off the main thread
+            dbHelper.getFavoritesIndex();
+            List<Song> firstPage = cached == null
+                    ? dbHelper.getLocalSongsPage(null, PagedSongAdapter.PAGE_SIZE) : null;
+            int count = cached != null ? cached.size() : dbHelper.getLocalSongCount();
+            
+            mainHandler.post(() -> {
+                if (generation != loadGeneration || !isAdded()) {
+                    return;
+                }
+                snapshot = cached;
+                // Leave search results and shuffled queues alone
+                if (etSearch.getText().length() == 0 && !isShuffleOn) {
+                    if (cached != null) {
+                        songAdapter.updateSongs(cached);
+                    } else {
+                        songAdapter.setSource(dbHelper::getLocalSongsPage, firstPage);
+                    }
+                }
+                showSongCount(count);
+                // Scan results are applied on top of the rows shown now
+                watcher.scanLibrary();
+            });
+        });
+    }
+
+    @Override
+    public void onDestroyView() {
+        LibraryWatcher.getInstance(getContext()).removeListener(this);
+        super.onDestroyView();
+    }
+
+    /**
+     * Patch the visible list with a library delta instead of reloading it.
+     * The mapped snapshot is read-only and out of date now, so a list backed
+     * by it is swapped for the database once.
+     */
+    @Override
+    public void onLibraryChanged(LibraryChange change) {
+        boolean showingSnapshot = snapshot != null && songAdapter.getSongs() == snapshot;
+        snapshot = null;
+        allSongs = null;
+        libraryVersion++;
+        if (showingSnapshot) {
+            showLibrary();
+            return;
+        }
+        songAdapter.applyLibraryChange(change);
+        // The playback queue shares this list; keep its position on the current song
+        if (getActivity() instanceof MainActivity) {
+            ((MainActivity) getActivity()).updateQueuePosition(songAdapter.getSongs(),
+                    songAdapter.getCurrentPlaying());
+        }
+        if (etSearch.getText().length() == 0 && !isShuffleOn) {
+            refreshSongCount();
+        } else {
+            showSongCount(songAdapter.getItemCount());
+        }
+    }
+
+    // Show the snapshot while it is current, otherwise page through the local library
+    private void showLibrary() {
+        if (snapshot != null) {
+            songAdapter.updateSongs(snapshot);
+            showSongCount(snapshot.size());
+            return;
+        }
+        songAdapter.setSource(dbHelper::getLocalSongsPage);
+        refreshSongCount();
+    }
+
+    // Count the local library in the background, then show it
+    private void refreshSongCount() {
+        final int generation = loadGeneration;
+        libraryExecutor.execute(() -> {
+            int count = dbHelper.getLocalSongCount();
+            mainHandler.post(() -> {
+                if (generation == loadGeneration && isAdded()) {
+                    showSongCount(count);
+                }
+            });
+        });
+    }
+
+    private void showSongCount(int count) {
+        tvSongCount.setText(count + " songs");
+        tvEmptyLibrary.setVisibility(count == 0 && etSearch.getText().length() == 0
+                ? View.VISIBLE : View.GONE);
+    }
+
+    // Hand the whole library to action on the main thread, reading it in the background once
+    private void loadAllSongs(Consumer<List<Song>> action) {
+        if (allSongs == null && snapshot != null) {
+            allSongs = snapshot;
+        }
+        if (allSongs != null) {
+            action.accept(allSongs);
+            return;
+        }
+        final int generation = loadGeneration;
+        final int libraryVersion = this.libraryVersion;
+        libraryExecutor.execute(() -> {
+            List<Song> songs = dbHelper.getLocalSongs();
+            mainHandler.post(() -> {
+                if (generation != loadGeneration || !isAdded()) {
+                    return;
+                }
+                // A scan that changed the library meanwhile makes this copy stale
+                if (libraryVersion == this.libraryVersion) {
+                    allSongs = songs;
+                }
+                action.accept(songs);
+            });
+        });
     }
 
     @Override
     public void onSongClick(Song song, int position) {
         currentSongIndex = position;
-        if (getActivity() instanceof MainActivity) {
-            ((MainActivity) getActivity()).playSong(song, songList, position);
+        if (!(getActivity() instanceof MainActivity)) {
+            return;
         }
+        if (!songAdapter.isPaging()) {
+            ((MainActivity) getActivity()).playSong(song, songAdapter.getSongs(), position);
+            return;
+        }
+        // Only the pages scrolled to are loaded; queue the whole library by id
+        final int generation = loadGeneration;
+        libraryExecutor.execute(() -> {
+            long[] ids = dbHelper.getLocalSongIds();
+            mainHandler.post(() -> {
+                if (generation == loadGeneration && getActivity() instanceof MainActivity) {
+                    ((MainActivity) getActivity()).playSongs(ids,
+                            SongQueue.indexOf(ids, song.getId(), position));
+                }
+            });
+        });
     }
 
     // Called by MainActivity to update UI
@@ -334,7 +515,7 @@ public class HomeFragment extends Fragment implements SongAdapter.OnSongClickLis
     }
 
     public List<Song> getSongList() {
-        return songList;
+        return songAdapter.getSongs();
     }
 
     public int getRepeatMode() {
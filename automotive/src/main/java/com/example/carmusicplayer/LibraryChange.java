@@ -0,0 +1,37 @@
+package com.example.carmusicplayer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Songs one scan added to and removed from the local library, as stored in
+ * the database. Added songs carry their new row ids.
+ */
+public class LibraryChange {
+
+    public static final LibraryChange NONE = new LibraryChange(Collections.emptyList(), new long[0]);
+
+    private final List<Song> added;
+    private final long[] removedIds;
+
+    public LibraryChange(List<Song> added, long[] removedIds) {
+        this.added = added;
+        this.removedIds = removedIds;
+    }
+
+    public List<Song> getAdded() {
+        return added;
+    }
+
+    public long[] getRemovedIds() {
+        return removedIds;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removedIds.length == 0;
+    }
+
+    public int size() {
+        return added.size() + removedIds.length;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Read-only copy of the local library in a compact binary file, memory-mapped
+ * at startup so the first screen can render before SQLite is opened or the
+ * scanners have run. Songs are decoded from the mapping only when a row asks
+ * for them.
+ * <p>
+ * Layout: a 16-byte header (magic, version, song count, string pool offset),
+ * then one fixed-width record per song (id, duration, and offset/length
+ * pairs for title, artist, album and path), then a pool of UTF-8 strings in
+ * which repeated values such as artist names are stored once.
+ */
+public class LibrarySnapshot extends AbstractList<Song> implements RandomAccess {
+
+    private static final String FILE_NAME = "library.snapshot";
+    private static final int MAGIC = 0x4c534e50; // "LSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 8 + 8 + 4 * (4 + 4);
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int poolOffset;
+
+    private LibrarySnapshot(ByteBuffer buffer, int count, int poolOffset) {
+        this.buffer = buffer;
+        this.count = count;
+        this.poolOffset = poolOffset;
+    }
+
+    public static File getFile(Context context) {
+        return new File(context.getNoBackupFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Map a snapshot file. Returns null if there is none yet or it does not
+     * look like a complete snapshot; the caller falls back to the database.
+     */
+    public static LibrarySnapshot open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC ||
+                    buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt(8);
+            int poolOffset = buffer.getInt(12);
+            if (count < 0 || poolOffset != HEADER_SIZE + (long) count * RECORD_SIZE ||
+                    poolOffset > buffer.capacity()) {
+                return null;
+            }
+            return new LibrarySnapshot(buffer, count, poolOffset);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the given songs, in list order, to a new snapshot. The file is
+     * written next to the target and renamed over it, so a reader never maps
+     * a half-written snapshot.
+     */
+    public static void write(File file, List<Song> songs) throws IOException {
+        Map<String, Integer> pooled = new HashMap<>();
+        ByteArrayPool pool = new ByteArrayPool();
+        ByteBuffer records = ByteBuffer.allocate(HEADER_SIZE + songs.size() * RECORD_SIZE);
+        records.putInt(MAGIC).putInt(VERSION).putInt(songs.size()).putInt(records.capacity());
+
+        for (Song song : songs) {
+            records.putLong(song.getId());
+            records.putLong(song.getDuration());
+            for (String value : new String[]{
+                    song.getTitle(), song.getArtist(), song.getAlbum(), song.getPath()}) {
+                if (value == null) {
+                    records.putInt(0).putInt(-1);
+                    continue;
+                }
+                Integer offset = pooled.get(value);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (offset == null) {
+                    offset = pool.append(bytes);
+                    pooled.put(value, offset);
+                }
+                records.putInt(offset).putInt(bytes.length);
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(records.array());
+            out.write(pool.bytes, 0, pool.size);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    // Decodes the record on every call; the adapter only asks for rows it binds
+    @Override
+    public Song get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + count);
+        }
+        int record = HEADER_SIZE + index * RECORD_SIZE;
+        return new Song(
+                buffer.getLong(record),
+                readString(record + 16),
+                readString(record + 24),
+                readString(record + 32),
+                readString(record + 40),
+                buffer.getLong(record + 8),
+                0
+        );
+    }
+
+    private String readString(int field) {
+        int offset = buffer.getInt(field);
+        int length = buffer.getInt(field + 4);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        // Duplicate so concurrent readers never share a position
+        ByteBuffer view = buffer.duplicate();
+        view.position(poolOffset + offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Growable byte array for the string pool
+    private static final class ByteArrayPool {
+        byte[] bytes = new byte[4096];
+        int size;
+
+        int append(byte[] value) {
+            if (size + value.length > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, size + value.length)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+            System.arraycopy(value, 0, bytes, size, value.length);
+            int offset = size;
+            size += value.length;
+            return offset;
+        }
+    }
+}
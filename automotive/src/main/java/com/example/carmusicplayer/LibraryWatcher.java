@@ -0,0 +1,134 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the local library in step with MediaStore while the app is open.
+ * Change notifications arrive in bursts (one or more per file while an
+ * album is copied), so they only restart a short quiet-period timer; once it
+ * expires, a single incremental sync applies whatever changed and the delta
+ * is handed to every registered listener on the main thread. All scans,
+ * including the startup one, run one at a time on the same thread.
+ */
+public class LibraryWatcher {
+
+    private static final String TAG = "LibraryWatcher";
+    // Quiet period after the last notification before syncing
+    private static final long DEBOUNCE_MS = 1_500;
+    // Longest a steady stream of notifications can hold the sync back
+    private static final long MAX_DELAY_MS = 10_000;
+
+    /**
+     * Receives library deltas on the main thread
+     */
+    public interface OnLibraryChangedListener {
+        void onLibraryChanged(LibraryChange change);
+    }
+
+    private static LibraryWatcher instance;
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<OnLibraryChangedListener> listeners = new ArrayList<>();
+    private final Runnable pendingSync = this::syncNow;
+    private final ContentObserver observer = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            scheduleSync();
+        }
+    };
+    private boolean registered = false;
+    // Uptime of the first notification not yet covered by a sync, 0 if none
+    private long firstPendingAt = 0;
+
+    public static synchronized LibraryWatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new LibraryWatcher(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private LibraryWatcher(Context context) {
+        this.context = context;
+    }
+
+    // Start listening; the first listener registers the observer
+    public void addListener(OnLibraryChangedListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        if (!registered) {
+            context.getContentResolver().registerContentObserver(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+            registered = true;
+        }
+    }
+
+    // Stop listening; the observer goes away with the last listener
+    public void removeListener(OnLibraryChangedListener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty() && registered) {
+            context.getContentResolver().unregisterContentObserver(observer);
+            handler.removeCallbacks(pendingSync);
+            firstPendingAt = 0;
+            registered = false;
+        }
+    }
+
+    /**
+     * Scan assets and MediaStore once, e.g. at startup. Queued behind any
+     * sync already running; listeners hear about the result like any other
+     * change.
+     */
+    public void scanLibrary() {
+        // New assets are delivered batch by batch, the rest once the scan is done
+        executor.execute(() -> deliver(MusicScanner.scanLibrary(context, this::deliver)));
+    }
+
+    // Hand a change made outside the scanner (e.g. an import) to the listeners
+    public void publish(LibraryChange change) {
+        deliver(change);
+    }
+
+    private void scheduleSync() {
+        long now = SystemClock.uptimeMillis();
+        if (firstPendingAt == 0) {
+            firstPendingAt = now;
+        }
+        handler.removeCallbacks(pendingSync);
+        long runAt = Math.min(now + DEBOUNCE_MS, firstPendingAt + MAX_DELAY_MS);
+        handler.postAtTime(pendingSync, runAt);
+    }
+
+    private void syncNow() {
+        firstPendingAt = 0;
+        executor.execute(() -> deliver(MusicScanner.syncDevice(context)));
+    }
+
+    // Runs on the executor, the database writer or the caller of publish()
+    private void deliver(LibraryChange change) {
+        if (change.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "Library changed: " + change.getAdded().size() + " added, " +
+                change.getRemovedIds().length + " removed");
+        handler.post(() -> {
+            for (OnLibraryChangedListener listener : new ArrayList<>(listeners)) {
+                listener.onLibraryChanged(change);
+            }
+        });
+    }
+}
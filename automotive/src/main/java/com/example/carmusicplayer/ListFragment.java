@@ -12,12 +12,13 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.List;
+import java.util.ArrayList;
 
 /**
  * Fragment for displaying a list of songs (used in Favorites sub-tabs)
  */
-public class ListFragment extends Fragment implements SongAdapter.OnSongClickListener {
+public class ListFragment extends Fragment implements SongAdapter.OnSongClickListener,
+        LibraryWatcher.OnLibraryChangedListener {
 
     private static final String ARG_TYPE = "type";
     public static final int TYPE_FAVORITES = 0;
@@ -25,7 +26,7 @@ public class ListFragment extends Fragment implements SongAdapter.OnSongClickLis
 
     private RecyclerView rvList;
     private TextView tvEmptyMessage;
-    private SongAdapter songAdapter;
+    private PagedSongAdapter songAdapter;
     private int listType;
 
     public static ListFragment newInstance(int type) {
@@ -53,34 +54,58 @@ public class ListFragment extends Fragment implements SongAdapter.OnSongClickLis
         tvEmptyMessage = view.findViewById(R.id.tvEmptyMessage);
         
         rvList.setLayoutManager(new LinearLayoutManager(getContext()));
-        songAdapter = new SongAdapter(getContext(), new java.util.ArrayList<>(), this);
+        songAdapter = new PagedSongAdapter(getContext(), this);
+        songAdapter.setOnPageLoadedListener((loadedCount, endReached) -> updateEmptyState(loadedCount));
         rvList.setAdapter(songAdapter);
         
         loadData();
+        LibraryWatcher.getInstance(getContext()).addListener(this);
         
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        LibraryWatcher.getInstance(getContext()).removeListener(this);
+        super.onDestroyView();
+    }
+
+    // Songs that left the library drop out of favorites and history in place
+    @Override
+    public void onLibraryChanged(LibraryChange change) {
+        songAdapter.removeSongs(change.getRemovedIds());
+        updateEmptyState(songAdapter.getItemCount());
+    }
+
     private void loadData() {
         MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(getContext());
-        List<Song> songs;
         
+        // Pages are loaded in the background; the empty state follows the first one
         if (listType == TYPE_FAVORITES) {
-            songs = dbHelper.getFavoriteSongs();
             tvEmptyMessage.setText("No favorite songs yet.\nTap ❤️ on a song to add it.");
+            songAdapter.setSource(dbHelper::getFavoriteSongsPage);
         } else {
-            // History - for now show all songs as placeholder
-            songs = dbHelper.getAllSongs();
+            // History - one window of the most recent plays
             tvEmptyMessage.setText("No listening history yet.");
+            PlayHistoryRecorder recorder = PlayHistoryRecorder.getInstance(getContext());
+            songAdapter.setSource((after, limit) -> {
+                if (after != null) {
+                    return new ArrayList<>();
+                }
+                // Include plays still waiting in the write-behind buffer
+                recorder.flush().join();
+                return dbHelper.getRecentlyPlayed(limit);
+            });
         }
-        
-        if (songs.isEmpty()) {
+    }
+
+    private void updateEmptyState(int loadedCount) {
+        if (loadedCount == 0) {
             tvEmptyMessage.setVisibility(View.VISIBLE);
             rvList.setVisibility(View.GONE);
         } else {
             tvEmptyMessage.setVisibility(View.GONE);
             rvList.setVisibility(View.VISIBLE);
-            songAdapter.updateSongs(songs);
         }
     }
 
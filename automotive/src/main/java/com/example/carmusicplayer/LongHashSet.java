@@ -0,0 +1,172 @@
+package com.example.carmusicplayer;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive longs. Avoids the boxing and per-entry
+ * node allocation of HashSet&lt;Long&gt;, so lookups on hot paths such as
+ * RecyclerView binding allocate nothing. Not thread-safe.
+ */
+public class LongHashSet {
+
+    // Marks an empty slot; the value 0 itself is tracked by containsZero
+    private static final long EMPTY = 0L;
+    private static final float MAX_LOAD = 0.6f;
+
+    private long[] slots;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+        slots = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        int index = indexOf(value);
+        while (true) {
+            long slot = slots[index];
+            if (slot == EMPTY) {
+                return false;
+            }
+            if (slot == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    // Returns true if the value was not already present
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int index = indexOf(value);
+        while (true) {
+            long slot = slots[index];
+            if (slot == EMPTY) {
+                slots[index] = value;
+                size++;
+                if (size > slots.length * MAX_LOAD) {
+                    grow();
+                }
+                return true;
+            }
+            if (slot == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    // Returns true if the value was present
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int index = indexOf(value);
+        while (true) {
+            long slot = slots[index];
+            if (slot == EMPTY) {
+                return false;
+            }
+            if (slot == value) {
+                shiftBack(index);
+                size--;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        containsZero = false;
+        size = 0;
+    }
+
+    // Copy of all values, in no particular order
+    public long[] toArray() {
+        long[] values = new long[size];
+        int count = 0;
+        if (containsZero) {
+            values[count++] = 0L;
+        }
+        for (long slot : slots) {
+            if (slot != EMPTY) {
+                values[count++] = slot;
+            }
+        }
+        return values;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void shiftBack(int hole) {
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            long slot = slots[index];
+            if (slot == EMPTY) {
+                break;
+            }
+            int home = indexOf(slot);
+            // Move the entry into the hole unless its home lies in (hole, index]
+            boolean homeBetween = hole <= index
+                    ? (hole < home && home <= index)
+                    : (hole < home || home <= index);
+            if (!homeBetween) {
+                slots[hole] = slot;
+                hole = index;
+            }
+        }
+        slots[hole] = EMPTY;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        mask = slots.length - 1;
+        for (long slot : old) {
+            if (slot != EMPTY) {
+                int index = indexOf(slot);
+                while (slots[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                slots[index] = slot;
+            }
+        }
+    }
+
+    private int indexOf(long value) {
+        // Fibonacci hashing spreads sequential row ids across the table
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -1,27 +1,36 @@
 package com.example.carmusicplayer;
 
 import android.Manifest;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
+import android.support.v4.media.session.PlaybackStateCompat;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 
+import com.example.carmusicplayer.shared.MyMusicService;
+import com.example.carmusicplayer.shared.PlaybackQueue;
+import com.example.carmusicplayer.shared.Track;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
-import java.io.IOException;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -33,14 +42,15 @@ public class MainActivity extends AppCompatActivity {
     public static final int REPEAT_ONE = 2;
 
     private BottomNavigationView bottomNav;
-    private MediaPlayer mediaPlayer;
     private AudioManager audioManager;
     private Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable progressUpdate = this::updateSeekBar;
 
-    // Playback state
+    // Playback runs in the service; these mirror it for the views
+    private MyMusicService playbackService;
+    // A play requested before the service was bound; only the latest is kept
+    private Consumer<MyMusicService> pendingPlay;
     private Song currentSong;
-    private List<Song> currentPlaylist = new ArrayList<>();
-    private int currentSongIndex = -1;
     private boolean isPlaying = false;
     private boolean isMuted = false;
     private int savedVolume = 70;
@@ -64,6 +74,9 @@ public class MainActivity extends AppCompatActivity {
         initFragments();
         setupBottomNav();
         checkPermissions();
+        MaintenanceJobService.schedule(this);
+        bindService(new Intent(this, MyMusicService.class).setAction(MyMusicService.ACTION_BIND_LOCAL),
+                playbackConnection, BIND_AUTO_CREATE);
     }
 
     // Mini player views
@@ -127,8 +140,8 @@ public class MainActivity extends AppCompatActivity {
 
         // Repeat
         btnMiniRepeat.setOnClickListener(v -> {
-            repeatMode = (repeatMode + 1) % 3;
-            updateRepeatIcon();
+            setRepeatMode((repeatMode + 1) % 3);
+            updateRepeatIcon(true);
         });
 
         // Mute
@@ -167,24 +180,28 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private void updateRepeatIcon() {
+    private void updateRepeatIcon(boolean announce) {
+        String message = null;
         switch (repeatMode) {
             case REPEAT_OFF:
                 btnMiniRepeat.setImageResource(R.drawable.ic_repeat);
                 btnMiniRepeat.setColorFilter(0xFF808080);
-                Toast.makeText(this, "Repeat OFF", Toast.LENGTH_SHORT).show();
+                message = "Repeat OFF";
                 break;
             case REPEAT_ALL:
                 btnMiniRepeat.setImageResource(R.drawable.ic_repeat);
                 btnMiniRepeat.setColorFilter(0xFF4CAF50);
-                Toast.makeText(this, "Repeat ALL", Toast.LENGTH_SHORT).show();
+                message = "Repeat ALL";
                 break;
             case REPEAT_ONE:
                 btnMiniRepeat.setImageResource(R.drawable.ic_repeat_one);
                 btnMiniRepeat.setColorFilter(0xFF4CAF50);
-                Toast.makeText(this, "Repeat ONE", Toast.LENGTH_SHORT).show();
+                message = "Repeat ONE";
                 break;
         }
+        if (announce && message != null) {
+            Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+        }
     }
 
     private void initFragments() {
@@ -268,51 +285,83 @@ public class MainActivity extends AppCompatActivity {
     }
 
     // ============= Playback Methods =============
+    // The player itself runs in MyMusicService; these forward to it and mirror its state
+
+    private final ServiceConnection playbackConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            playbackService = ((MyMusicService.LocalBinder) binder).getService();
+            playbackService.setListener(playbackListener);
+            Track track = playbackService.getCurrentTrack();
+            if (track == null) {
+                playbackService.setVolume(isMuted ? 0 : currentVolume);
+                playbackService.setRepeatMode(toSessionRepeatMode(repeatMode));
+            } else {
+                // Recreated while a track is loaded: show it instead of starting over
+                currentSong = SongQueue.toSong(track);
+                isPlaying = playbackService.isPlaying();
+                currentVolume = playbackService.getVolume();
+                isMuted = currentVolume == 0;
+                if (!isMuted) {
+                    savedVolume = Math.round(currentVolume * 100);
+                }
+                repeatMode = fromSessionRepeatMode(playbackService.getRepeatMode());
+                updateRepeatIcon(false);
+                updateFragmentUI();
+                updateSeekBar();
+            }
+            if (pendingPlay != null) {
+                Consumer<MyMusicService> play = pendingPlay;
+                pendingPlay = null;
+                play.accept(playbackService);
+            }
+        }
 
-    public void playSong(Song song, List<Song> playlist, int position) {
-        currentSong = song;
-        currentPlaylist = playlist;
-        currentSongIndex = position;
-
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            playbackService = null;
+        }
+    };
 
-        // Release previous player
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
+    private final MyMusicService.PlaybackListener playbackListener = new MyMusicService.PlaybackListener() {
+        @Override
+        public void onTrackChanged(Track track, int index) {
+            currentSong = SongQueue.toSong(track);
+            updateFragmentUI();
         }
 
-        try {
-            mediaPlayer = new MediaPlayer();
-            
-            // Check if song is from assets
-            if (MusicScanner.isAssetSong(song)) {
-                android.content.res.AssetFileDescriptor afd = getAssets().openFd(song.getPath());
-                mediaPlayer.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-                afd.close();
-            } else {
-                mediaPlayer.setDataSource(this, Uri.parse(song.getPath()));
-            }
-            
-            mediaPlayer.prepare();
-            mediaPlayer.start();
-            
-            // Apply volume
-            if (isMuted) {
-                mediaPlayer.setVolume(0, 0);
-            } else {
-                mediaPlayer.setVolume(currentVolume, currentVolume);
-            }
-            
-            isPlaying = true;
+        @Override
+        public void onPlaybackStateChanged(boolean playing) {
+            isPlaying = playing;
             updateFragmentUI();
             updateSeekBar();
-            
-            // Set completion listener
-            mediaPlayer.setOnCompletionListener(mp -> onSongComplete());
+        }
 
-        } catch (IOException e) {
-            Toast.makeText(this, "Error playing song: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
+        @Override
+        public void onPlaybackError(String message) {
+            Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
         }
+    };
+
+    // Run a play request now, or once the service is bound if a tap beat the binding
+    private void withService(Consumer<MyMusicService> play) {
+        if (playbackService != null) {
+            play.accept(playbackService);
+        } else {
+            pendingPlay = play;
+        }
+    }
+
+    public void playSong(Song song, List<Song> playlist, int position) {
+        // Library lists only carry display columns; the queue loads each full row as it plays
+        SongQueue queue = new SongQueue(MusicDatabaseHelper.getInstance(this), playlist);
+        withService(service -> service.play(queue, position));
+    }
+
+    // Queue songs by id, e.g. the whole library, and start at position
+    public void playSongs(long[] songIds, int position) {
+        SongQueue queue = new SongQueue(MusicDatabaseHelper.getInstance(this), songIds);
+        withService(service -> service.play(queue, position));
     }
 
     public void playSongFromFragment(Song song) {
@@ -323,38 +372,9 @@ public class MainActivity extends AppCompatActivity {
     }
 
     public void playStreamUrl(String url) {
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
-        }
-
-        try {
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(url);
-            mediaPlayer.prepareAsync();
-            
-            Toast.makeText(this, "Buffering...", Toast.LENGTH_SHORT).show();
-            
-            mediaPlayer.setOnPreparedListener(mp -> {
-                mp.start();
-                if (isMuted) {
-                    mp.setVolume(0, 0);
-                } else {
-                    mp.setVolume(currentVolume, currentVolume);
-                }
-                isPlaying = true;
-                currentSong = new Song(0, "Online Stream", "Radio", "Stream", url, 0, 0);
-                updateFragmentUI();
-                Toast.makeText(this, "Playing stream", Toast.LENGTH_SHORT).show();
-            });
-            
-            mediaPlayer.setOnErrorListener((mp, what, extra) -> {
-                Toast.makeText(this, "Error playing stream", Toast.LENGTH_SHORT).show();
-                return true;
-            });
-
-        } catch (IOException e) {
-            Toast.makeText(this, "Invalid URL: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+        Toast.makeText(this, "Buffering...", Toast.LENGTH_SHORT).show();
+        Track stream = new Track(null, "Online Stream", "Radio", "Stream", url, 0);
+        withService(service -> service.playTrack(stream));
     }
 
     // Play Deezer track with proper info
@@ -364,94 +384,58 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, "No preview available", Toast.LENGTH_SHORT).show();
             return;
         }
-
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
-        }
-
-        try {
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(url);
-            mediaPlayer.prepareAsync();
-            
-            Toast.makeText(this, "Buffering...", Toast.LENGTH_SHORT).show();
-            
-            mediaPlayer.setOnPreparedListener(mp -> {
-                mp.start();
-                if (isMuted) {
-                    mp.setVolume(0, 0);
-                } else {
-                    mp.setVolume(currentVolume, currentVolume);
-                }
-                isPlaying = true;
-                // Create song with actual Deezer track info
-                currentSong = new Song(
-                    track.getId(), 
-                    track.getTitle(), 
-                    track.getArtist(), 
-                    track.getAlbum(), 
-                    url, 
-                    track.getDuration() * 1000L, 
-                    0
-                );
-                updateFragmentUI();
-                updateSeekBar();
-            });
-            
-            mediaPlayer.setOnCompletionListener(mp -> onSongComplete());
-            
-            mediaPlayer.setOnErrorListener((mp, what, extra) -> {
-                Toast.makeText(this, "Error playing track", Toast.LENGTH_SHORT).show();
-                return true;
-            });
-
-        } catch (IOException e) {
-            Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+        Toast.makeText(this, "Buffering...", Toast.LENGTH_SHORT).show();
+        // The Deezer id is also the songs row id once favorited, so the preview counts in the play history
+        Track preview = new Track(String.valueOf(track.getId()), track.getTitle(),
+                track.getArtist(), track.getAlbum(), url, track.getDuration() * 1000L);
+        withService(service -> service.playTrack(preview));
     }
 
     public void togglePlayPause() {
-        if (mediaPlayer == null) {
+        if (playbackService == null) {
+            return;
+        }
+        if (playbackService.getCurrentTrack() == null) {
             if (homeFragment != null && !homeFragment.getSongList().isEmpty()) {
-                List<Song> songs = homeFragment.getSongList();
-                playSong(songs.get(0), songs, 0);
+                // Through the list's own click path, which queues the whole library
+                homeFragment.onSongClick(homeFragment.getSongList().get(0), 0);
             }
             return;
         }
 
-        if (isPlaying) {
-            mediaPlayer.pause();
+        if (playbackService.isPlaying()) {
+            playbackService.pause();
         } else {
-            mediaPlayer.start();
-            updateSeekBar();
+            playbackService.play();
+        }
+    }
+
+    // Rows were inserted or removed in the list the queue plays from
+    public void updateQueuePosition(List<Song> playlist, int position) {
+        if (playbackService == null) {
+            return;
+        }
+        PlaybackQueue queue = playbackService.getQueue();
+        if (queue instanceof SongQueue && ((SongQueue) queue).getSongs() == playlist) {
+            playbackService.updateQueuePosition(queue, position);
         }
-        isPlaying = !isPlaying;
-        updateFragmentUI();
     }
 
     public void playPrevious() {
-        if (currentPlaylist.isEmpty()) return;
-        
-        int newIndex = currentSongIndex - 1;
-        if (newIndex < 0) {
-            newIndex = currentPlaylist.size() - 1;
+        if (playbackService != null) {
+            playbackService.skipToPrevious();
         }
-        playSong(currentPlaylist.get(newIndex), currentPlaylist, newIndex);
     }
 
     public void playNext() {
-        if (currentPlaylist.isEmpty()) return;
-        
-        int newIndex = currentSongIndex + 1;
-        if (newIndex >= currentPlaylist.size()) {
-            newIndex = 0;
+        if (playbackService != null) {
+            playbackService.skipToNext();
         }
-        playSong(currentPlaylist.get(newIndex), currentPlaylist, newIndex);
     }
 
     public void seekTo(int position) {
-        if (mediaPlayer != null) {
-            mediaPlayer.seekTo(position);
+        if (playbackService != null && playbackService.getCurrentTrack() != null) {
+            playbackService.seekTo(position);
             // Update UI immediately after seeking
             if (homeFragment != null) {
                 homeFragment.updateProgress(position);
@@ -462,37 +446,14 @@ public class MainActivity extends AppCompatActivity {
             }
         }
     }
-    
-    // Called when song playback completes
-    private void onSongComplete() {
-        if (repeatMode == REPEAT_ONE) {
-            // Repeat current song
-            if (mediaPlayer != null) {
-                mediaPlayer.seekTo(0);
-                mediaPlayer.start();
-            }
-        } else if (repeatMode == REPEAT_ALL) {
-            // Play next song, loop back to start
-            playNext();
-        } else {
-            // REPEAT_OFF - play next or stop at end
-            if (currentSongIndex < currentPlaylist.size() - 1) {
-                playNext();
-            } else {
-                // End of playlist
-                isPlaying = false;
-                updateFragmentUI();
-            }
-        }
-    }
 
     public void setVolume(int percent) {
         savedVolume = percent;
         currentVolume = percent / 100f;
         isMuted = percent == 0;
         
-        if (mediaPlayer != null) {
-            mediaPlayer.setVolume(currentVolume, currentVolume);
+        if (playbackService != null) {
+            playbackService.setVolume(currentVolume);
         }
         
         if (homeFragment != null) {
@@ -505,15 +466,15 @@ public class MainActivity extends AppCompatActivity {
         
         if (isMuted) {
             savedVolume = (int) (currentVolume * 100);
-            if (mediaPlayer != null) {
-                mediaPlayer.setVolume(0, 0);
+            if (playbackService != null) {
+                playbackService.setVolume(0);
             }
             Toast.makeText(this, "Muted", Toast.LENGTH_SHORT).show();
         } else {
             if (savedVolume == 0) savedVolume = 70;
             currentVolume = savedVolume / 100f;
-            if (mediaPlayer != null) {
-                mediaPlayer.setVolume(currentVolume, currentVolume);
+            if (playbackService != null) {
+                playbackService.setVolume(currentVolume);
             }
             Toast.makeText(this, "Volume: " + savedVolume + "%", Toast.LENGTH_SHORT).show();
         }
@@ -525,19 +486,46 @@ public class MainActivity extends AppCompatActivity {
 
     public void setRepeatMode(int mode) {
         this.repeatMode = mode;
+        if (playbackService != null) {
+            playbackService.setRepeatMode(toSessionRepeatMode(mode));
+        }
+    }
+
+    // REPEAT_* here and in HomeFragment count OFF, ALL, ONE; the session orders them NONE, ONE, ALL
+    private static int toSessionRepeatMode(int mode) {
+        switch (mode) {
+            case REPEAT_ALL:
+                return PlaybackStateCompat.REPEAT_MODE_ALL;
+            case REPEAT_ONE:
+                return PlaybackStateCompat.REPEAT_MODE_ONE;
+            default:
+                return PlaybackStateCompat.REPEAT_MODE_NONE;
+        }
+    }
+
+    private static int fromSessionRepeatMode(int mode) {
+        switch (mode) {
+            case PlaybackStateCompat.REPEAT_MODE_ONE:
+                return REPEAT_ONE;
+            case PlaybackStateCompat.REPEAT_MODE_NONE:
+                return REPEAT_OFF;
+            default:
+                return REPEAT_ALL;
+        }
     }
 
     public int getCurrentPosition() {
-        return mediaPlayer != null ? mediaPlayer.getCurrentPosition() : 0;
+        return playbackService != null ? playbackService.getCurrentPosition() : 0;
     }
 
     public int getDuration() {
-        return mediaPlayer != null ? mediaPlayer.getDuration() : 0;
+        return playbackService != null ? playbackService.getDuration() : 0;
     }
 
     private void updateSeekBar() {
-        if (mediaPlayer != null && isPlaying) {
-            int position = mediaPlayer.getCurrentPosition();
+        handler.removeCallbacks(progressUpdate);
+        if (playbackService != null && isPlaying) {
+            int position = playbackService.getCurrentPosition();
             if (homeFragment != null) {
                 homeFragment.updateProgress(position);
             }
@@ -546,21 +534,24 @@ public class MainActivity extends AppCompatActivity {
                 seekBarMini.setProgress(position);
                 updateMiniTimeLabel(tvMiniCurrentTime, position);
             }
-            handler.postDelayed(this::updateSeekBar, 1000);
+            handler.postDelayed(progressUpdate, 1000);
         }
     }
 
     private void updateFragmentUI() {
         if (homeFragment != null && currentSong != null) {
-            int duration = mediaPlayer != null ? mediaPlayer.getDuration() : (int) currentSong.getDuration();
-            int position = mediaPlayer != null ? mediaPlayer.getCurrentPosition() : 0;
-            homeFragment.updateNowPlaying(currentSong, isPlaying, position, duration);
-            homeFragment.setCurrentPlaying(currentSongIndex);
+            homeFragment.updateNowPlaying(currentSong, isPlaying, getCurrentPosition(), getPlaybackDuration());
+            homeFragment.setCurrentPlaying(playbackService != null ? playbackService.getCurrentIndex() : -1);
         }
         // Also update mini player
         updateMiniPlayer();
     }
 
+    // Player's duration once prepared, the library's until then
+    private int getPlaybackDuration() {
+        return playbackService != null ? playbackService.getDuration() : (int) currentSong.getDuration();
+    }
+
     private void updateMiniPlayer() {
         if (currentSong != null) {
             tvMiniTitle.setText(currentSong.getTitle());
@@ -577,8 +568,8 @@ public class MainActivity extends AppCompatActivity {
             seekBarMiniVolume.setProgress(volumePercent);
             tvMiniVolumePercent.setText(volumePercent + "%");
             
-            int duration = mediaPlayer != null ? mediaPlayer.getDuration() : (int) currentSong.getDuration();
-            int position = mediaPlayer != null ? mediaPlayer.getCurrentPosition() : 0;
+            int duration = getPlaybackDuration();
+            int position = getCurrentPosition();
             
             seekBarMini.setMax(duration);
             
@@ -627,8 +618,7 @@ public class MainActivity extends AppCompatActivity {
             // Update collapsed view with current song info
             if (currentSong != null) {
                 tvMiniTitleCollapsed.setText(currentSong.getTitle() + " - " + currentSong.getArtist());
-                btnMiniPlayPauseCollapsed.setImageResource(
-                    (mediaPlayer != null && mediaPlayer.isPlaying()) ? R.drawable.ic_pause : R.drawable.ic_play);
+                btnMiniPlayPauseCollapsed.setImageResource(isPlaying ? R.drawable.ic_pause : R.drawable.ic_play);
             }
         }
     }
@@ -648,13 +638,31 @@ public class MainActivity extends AppCompatActivity {
         tv.setText(String.format("%d:%02d", minutes, seconds));
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Don't leave buffered plays behind if the process gets killed
+        PlayHistoryRecorder.getInstance(this).flush();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
-            mediaPlayer = null;
+        // Playback carries on in the service; only stop listening to it
+        if (playbackService != null) {
+            playbackService.setListener(null);
+            playbackService = null;
         }
+        pendingPlay = null;
+        unbindService(playbackConnection);
         handler.removeCallbacksAndMessages(null);
     }
+
+    // adb shell dumpsys activity com.example.carmusicplayer/.MainActivity
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd,
+                     @NonNull PrintWriter writer, @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        MusicDatabaseHelper.getInstance(this).getQueryStats().dump(writer);
+    }
 }
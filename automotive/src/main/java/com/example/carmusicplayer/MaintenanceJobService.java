@@ -0,0 +1,158 @@
+package com.example.carmusicplayer;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily database upkeep while the car is charging and nothing is playing:
+ * refresh planner statistics, give free pages back in small chunks and check
+ * tables and indexes for damage. Every write goes through the database
+ * writer as its own short transaction, so app writes interleave between
+ * chunks. Progress is kept in SharedPreferences; a run that is stopped,
+ * interrupted by playback or out of time picks up where it left off.
+ */
+public class MaintenanceJobService extends JobService {
+
+    private static final String TAG = "MaintenanceJobService";
+    private static final int JOB_ID = 1001;
+    private static final String PREFS_NAME = "db_maintenance";
+    private static final String KEY_STEP = "step";
+    private static final String KEY_REINDEX_POSITION = "reindex_position";
+    private static final String KEY_LAST_COMPLETED = "last_completed";
+
+    private static final int STEP_OPTIMIZE = 0;
+    private static final int STEP_VACUUM = 1;
+    private static final int STEP_CHECK = 2;
+    private static final int STEP_REINDEX = 3;
+    private static final int STEP_DONE = 4;
+
+    // Free pages released per write; a few milliseconds of work each
+    private static final int VACUUM_PAGES_PER_CHUNK = 32;
+    // Gap between chunks so queued app writes get the lock first
+    private static final long CHUNK_PAUSE_MS = 50;
+    // Wall-clock budget of one run before it yields and reschedules
+    private static final long RUN_BUDGET_MS = 30_000;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private volatile boolean stopped;
+
+    // Register the daily job; does nothing if it is already scheduled
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresCharging(true)
+                .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        stopped = false;
+        executor.execute(() -> {
+            boolean finished = false;
+            try {
+                finished = runSteps();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Database maintenance failed", e);
+            }
+            // Unfinished runs are retried with backoff and resume from the saved step
+            jobFinished(params, !finished);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Charging stopped or the system needs the resources back
+        stopped = true;
+        return true;
+    }
+
+    /**
+     * Work through the remaining steps. Returns true once every step is done,
+     * false if the run had to yield first.
+     */
+    private boolean runSteps() {
+        MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(this);
+        AudioManager audioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        long deadline = SystemClock.elapsedRealtime() + RUN_BUDGET_MS;
+        int step = prefs.getInt(KEY_STEP, STEP_OPTIMIZE);
+
+        while (step < STEP_DONE) {
+            if (shouldYield(audioManager, deadline)) {
+                Log.d(TAG, "Yielding at step " + step);
+                return false;
+            }
+            switch (step) {
+                case STEP_OPTIMIZE:
+                    dbHelper.optimize().join();
+                    step = STEP_VACUUM;
+                    break;
+                case STEP_VACUUM:
+                    if (dbHelper.incrementalVacuum(VACUUM_PAGES_PER_CHUNK).join() > 0) {
+                        // More free pages left; stay on this step for the next chunk
+                        SystemClock.sleep(CHUNK_PAUSE_MS);
+                        continue;
+                    }
+                    step = STEP_CHECK;
+                    break;
+                case STEP_CHECK:
+                    String problem = dbHelper.quickCheck();
+                    if (problem != null) {
+                        Log.e(TAG, "Integrity check failed: " + problem);
+                        prefs.edit().putInt(KEY_REINDEX_POSITION, 0).apply();
+                        step = STEP_REINDEX;
+                    } else {
+                        step = STEP_DONE;
+                    }
+                    break;
+                case STEP_REINDEX:
+                    // One index per write, so no single rebuild covers the whole database
+                    List<String> indexes = dbHelper.getIndexNames();
+                    int position = prefs.getInt(KEY_REINDEX_POSITION, 0);
+                    if (position < indexes.size()) {
+                        dbHelper.reindex(indexes.get(position)).join();
+                        prefs.edit().putInt(KEY_REINDEX_POSITION, position + 1).apply();
+                        SystemClock.sleep(CHUNK_PAUSE_MS);
+                        continue;
+                    }
+                    step = STEP_DONE;
+                    break;
+                default:
+                    step = STEP_DONE;
+                    break;
+            }
+            prefs.edit().putInt(KEY_STEP, step).apply();
+        }
+
+        prefs.edit()
+                .putInt(KEY_STEP, STEP_OPTIMIZE)
+                .putLong(KEY_LAST_COMPLETED, System.currentTimeMillis())
+                .apply();
+        Log.d(TAG, "Database maintenance complete");
+        return true;
+    }
+
+    private boolean shouldYield(AudioManager audioManager, long deadline) {
+        return stopped || audioManager.isMusicActive() || SystemClock.elapsedRealtime() > deadline;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.carmusicplayer;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental sync of device songs with MediaStore. A watermark saved after
+ * each sync (the generation of each volume on Android 11+, since generations
+ * are counted per volume, and the newest DATE_MODIFIED before that) limits
+ * the full-row query to rows added or changed since; known paths among them
+ * are updated in place. Deletions are found by diffing a second query that
+ * reads only ids and paths against the known path hashes, which also
+ * catches an addition and a deletion that balance out. Without a valid
+ * watermark every row is read in full once.
+ */
+public class MediaStoreSync {
+
+    private static final String TAG = "MediaStoreSync";
+    private static final String PREFS_NAME = "media_store_sync";
+    private static final String KEY_VERSION = "version";
+    // Followed by the volume name
+    private static final String KEY_GENERATION_PREFIX = "generation_";
+    private static final String KEY_DATE_MODIFIED = "date_modified";
+
+    // Shorter files are ringtones and notification sounds, not music
+    private static final String SELECTION_MUSIC = MediaStore.Audio.Media.DURATION + " > 5000 AND " +
+            MediaStore.Audio.Media.DATA + " IS NOT NULL";
+
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+
+    /**
+     * Changes found by one sync. Apply them, then call commit() so the next
+     * sync starts from this one's watermark.
+     */
+    public static final class Delta {
+        public final List<Song> added;
+        // Known paths whose file changed; their rows are updated in place
+        public final List<Song> changed;
+        public final long[] vanished;
+        public final boolean fullScan;
+        private final String version;
+        private final Map<String, Long> generations;
+        private final long dateModified;
+
+        Delta(List<Song> added, List<Song> changed, long[] vanished, boolean fullScan,
+              String version, Map<String, Long> generations, long dateModified) {
+            this.added = added;
+            this.changed = changed;
+            this.vanished = vanished;
+            this.fullScan = fullScan;
+            this.version = version;
+            this.generations = generations;
+            this.dateModified = dateModified;
+        }
+    }
+
+    /**
+     * Work out what changed on the device since the last committed sync.
+     * Returns null if MediaStore could not be read, including when the audio
+     * permission has not been granted; nothing may be deleted in that case.
+     */
+    public static Delta sync(Context context, MusicDatabaseHelper dbHelper) {
+        if (!hasAudioPermission(context)) {
+            Log.d(TAG, "No permission to read MediaStore, skipping device sync");
+            return null;
+        }
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        ContentResolver resolver = context.getContentResolver();
+
+        try {
+            // Read the watermarks before querying, so changes made during the
+            // query are picked up again next time rather than missed
+            String version = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                    ? MediaStore.getVersion(context) : null;
+            Map<String, Long> generations = new HashMap<>();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                for (String volume : getMusicVolumes(context)) {
+                    generations.put(volume, MediaStore.getGeneration(context, volume));
+                }
+            }
+            boolean fullScan = !prefs.contains(KEY_VERSION) ||
+                    !String.valueOf(version).equals(prefs.getString(KEY_VERSION, null));
+
+            PathHashIndex known = dbHelper.loadPathHashes(false);
+            Scan scan = new Scan(resolver, known);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                for (Map.Entry<String, Long> volume : generations.entrySet()) {
+                    long since = fullScan ? -1 : prefs.getLong(KEY_GENERATION_PREFIX + volume.getKey(), -1);
+                    if (since > volume.getValue()) {
+                        // The volume was reformatted or its index rebuilt
+                        since = -1;
+                    }
+                    if (!scan.run(MediaStore.Audio.Media.getContentUri(volume.getKey()),
+                            MediaStore.Audio.Media.GENERATION_MODIFIED + " > ?", since)) {
+                        return null;
+                    }
+                }
+            } else {
+                long since = fullScan ? -1 : prefs.getLong(KEY_DATE_MODIFIED, -1);
+                scan.dateModified = Math.max(since, 0);
+                // Second resolution, so the last second is read again; rows that
+                // did not really change are not written
+                if (!scan.run(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                        MediaStore.Audio.Media.DATE_MODIFIED + " >= ?", since)) {
+                    return null;
+                }
+            }
+            return new Delta(scan.added, scan.changed, known.unseenIds(), fullScan, version,
+                    generations, scan.dateModified);
+        } catch (Exception e) {
+            Log.e(TAG, "Error syncing with MediaStore", e);
+            return null;
+        }
+    }
+
+    // Save the watermark of a delta once its changes are in the database
+    public static void commit(Context context, Delta delta) {
+        // Cleared first, so a volume that is gone starts from scratch if it comes back
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .clear()
+                .putString(KEY_VERSION, String.valueOf(delta.version))
+                .putLong(KEY_DATE_MODIFIED, delta.dateModified);
+        for (Map.Entry<String, Long> volume : delta.generations.entrySet()) {
+            editor.putLong(KEY_GENERATION_PREFIX + volume.getKey(), volume.getValue());
+        }
+        editor.apply();
+    }
+
+    // Forget the watermark, so the next sync reads every row again
+    public static void reset(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    /**
+     * One sync's walk over the collections. Per collection, the rows added
+     * or modified since its watermark are read with every column; then a
+     * second query reads only _ID and DATA of all rows, so that the paths
+     * nobody saw are the deleted songs. Unknown paths that the first query
+     * missed (e.g. a file copied with its old DATE_MODIFIED) are read in
+     * full by id. Without changes, no full row crosses the process boundary.
+     */
+    private static final class Scan {
+        // Bound on the ids in one IN (...) query, under SQLite's variable limit
+        private static final int IDS_PER_QUERY = 500;
+
+        final ContentResolver resolver;
+        final PathHashIndex known;
+        final List<Song> added = new ArrayList<>();
+        final List<Song> changed = new ArrayList<>();
+        // Paths of added songs; they are not in the index
+        final Set<String> addedPaths = new HashSet<>();
+        long dateModified = 0;
+
+        Scan(ContentResolver resolver, PathHashIndex known) {
+            this.resolver = resolver;
+            this.known = known;
+        }
+
+        /**
+         * Sync one collection. modifiedSince selects the rows past the
+         * watermark since; -1 reads every row in full instead.
+         *
+         * @return false if MediaStore could not be queried
+         */
+        boolean run(Uri uri, String modifiedSince, long since) {
+            String selection = since < 0 ? SELECTION_MUSIC : SELECTION_MUSIC + " AND " + modifiedSince;
+            String[] selectionArgs = since < 0 ? null : new String[]{String.valueOf(since)};
+            if (!readFull(uri, selection, selectionArgs)) {
+                return false;
+            }
+            // Every row was just read and marked
+            return since < 0 || diffPaths(uri);
+        }
+
+        // Rows with every column: unknown paths are added, known ones changed
+        private boolean readFull(Uri uri, String selection, String[] selectionArgs) {
+            Cursor cursor = resolver.query(uri, PROJECTION, selection, selectionArgs, null);
+            if (cursor == null) {
+                return false;
+            }
+            try {
+                SongColumns columns = new SongColumns(cursor);
+                while (cursor.moveToNext()) {
+                    dateModified = Math.max(dateModified, cursor.getLong(columns.dateModified));
+                    Song song = columns.read(cursor);
+                    if (known.markSeen(song.getPath())) {
+                        changed.add(song);
+                    } else if (addedPaths.add(song.getPath())) {
+                        added.add(song);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            return true;
+        }
+
+        // Mark every path as seen; read the unknown ones in full by id
+        private boolean diffPaths(Uri uri) {
+            Cursor cursor = resolver.query(uri, new String[]{MediaStore.Audio.Media._ID,
+                    MediaStore.Audio.Media.DATA}, SELECTION_MUSIC, null, null);
+            if (cursor == null) {
+                return false;
+            }
+            List<String> missed = new ArrayList<>();
+            try {
+                while (cursor.moveToNext()) {
+                    String path = cursor.getString(1);
+                    if (!known.markSeen(path) && !addedPaths.contains(path)) {
+                        missed.add(cursor.getString(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            for (int start = 0; start < missed.size(); start += IDS_PER_QUERY) {
+                List<String> ids = missed.subList(start, Math.min(missed.size(), start + IDS_PER_QUERY));
+                String placeholders = TextUtils.join(",", Collections.nCopies(ids.size(), "?"));
+                if (!readFull(uri, MediaStore.Audio.Media._ID + " IN (" + placeholders + ")",
+                        ids.toArray(new String[0]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.R)
+    private static Set<String> getMusicVolumes(Context context) {
+        Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+        // Nothing mounted reported; the primary volume is still worth asking
+        return volumes.isEmpty() ? Collections.singleton(MediaStore.VOLUME_EXTERNAL_PRIMARY) : volumes;
+    }
+
+    private static boolean hasAudioPermission(Context context) {
+        String permission = Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                ? Manifest.permission.READ_MEDIA_AUDIO
+                : Manifest.permission.READ_EXTERNAL_STORAGE;
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    // Column indices of PROJECTION, resolved once per cursor
+    private static final class SongColumns {
+        final int id;
+        final int title;
+        final int artist;
+        final int album;
+        final int path;
+        final int duration;
+        final int albumId;
+        final int dateModified;
+
+        SongColumns(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
+            title = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
+            artist = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
+            album = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
+            path = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
+            duration = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
+            albumId = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
+            dateModified = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_MODIFIED);
+        }
+
+        Song read(Cursor cursor) {
+            return new Song(cursor.getLong(id), cursor.getString(title), cursor.getString(artist),
+                    cursor.getString(album), cursor.getString(path), cursor.getLong(duration),
+                    cursor.getLong(albumId));
+        }
+    }
+}
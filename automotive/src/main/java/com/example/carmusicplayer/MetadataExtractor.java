@@ -0,0 +1,210 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads tags and duration of many audio files at once on a small fixed pool
+ * of worker threads. Each file goes through {@link TagReader} first; only
+ * files it cannot read reach MediaMetadataRetriever. The retriever is not
+ * thread-safe, so each worker keeps its own instance and points it at one
+ * file after another; an instance that failed on a file is released and
+ * replaced, so a broken file never affects the next one. Finished songs
+ * are handed to the caller in batches as they complete, ready for a bulk
+ * insert. Close the extractor to stop the workers and release their
+ * retrievers.
+ */
+public class MetadataExtractor implements Closeable {
+
+    private static final String TAG = "MetadataExtractor";
+    // Retrievers hold native decoders; more than a few threads only adds contention
+    private static final int MAX_THREADS = 4;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * Receives finished songs on the thread that called extract()
+     */
+    public interface BatchSink {
+        void accept(List<Song> batch);
+    }
+
+    private final AssetManager assetManager;
+    private final ExecutorService executor;
+    private final ThreadLocal<MediaMetadataRetriever> retrievers = new ThreadLocal<>();
+    // Every retriever handed out, so close() can release them from one thread
+    private final List<MediaMetadataRetriever> created = new ArrayList<>();
+
+    public MetadataExtractor(Context context) {
+        this(context, defaultThreadCount());
+    }
+
+    public MetadataExtractor(Context context, int threads) {
+        this.assetManager = context.getAssets();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    public static int defaultThreadCount() {
+        return Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build songs for the given files, asset paths or absolute file paths.
+     * Every file yields a song; unreadable files fall back to the file name.
+     * Songs reach the sink in completion order, not input order.
+     *
+     * @return all songs, in the order the sink received them
+     */
+    public List<Song> extract(List<String> paths, boolean fromAssets, int batchSize, BatchSink sink) {
+        CompletionService<Song> completion = new ExecutorCompletionService<>(executor);
+        for (String path : paths) {
+            completion.submit(() -> read(path, fromAssets));
+        }
+
+        List<Song> songs = new ArrayList<>(paths.size());
+        List<Song> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < paths.size(); i++) {
+            Song song = take(completion);
+            songs.add(song);
+            batch.add(song);
+            if (batch.size() >= batchSize) {
+                sink.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+        }
+        return songs;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (created) {
+            for (MediaMetadataRetriever retriever : created) {
+                release(retriever);
+            }
+            created.clear();
+        }
+    }
+
+    private static Song take(CompletionService<Song> completion) {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting metadata", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Metadata extraction failed", e.getCause());
+        }
+    }
+
+    // Runs on a worker thread
+    private Song read(String path, boolean fromAssets) {
+        String fileName = new File(path).getName();
+        // The header parser is much cheaper; the retriever handles what it cannot read
+        TagReader.Tags tags = readTags(path, fromAssets);
+        if (tags != null && tags.durationMs >= 0) {
+            String title = tags.title;
+            String artist = tags.artist;
+            String album = tags.album;
+            if (title == null || title.isEmpty()) title = titleFromFileName(fileName);
+            if (artist == null || artist.isEmpty()) artist = "Unknown Artist";
+            if (album == null || album.isEmpty()) album = fromAssets ? "Assets" : "Unknown Album";
+            return new Song(0, title, artist, album, path, tags.durationMs, 0);
+        }
+
+        MediaMetadataRetriever retriever = retriever();
+        try {
+            if (fromAssets) {
+                try (AssetFileDescriptor afd = assetManager.openFd(path)) {
+                    retriever.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+                }
+            } else {
+                retriever.setDataSource(path);
+            }
+
+            String title = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
+            String artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
+            String album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
+            String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+
+            // Use filename if no title in metadata
+            if (title == null || title.isEmpty()) title = titleFromFileName(fileName);
+            if (artist == null || artist.isEmpty()) artist = "Unknown Artist";
+            if (album == null || album.isEmpty()) album = fromAssets ? "Assets" : "Unknown Album";
+
+            long duration = durationStr != null ? Long.parseLong(durationStr) : 0;
+            return new Song(0, title, artist, album, path, duration, 0);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading metadata: " + path, e);
+            // The native state after a failure is unknown; start over with a fresh instance
+            retrievers.remove();
+            synchronized (created) {
+                created.remove(retriever);
+            }
+            release(retriever);
+            return new Song(0, titleFromFileName(fileName), "Unknown Artist",
+                    fromAssets ? "Assets" : "Unknown Album", path, 0, 0);
+        }
+    }
+
+    private TagReader.Tags readTags(String path, boolean fromAssets) {
+        if (!fromAssets) {
+            return TagReader.read(new File(path));
+        }
+        // Uncompressed assets are a byte range of the APK
+        try (AssetFileDescriptor afd = assetManager.openFd(path);
+             FileInputStream in = afd.createInputStream()) {
+            return TagReader.read(in.getChannel(), afd.getStartOffset(), afd.getLength());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private MediaMetadataRetriever retriever() {
+        MediaMetadataRetriever retriever = retrievers.get();
+        if (retriever == null) {
+            retriever = new MediaMetadataRetriever();
+            retrievers.set(retriever);
+            synchronized (created) {
+                created.add(retriever);
+            }
+        }
+        return retriever;
+    }
+
+    private static void release(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (Exception e) {
+            Log.w(TAG, "Error releasing retriever", e);
+        }
+    }
+
+    static String titleFromFileName(String fileName) {
+        return fileName.replaceFirst("[.][^.]+$", "")  // Remove extension
+                .replace("_", " ");  // Replace underscores with spaces
+    }
+}
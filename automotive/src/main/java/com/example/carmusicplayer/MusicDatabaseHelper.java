@@ -3,25 +3,56 @@ package com.example.carmusicplayer;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * SQLite Database Helper for managing songs
+ * SQLite Database Helper for managing songs.
+ * <p>
+ * Reads run on the calling thread. Writes are queued to a single writer
+ * thread and return a future that completes once the write has committed;
+ * call join() on it when the caller needs the result before continuing.
+ * Every operation is timed into {@link #getQueryStats()}.
  */
 public class MusicDatabaseHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = "MusicDatabaseHelper";
     private static final String DATABASE_NAME = "music_player.db";
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 9;
+
+    // Oldest schema that can be migrated in place. Anything older predates
+    // versioned migrations and is rebuilt from scratch.
+    private static final int MIN_MIGRATABLE_VERSION = 2;
+    // Files up to this many pages (4 MB at the default page size) are rewritten on open
+    private static final long INSTANT_VACUUM_MAX_PAGES = 1024;
+    // SQLite 3.32 added analysis_limit; Android 9 ships 3.22
+    private static final int ANALYSIS_LIMIT_MIN_VERSION = 3_032_000;
+    // Without analysis_limit, ANALYZE reads every row; only run it on libraries this small
+    private static final long UNBOUNDED_ANALYZE_MAX_ROWS = 50_000;
 
     // Table names
     public static final String TABLE_SONGS = "songs";
     public static final String TABLE_PLAYLISTS = "playlists";
     public static final String TABLE_PLAYLIST_SONGS = "playlist_songs";
     public static final String TABLE_FAVORITES = "favorites";
+    public static final String TABLE_SONGS_FTS = "songs_fts";
+    public static final String TABLE_PLAY_EVENTS = "play_events";
+    public static final String TABLE_PLAY_DAILY = "play_daily";
+    public static final String TABLE_ARTISTS = "artists";
+    public static final String TABLE_ALBUMS = "albums";
+    public static final String TABLE_STORAGE_USAGE = "storage_usage";
 
     // Songs table columns
     public static final String COLUMN_ID = "id";
@@ -31,6 +62,27 @@ public class MusicDatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_PATH = "path";
     public static final String COLUMN_DURATION = "duration";
     public static final String COLUMN_IS_ASSET = "is_asset";
+    public static final String COLUMN_PATH_HASH = "path_hash";
+
+    // Artists and albums table columns
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_ARTIST_ID = "artist_id";
+    public static final String COLUMN_TRACK_COUNT = "track_count";
+    public static final String COLUMN_TOTAL_DURATION = "total_duration";
+
+    // Index names
+    public static final String INDEX_SONGS_PATH = "idx_songs_path";
+    public static final String INDEX_SONGS_TITLE = "idx_songs_title";
+    public static final String INDEX_SONGS_ASSET_TITLE = "idx_songs_asset_title";
+    public static final String INDEX_FAVORITES_ADDED_AT = "idx_favorites_added_at";
+    public static final String INDEX_PLAY_EVENTS_PLAYED_AT = "idx_play_events_played_at";
+    public static final String INDEX_SONGS_PATH_HASH = "idx_songs_path_hash";
+    public static final String INDEX_STORAGE_USAGE_LAST_PLAYED = "idx_storage_usage_last_played";
+
+    // Listening history retention: raw events first, then one row per song per day
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int RAW_HISTORY_DAYS = 30;
+    private static final int DAILY_HISTORY_DAYS = 730;
 
     // Create songs table SQL
     private static final String CREATE_TABLE_SONGS = 
@@ -49,8 +101,61 @@ public class MusicDatabaseHelper extends SQLiteOpenHelper {
             "song_id INTEGER PRIMARY KEY, " +
             "added_at DATETIME DEFAULT CURRENT_TIMESTAMP)";
 
+    // Bulk insert statement, skips rows whose path is already registered
+    private static final String INSERT_SONG_OR_IGNORE =
+            "INSERT OR IGNORE INTO " + TABLE_SONGS + " (" +
+            COLUMN_TITLE + ", " + COLUMN_ARTIST + ", " + COLUMN_ALBUM + ", " +
+            COLUMN_PATH + ", " + COLUMN_DURATION + ", " + COLUMN_IS_ASSET + ", " + COLUMN_PATH_HASH +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    // Refresh the tags of a row found by path; rows that already match are not written
+    private static final String UPDATE_SONG_BY_PATH =
+            "UPDATE OR IGNORE " + TABLE_SONGS + " SET " +
+            COLUMN_TITLE + " = ?1, " + COLUMN_ARTIST + " = ?2, " + COLUMN_ALBUM + " = ?3, " +
+            COLUMN_DURATION + " = ?4 WHERE " + COLUMN_PATH_HASH + " = ?5 AND " + COLUMN_PATH + " = ?6" +
+            " AND (" + COLUMN_TITLE + " IS NOT ?1 OR " + COLUMN_ARTIST + " IS NOT ?2 OR " +
+            COLUMN_ALBUM + " IS NOT ?3 OR " + COLUMN_DURATION + " IS NOT ?4)";
+
+    // Online (Deezer) tracks keep the Deezer id as their row id
+    private static final String INSERT_REMOTE_SONG_OR_IGNORE =
+            "INSERT OR IGNORE INTO " + TABLE_SONGS + " (" +
+            COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_ARTIST + ", " + COLUMN_ALBUM + ", " +
+            COLUMN_PATH + ", " + COLUMN_DURATION + ", " + COLUMN_PATH_HASH + ", " + COLUMN_IS_ASSET +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, 0)";
+
+    // Refreshes an online track that is already stored; local songs are never touched
+    private static final String UPDATE_REMOTE_SONG =
+            "UPDATE OR IGNORE " + TABLE_SONGS + " SET " +
+            COLUMN_TITLE + " = ?, " + COLUMN_ARTIST + " = ?, " + COLUMN_ALBUM + " = ?, " +
+            COLUMN_PATH + " = ?, " + COLUMN_DURATION + " = ?, " + COLUMN_PATH_HASH + " = ?" +
+            " WHERE " + COLUMN_ID + " = ? AND " + COLUMN_PATH + " LIKE 'http%'";
+
+    // Whether a row id belongs to an online track rather than a local song
+    private static final String IS_REMOTE_SONG =
+            "SELECT COUNT(*) FROM " + TABLE_SONGS +
+            " WHERE " + COLUMN_ID + " = ? AND " + COLUMN_PATH + " LIKE 'http%'";
+
+    private static final String INSERT_FAVORITE_OR_IGNORE =
+            "INSERT OR IGNORE INTO " + TABLE_FAVORITES + " (song_id) VALUES (?)";
+
+    // Columns needed to render a song row in a list
+    public static final String[] PROJECTION_SONG_LIST = {
+            COLUMN_ID, COLUMN_TITLE, COLUMN_ARTIST, COLUMN_DURATION};
+    // Every column Song carries, needed to actually play a song
+    public static final String[] PROJECTION_SONG_FULL = {
+            COLUMN_ID, COLUMN_TITLE, COLUMN_ARTIST, COLUMN_ALBUM, COLUMN_PATH, COLUMN_DURATION};
+
+    // Local songs only: assets + imported, NOT Deezer online songs (http URLs)
+    private static final String LOCAL_SONGS_SELECTION = COLUMN_PATH + " NOT LIKE 'http%'";
+
     private static MusicDatabaseHelper instance;
 
+    private FavoritesIndex favoritesIndex;
+    private final DatabaseWriter writer;
+    private final QueryStats stats = new QueryStats();
+    // Songs under this directory were imported by MusicImporter; MediaStore never sees them
+    private final String importedPathPrefix;
+
     public static synchronized MusicDatabaseHelper getInstance(Context context) {
         if (instance == null) {
             instance = new MusicDatabaseHelper(context.getApplicationContext());
@@ -59,26 +164,306 @@ public class MusicDatabaseHelper extends SQLiteOpenHelper {
     }
 
     private MusicDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // Package-private so tests can open an isolated database file
+    MusicDatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        importedPathPrefix = MusicImporter.getImportDir(context).getAbsolutePath() + File.separator;
+        // Readers keep going while the writer thread commits
+        setWriteAheadLoggingEnabled(true);
+        writer = new DatabaseWriter(this);
+    }
+
+    @Override
+    public synchronized void close() {
+        writer.shutdown();
+        super.close();
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Android writes android_metadata before any callback runs, so the
+        // auto_vacuum pragma alone never applies; it takes a VACUUM. Only
+        // small files, fresh installs among them, are rewritten; a larger
+        // file keeps its mode, since one VACUUM would hold the write lock
+        // for the whole rewrite.
+        if (!db.isReadOnly() && !isIncrementalVacuum(db) &&
+                DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) <= INSTANT_VACUUM_MAX_PAGES) {
+            switchToIncrementalVacuum(db);
+        }
+    }
+
+    // Latency and row counts of every operation since the helper was created
+    public QueryStats getQueryStats() {
+        return stats;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_TABLE_SONGS);
         db.execSQL(CREATE_TABLE_FAVORITES);
+        // Fresh installs replay the same steps as upgrades so both end up
+        // with an identical schema
+        migrate(db, MIN_MIGRATABLE_VERSION, DATABASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
-        onCreate(db);
+        if (oldVersion < MIN_MIGRATABLE_VERSION) {
+            Log.w(TAG, "No migration path from version " + oldVersion + ", rebuilding database");
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_SONGS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_FAVORITES);
+            onCreate(db);
+            return;
+        }
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Apply every migration step after fromVersion up to and including toVersion.
+     * SQLiteOpenHelper already wraps onCreate/onUpgrade in a transaction, so a
+     * failing step leaves the database at its previous version.
+     */
+    private void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion + 1; version <= toVersion; version++) {
+            Log.d(TAG, "Migrating database to version " + version);
+            switch (version) {
+                case 3:
+                    migrateToVersion3(db);
+                    break;
+                case 4:
+                    migrateToVersion4(db);
+                    break;
+                case 5:
+                    migrateToVersion5(db);
+                    break;
+                case 6:
+                    migrateToVersion6(db);
+                    break;
+                case 7:
+                    migrateToVersion7(db);
+                    break;
+                case 8:
+                    migrateToVersion8(db);
+                    break;
+                case 9:
+                    migrateToVersion9(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    // Version 3: indexes for path lookups and title-ordered listings
+    private void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SONGS_PATH +
+                " ON " + TABLE_SONGS + "(" + COLUMN_PATH + ")");
+        // The rowid is implicitly appended, so this also serves ORDER BY title, id
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SONGS_TITLE +
+                " ON " + TABLE_SONGS + "(" + COLUMN_TITLE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SONGS_ASSET_TITLE +
+                " ON " + TABLE_SONGS + "(" + COLUMN_IS_ASSET + ", " + COLUMN_TITLE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_FAVORITES_ADDED_AT +
+                " ON " + TABLE_FAVORITES + "(added_at)");
+    }
+
+    // Version 4: one row per path, so inserts can rely on conflict handling
+    private void migrateToVersion4(SQLiteDatabase db) {
+        // Keep the oldest row of every duplicated path
+        String duplicateIds = "SELECT " + COLUMN_ID + " FROM " + TABLE_SONGS +
+                " WHERE " + COLUMN_ID + " NOT IN (SELECT MIN(" + COLUMN_ID + ") FROM " +
+                TABLE_SONGS + " GROUP BY " + COLUMN_PATH + ")";
+        // Favorites of a duplicate move to the kept row; if that one is a
+        // favorite already, the duplicate's entry is left to the delete below
+        db.execSQL("UPDATE OR IGNORE " + TABLE_FAVORITES + " SET song_id = (SELECT MIN(" + COLUMN_ID +
+                ") FROM " + TABLE_SONGS + " s2 WHERE s2." + COLUMN_PATH + " = (SELECT " + COLUMN_PATH +
+                " FROM " + TABLE_SONGS + " WHERE " + COLUMN_ID + " = " + TABLE_FAVORITES + ".song_id))" +
+                " WHERE song_id IN (" + duplicateIds + ")");
+        db.execSQL("DELETE FROM " + TABLE_FAVORITES + " WHERE song_id IN (" + duplicateIds + ")");
+        db.execSQL("DELETE FROM " + TABLE_SONGS + " WHERE " + COLUMN_ID + " IN (" + duplicateIds + ")");
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_SONGS_PATH);
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_SONGS_PATH +
+                " ON " + TABLE_SONGS + "(" + COLUMN_PATH + ")");
+    }
+
+    // Version 5: full-text index over title, artist and album, kept in sync by triggers
+    private void migrateToVersion5(SQLiteDatabase db) {
+        String columns = COLUMN_TITLE + ", " + COLUMN_ARTIST + ", " + COLUMN_ALBUM;
+        String newValues = "new." + COLUMN_TITLE + ", new." + COLUMN_ARTIST + ", new." + COLUMN_ALBUM;
+        
+        // External content table: the FTS index stores no second copy of the text
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_SONGS_FTS + " USING fts4(" +
+                "content=\"" + TABLE_SONGS + "\", " + columns + ", tokenize=unicode61)");
+        
+        // Old index entries must be removed while the content row still exists
+        db.execSQL("CREATE TRIGGER songs_fts_before_update BEFORE UPDATE ON " + TABLE_SONGS +
+                " BEGIN DELETE FROM " + TABLE_SONGS_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER songs_fts_before_delete BEFORE DELETE ON " + TABLE_SONGS +
+                " BEGIN DELETE FROM " + TABLE_SONGS_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER songs_fts_after_update AFTER UPDATE ON " + TABLE_SONGS +
+                " BEGIN INSERT INTO " + TABLE_SONGS_FTS + " (docid, " + columns + ")" +
+                " VALUES (new." + COLUMN_ID + ", " + newValues + "); END");
+        db.execSQL("CREATE TRIGGER songs_fts_after_insert AFTER INSERT ON " + TABLE_SONGS +
+                " BEGIN INSERT INTO " + TABLE_SONGS_FTS + " (docid, " + columns + ")" +
+                " VALUES (new." + COLUMN_ID + ", " + newValues + "); END");
+        
+        db.execSQL("INSERT INTO " + TABLE_SONGS_FTS + " (" + TABLE_SONGS_FTS + ") VALUES ('rebuild')");
     }
 
-    // Insert a song
-    public long insertSong(Song song, boolean isAsset) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    // Version 6: append-only listening history plus daily aggregates for old events
+    private void migrateToVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PLAY_EVENTS + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "song_id INTEGER NOT NULL, " +
+                "played_at INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX " + INDEX_PLAY_EVENTS_PLAYED_AT +
+                " ON " + TABLE_PLAY_EVENTS + "(played_at)");
+        // day = played_at / DAY_MS (UTC day number)
+        db.execSQL("CREATE TABLE " + TABLE_PLAY_DAILY + " (" +
+                "day INTEGER NOT NULL, " +
+                "song_id INTEGER NOT NULL, " +
+                "play_count INTEGER NOT NULL, " +
+                "PRIMARY KEY (day, song_id))");
+    }
+
+    /**
+     * Version 7: artists and albums as their own tables, with track counts and
+     * durations kept current by triggers on songs so browse pages never have
+     * to aggregate. Songs without an artist or album are grouped under ''.
+     * Online (http) songs are left out, like every other library listing.
+     */
+    private void migrateToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ARTISTS + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_NAME + " TEXT NOT NULL UNIQUE, " +
+                COLUMN_TRACK_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_TOTAL_DURATION + " INTEGER NOT NULL DEFAULT 0)");
+        // The unique constraint doubles as the index for albums of one artist
+        db.execSQL("CREATE TABLE " + TABLE_ALBUMS + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_ARTIST_ID + " INTEGER NOT NULL, " +
+                COLUMN_TITLE + " TEXT NOT NULL, " +
+                COLUMN_TRACK_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_TOTAL_DURATION + " INTEGER NOT NULL DEFAULT 0, " +
+                "UNIQUE (" + COLUMN_ARTIST_ID + ", " + COLUMN_TITLE + "))");
+        
+        db.execSQL("CREATE TRIGGER songs_browse_after_insert AFTER INSERT ON " + TABLE_SONGS +
+                " WHEN new." + LOCAL_SONGS_SELECTION +
+                " BEGIN " + addToBrowse("new") + " END");
+        db.execSQL("CREATE TRIGGER songs_browse_after_delete AFTER DELETE ON " + TABLE_SONGS +
+                " WHEN old." + LOCAL_SONGS_SELECTION +
+                " BEGIN " + removeFromBrowse("old") + " END");
+        String updatedColumns = COLUMN_ARTIST + ", " + COLUMN_ALBUM + ", " +
+                COLUMN_DURATION + ", " + COLUMN_PATH;
+        db.execSQL("CREATE TRIGGER songs_browse_update_old AFTER UPDATE OF " + updatedColumns +
+                " ON " + TABLE_SONGS + " WHEN old." + LOCAL_SONGS_SELECTION +
+                " BEGIN " + removeFromBrowse("old") + " END");
+        db.execSQL("CREATE TRIGGER songs_browse_update_new AFTER UPDATE OF " + updatedColumns +
+                " ON " + TABLE_SONGS + " WHEN new." + LOCAL_SONGS_SELECTION +
+                " BEGIN " + addToBrowse("new") + " END");
+        
+        // Backfill from whatever the library already holds
+        db.execSQL("INSERT INTO " + TABLE_ARTISTS + " (" + COLUMN_NAME + ", " +
+                COLUMN_TRACK_COUNT + ", " + COLUMN_TOTAL_DURATION + ")" +
+                " SELECT IFNULL(" + COLUMN_ARTIST + ", ''), COUNT(*), SUM(IFNULL(" + COLUMN_DURATION + ", 0))" +
+                " FROM " + TABLE_SONGS + " WHERE " + LOCAL_SONGS_SELECTION +
+                " GROUP BY IFNULL(" + COLUMN_ARTIST + ", '')");
+        db.execSQL("INSERT INTO " + TABLE_ALBUMS + " (" + COLUMN_ARTIST_ID + ", " + COLUMN_TITLE + ", " +
+                COLUMN_TRACK_COUNT + ", " + COLUMN_TOTAL_DURATION + ")" +
+                " SELECT a." + COLUMN_ID + ", IFNULL(s." + COLUMN_ALBUM + ", ''), COUNT(*)," +
+                " SUM(IFNULL(s." + COLUMN_DURATION + ", 0))" +
+                " FROM " + TABLE_SONGS + " s JOIN " + TABLE_ARTISTS + " a" +
+                " ON a." + COLUMN_NAME + " = IFNULL(s." + COLUMN_ARTIST + ", '')" +
+                " WHERE s." + LOCAL_SONGS_SELECTION +
+                " GROUP BY a." + COLUMN_ID + ", IFNULL(s." + COLUMN_ALBUM + ", '')");
+    }
+
+    // Version 8: integer hash of the path, so scans can diff against the library in memory
+    private void migrateToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_SONGS + " ADD COLUMN " + COLUMN_PATH_HASH +
+                " INTEGER NOT NULL DEFAULT 0");
+        
+        // SQLite has no 64-bit string hash of its own, so backfill from Java
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_SONGS +
+                " SET " + COLUMN_PATH_HASH + " = ? WHERE " + COLUMN_ID + " = ?");
+        Cursor cursor = db.query(TABLE_SONGS, new String[]{COLUMN_ID, COLUMN_PATH},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                update.bindLong(1, PathHashIndex.hash(cursor.getString(1)));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
         
+        db.execSQL("CREATE INDEX " + INDEX_SONGS_PATH_HASH +
+                " ON " + TABLE_SONGS + "(" + COLUMN_PATH_HASH + ")");
+    }
+
+    // Version 9: size and last play of files counted against storage quotas
+    private void migrateToVersion9(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_STORAGE_USAGE + " (" +
+                COLUMN_PATH + " TEXT PRIMARY KEY, " +
+                "category INTEGER NOT NULL, " +
+                "bytes INTEGER NOT NULL, " +
+                "song_id INTEGER NOT NULL DEFAULT 0, " +
+                "last_played INTEGER NOT NULL)");
+        // Rebuilding the LRU order after a restart reads straight off this index
+        db.execSQL("CREATE INDEX " + INDEX_STORAGE_USAGE_LAST_PLAYED +
+                " ON " + TABLE_STORAGE_USAGE + "(last_played)");
+    }
+
+    // Trigger body counting the song row `row` (new/old) into its artist and album
+    private static String addToBrowse(String row) {
+        String artist = "IFNULL(" + row + "." + COLUMN_ARTIST + ", '')";
+        String album = "IFNULL(" + row + "." + COLUMN_ALBUM + ", '')";
+        String duration = "IFNULL(" + row + "." + COLUMN_DURATION + ", 0)";
+        String artistId = "(SELECT " + COLUMN_ID + " FROM " + TABLE_ARTISTS +
+                " WHERE " + COLUMN_NAME + " = " + artist + ")";
+        return "INSERT OR IGNORE INTO " + TABLE_ARTISTS + " (" + COLUMN_NAME + ") VALUES (" + artist + "); " +
+                "UPDATE " + TABLE_ARTISTS + " SET " +
+                COLUMN_TRACK_COUNT + " = " + COLUMN_TRACK_COUNT + " + 1, " +
+                COLUMN_TOTAL_DURATION + " = " + COLUMN_TOTAL_DURATION + " + " + duration +
+                " WHERE " + COLUMN_NAME + " = " + artist + "; " +
+                "INSERT OR IGNORE INTO " + TABLE_ALBUMS + " (" + COLUMN_ARTIST_ID + ", " + COLUMN_TITLE + ")" +
+                " VALUES (" + artistId + ", " + album + "); " +
+                "UPDATE " + TABLE_ALBUMS + " SET " +
+                COLUMN_TRACK_COUNT + " = " + COLUMN_TRACK_COUNT + " + 1, " +
+                COLUMN_TOTAL_DURATION + " = " + COLUMN_TOTAL_DURATION + " + " + duration +
+                " WHERE " + COLUMN_ARTIST_ID + " = " + artistId + " AND " + COLUMN_TITLE + " = " + album + ";";
+    }
+
+    // Trigger body taking the song row `row` back out, dropping emptied albums and artists
+    private static String removeFromBrowse(String row) {
+        String artist = "IFNULL(" + row + "." + COLUMN_ARTIST + ", '')";
+        String album = "IFNULL(" + row + "." + COLUMN_ALBUM + ", '')";
+        String duration = "IFNULL(" + row + "." + COLUMN_DURATION + ", 0)";
+        String albumKey = COLUMN_ARTIST_ID + " = (SELECT " + COLUMN_ID + " FROM " + TABLE_ARTISTS +
+                " WHERE " + COLUMN_NAME + " = " + artist + ") AND " + COLUMN_TITLE + " = " + album;
+        String artistKey = COLUMN_NAME + " = " + artist;
+        return "UPDATE " + TABLE_ALBUMS + " SET " +
+                COLUMN_TRACK_COUNT + " = " + COLUMN_TRACK_COUNT + " - 1, " +
+                COLUMN_TOTAL_DURATION + " = " + COLUMN_TOTAL_DURATION + " - " + duration +
+                " WHERE " + albumKey + "; " +
+                "DELETE FROM " + TABLE_ALBUMS + " WHERE " + albumKey +
+                " AND " + COLUMN_TRACK_COUNT + " <= 0; " +
+                "UPDATE " + TABLE_ARTISTS + " SET " +
+                COLUMN_TRACK_COUNT + " = " + COLUMN_TRACK_COUNT + " - 1, " +
+                COLUMN_TOTAL_DURATION + " = " + COLUMN_TOTAL_DURATION + " - " + duration +
+                " WHERE " + artistKey + "; " +
+                "DELETE FROM " + TABLE_ARTISTS + " WHERE " + artistKey +
+                " AND " + COLUMN_TRACK_COUNT + " <= 0;";
+    }
+
+    // Insert a song, resolves to the new row id or -1 if the path is already known
+    public CompletableFuture<Long> insertSong(Song song, boolean isAsset) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_TITLE, song.getTitle());
         values.put(COLUMN_ARTIST, song.getArtist());
@@ -86,14 +471,153 @@ public class MusicDatabaseHelper extends SQLiteOpenHelper {
         values.put(COLUMN_PATH, song.getPath());
         values.put(COLUMN_DURATION, song.getDuration());
         values.put(COLUMN_IS_ASSET, isAsset ? 1 : 0);
+        values.put(COLUMN_PATH_HASH, PathHashIndex.hash(song.getPath()));
         
-        return db.insert(TABLE_SONGS, null, values);
+        return write("insertSong", db -> db.insertWithOnConflict(TABLE_SONGS, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE));
     }
 
-    // Insert a song with specific ID (for Deezer tracks)
-    public long insertSongWithId(Song song) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    /**
+     * Insert many songs in one transaction through a single compiled statement.
+     * Songs whose path is already registered are skipped; inserted songs get
+     * their new row id written back.
+     *
+     * @return future resolving to the number of rows actually inserted
+     */
+    public CompletableFuture<Integer> insertSongs(Collection<Song> songs, boolean isAsset) {
+        if (songs.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return write("insertSongs", db -> insertSongs(db, songs, isAsset));
+    }
+
+    // Runs on the writer thread, inside its batch transaction
+    private static int insertSongs(SQLiteDatabase db, Collection<Song> songs, boolean isAsset) {
+        int inserted = 0;
+        SQLiteStatement statement = db.compileStatement(INSERT_SONG_OR_IGNORE);
+        try {
+            for (Song song : songs) {
+                bindText(statement, 1, song.getTitle());
+                bindText(statement, 2, song.getArtist());
+                bindText(statement, 3, song.getAlbum());
+                bindText(statement, 4, song.getPath());
+                statement.bindLong(5, song.getDuration());
+                statement.bindLong(6, isAsset ? 1 : 0);
+                statement.bindLong(7, PathHashIndex.hash(song.getPath()));
+                
+                long rowId = statement.executeInsert();
+                if (rowId != -1) {
+                    song.setId(rowId);
+                    inserted++;
+                }
+            }
+        } finally {
+            statement.close();
+        }
         
+        return inserted;
+    }
+
+    // Runs on the writer thread, inside its batch transaction
+    private static int updateSongs(SQLiteDatabase db, Collection<Song> songs) {
+        int updated = 0;
+        SQLiteStatement statement = db.compileStatement(UPDATE_SONG_BY_PATH);
+        try {
+            for (Song song : songs) {
+                bindText(statement, 1, song.getTitle());
+                bindText(statement, 2, song.getArtist());
+                bindText(statement, 3, song.getAlbum());
+                statement.bindLong(4, song.getDuration());
+                statement.bindLong(5, PathHashIndex.hash(song.getPath()));
+                statement.bindString(6, song.getPath());
+                updated += statement.executeUpdateDelete();
+            }
+        } finally {
+            statement.close();
+        }
+        return updated;
+    }
+
+    /**
+     * Path hashes and ids of the local songs from one source (assets or
+     * MediaStore), read in hash order straight off the path_hash index.
+     * Imported songs belong to neither.
+     */
+    public PathHashIndex loadPathHashes(boolean isAsset) {
+        return stats.time("loadPathHashes", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_SONGS, new String[]{COLUMN_PATH_HASH, COLUMN_ID},
+                    isAsset ? COLUMN_IS_ASSET + " = 1 AND " + LOCAL_SONGS_SELECTION : deviceSongsSelection(),
+                    null, null, null, COLUMN_PATH_HASH + " ASC");
+            PathHashIndex index = new PathHashIndex(cursor.getCount());
+            try {
+                while (cursor.moveToNext()) {
+                    index.add(cursor.getLong(0), cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+            return index;
+        });
+    }
+
+    // Apply a scan that changed no existing rows, see the overload below
+    public CompletableFuture<Integer> reconcileLibrary(Collection<Song> newAssets,
+                                                       Collection<Song> newDeviceSongs,
+                                                       long[] vanishedIds) {
+        return reconcileLibrary(newAssets, newDeviceSongs, Collections.emptyList(), vanishedIds);
+    }
+
+    /**
+     * Apply the result of a scan in one transaction: register new asset and
+     * device songs, refresh the tags of device songs whose files changed
+     * (matched by path) and delete the rows whose files are gone, together
+     * with their favorites and play history. Resolves to the number of rows
+     * inserted, updated and deleted.
+     */
+    public CompletableFuture<Integer> reconcileLibrary(Collection<Song> newAssets,
+                                                       Collection<Song> newDeviceSongs,
+                                                       Collection<Song> changedDeviceSongs,
+                                                       long[] vanishedIds) {
+        if (newAssets.isEmpty() && newDeviceSongs.isEmpty() && changedDeviceSongs.isEmpty() &&
+                vanishedIds.length == 0) {
+            return CompletableFuture.completedFuture(0);
+        }
+        FavoritesIndex favorites = getFavoritesIndex();
+        for (long id : vanishedIds) {
+            favorites.remove(id);
+        }
+        return write("reconcileLibrary", db -> {
+            int changed = insertSongs(db, newAssets, true) + insertSongs(db, newDeviceSongs, false) +
+                    updateSongs(db, changedDeviceSongs);
+            if (vanishedIds.length == 0) {
+                return changed;
+            }
+            
+            SQLiteStatement deleteSong = db.compileStatement(
+                    "DELETE FROM " + TABLE_SONGS + " WHERE " + COLUMN_ID + " = ?");
+            SQLiteStatement deleteFavorite = db.compileStatement(
+                    "DELETE FROM " + TABLE_FAVORITES + " WHERE song_id = ?");
+            try {
+                for (long id : vanishedIds) {
+                    deleteFavorite.bindLong(1, id);
+                    deleteFavorite.executeUpdateDelete();
+                    deleteSong.bindLong(1, id);
+                    changed += deleteSong.executeUpdateDelete();
+                }
+            } finally {
+                deleteSong.close();
+                deleteFavorite.close();
+            }
+            // play_events has no song_id index; one pass beats a scan per deleted song
+            db.execSQL("DELETE FROM " + TABLE_PLAY_EVENTS + " WHERE song_id NOT IN" +
+                    " (SELECT " + COLUMN_ID + " FROM " + TABLE_SONGS + ")");
+            return changed;
+        });
+    }
+
+    // Insert a song with specific ID (for Deezer tracks)
+    public CompletableFuture<Long> insertSongWithId(Song song) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_ID, song.getId());
         values.put(COLUMN_TITLE, song.getTitle());
@@ -102,166 +626,766 @@ public class MusicDatabaseHelper extends SQLiteOpenHelper {
         values.put(COLUMN_PATH, song.getPath());
         values.put(COLUMN_DURATION, song.getDuration());
         values.put(COLUMN_IS_ASSET, 0);
+        values.put(COLUMN_PATH_HASH, PathHashIndex.hash(song.getPath()));
         
-        return db.insertWithOnConflict(TABLE_SONGS, null, values, 
-                SQLiteDatabase.CONFLICT_IGNORE);
+        return write("insertSongWithId", db -> db.insertWithOnConflict(TABLE_SONGS, null, values, 
+                SQLiteDatabase.CONFLICT_IGNORE));
     }
 
     // Get song by ID
     public Song getSongById(long id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_SONGS, null, 
-                COLUMN_ID + " = ?", new String[]{String.valueOf(id)}, null, null, null);
+        return stats.time("getSongById", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_SONGS, PROJECTION_SONG_FULL, 
+                    COLUMN_ID + " = ?", new String[]{String.valueOf(id)}, null, null, null);
         
-        Song song = null;
-        if (cursor.moveToFirst()) {
-            song = cursorToSong(cursor);
-        }
-        cursor.close();
-        return song;
+            List<Song> songs = SongRowMapper.readAll(cursor);
+            return songs.isEmpty() ? null : songs.get(0);
+        });
     }
 
     // Get all songs
     public List<Song> getAllSongs() {
-        List<Song> songs = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        
-        Cursor cursor = db.query(TABLE_SONGS, null, null, null, null, null, 
-                COLUMN_TITLE + " ASC");
+        return stats.time("getAllSongs", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
         
-        if (cursor.moveToFirst()) {
-            do {
-                Song song = cursorToSong(cursor);
-                songs.add(song);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
+            Cursor cursor = db.query(TABLE_SONGS, PROJECTION_SONG_FULL, null, null, null, null, 
+                    COLUMN_TITLE + " ASC");
         
-        return songs;
+            return SongRowMapper.readAll(cursor);
+        });
     }
 
     // Get songs from assets only
     public List<Song> getAssetSongs() {
-        List<Song> songs = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        
-        Cursor cursor = db.query(TABLE_SONGS, null, 
-                COLUMN_IS_ASSET + " = 1", null, null, null, 
-                COLUMN_TITLE + " ASC");
+        return stats.time("getAssetSongs", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
         
-        if (cursor.moveToFirst()) {
-            do {
-                Song song = cursorToSong(cursor);
-                songs.add(song);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
+            Cursor cursor = db.query(TABLE_SONGS, PROJECTION_SONG_FULL, 
+                    COLUMN_IS_ASSET + " = 1", null, null, null, 
+                    COLUMN_TITLE + " ASC");
         
-        return songs;
+            return SongRowMapper.readAll(cursor);
+        });
     }
 
     // Get local songs only (assets + imported, NOT Deezer online songs)
     public List<Song> getLocalSongs() {
-        List<Song> songs = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
+        return stats.time("getLocalSongs", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+        
+            // Filter out songs with http URLs (Deezer songs)
+            Cursor cursor = db.query(TABLE_SONGS, PROJECTION_SONG_FULL, 
+                    LOCAL_SONGS_SELECTION, null, null, null, 
+                    COLUMN_TITLE + " ASC, " + COLUMN_ID + " ASC");
         
-        // Filter out songs with http URLs (Deezer songs)
-        Cursor cursor = db.query(TABLE_SONGS, null, 
-                COLUMN_PATH + " NOT LIKE 'http%'", null, null, null, 
-                COLUMN_TITLE + " ASC");
+            return SongRowMapper.readAll(cursor);
+        });
+    }
+
+    // Get one page of all songs, ordered by (title, id), starting after the given song
+    public List<Song> getAllSongsPage(Song after, int limit) {
+        return stats.time("getAllSongsPage", () ->
+                querySongsPage(TABLE_SONGS, "", null, after, limit));
+    }
+
+    // Get one page of local songs, ordered by (title, id), starting after the given song
+    public List<Song> getLocalSongsPage(Song after, int limit) {
+        return stats.time("getLocalSongsPage", () ->
+                querySongsPage(TABLE_SONGS, "", LOCAL_SONGS_SELECTION, after, limit));
+    }
+
+    // Get one page of favorite songs, ordered by (title, id), starting after the given song
+    public List<Song> getFavoriteSongsPage(Song after, int limit) {
+        return stats.time("getFavoriteSongsPage", () -> {
+            String table = TABLE_SONGS + " s INNER JOIN " + TABLE_FAVORITES +
+                    " f ON s." + COLUMN_ID + " = f.song_id";
+            return querySongsPage(table, "s.", null, after, limit);
+        });
+    }
+
+    /**
+     * Keyset pagination over (title, id). Each page seeks straight to the
+     * last key of the previous one through the title index, so reading page
+     * N costs the same as reading page 1. Pages carry the list projection
+     * only; resolve a song with getSongById before playing it.
+     *
+     * @param after last song of the previous page, or null for the first page
+     */
+    private List<Song> querySongsPage(String table, String alias, String filter,
+                                      Song after, int limit) {
+        String title = alias + COLUMN_TITLE;
+        String id = alias + COLUMN_ID;
+        StringBuilder selection = new StringBuilder();
+        String[] selectionArgs = null;
         
-        if (cursor.moveToFirst()) {
-            do {
-                Song song = cursorToSong(cursor);
-                songs.add(song);
-            } while (cursor.moveToNext());
+        if (filter != null) {
+            selection.append(filter);
         }
-        cursor.close();
+        if (after != null) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            // Written so the leading range term can seek the title index
+            selection.append(title).append(" >= ? AND (")
+                    .append(title).append(" > ? OR ").append(id).append(" > ?)");
+            selectionArgs = new String[]{
+                    after.getTitle(), after.getTitle(), String.valueOf(after.getId())};
+        }
+        
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT " + columns(alias, PROJECTION_SONG_LIST) +
+                " FROM " + table +
+                (selection.length() > 0 ? " WHERE " + selection : "") +
+                " ORDER BY " + title + " ASC, " + id + " ASC LIMIT " + limit, selectionArgs);
         
-        return songs;
+        return SongRowMapper.readAll(cursor);
+    }
+
+    // Ids of the local songs in the order pages come in, for queueing the whole library
+    public long[] getLocalSongIds() {
+        return stats.time("getLocalSongIds", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_SONGS, new String[]{COLUMN_ID}, LOCAL_SONGS_SELECTION,
+                    null, null, null, COLUMN_TITLE + " ASC, " + COLUMN_ID + " ASC");
+            try {
+                long[] ids = new long[cursor.getCount()];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                }
+                return ids;
+            } finally {
+                cursor.close();
+            }
+        });
+    }
+
+    // Count local songs without loading them
+    public int getLocalSongCount() {
+        return stats.time("getLocalSongCount", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            return (int) DatabaseUtils.queryNumEntries(db, TABLE_SONGS, LOCAL_SONGS_SELECTION);
+        });
+    }
+
+    // Count songs that came from MediaStore
+    public int getDeviceSongCount() {
+        return stats.time("getDeviceSongCount", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            return (int) DatabaseUtils.queryNumEntries(db, TABLE_SONGS, deviceSongsSelection());
+        });
+    }
+
+    // Ids of songs copied into app storage, by path
+    public Map<String, Long> getImportedSongIds() {
+        return stats.time("getImportedSongIds", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_SONGS, new String[]{COLUMN_PATH, COLUMN_ID},
+                    "substr(" + COLUMN_PATH + ", 1, " + importedPathPrefix.length() + ") = ?",
+                    new String[]{importedPathPrefix}, null, null, null);
+            Map<String, Long> ids = new HashMap<>(cursor.getCount() * 2);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.put(cursor.getString(0), cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+            return ids;
+        });
+    }
+
+    // Local songs MediaStore indexes: not bundled, and not copied into app storage
+    private String deviceSongsSelection() {
+        return COLUMN_IS_ASSET + " = 0 AND " + LOCAL_SONGS_SELECTION +
+                " AND substr(" + COLUMN_PATH + ", 1, " + importedPathPrefix.length() + ") <> " +
+                DatabaseUtils.sqlEscapeString(importedPathPrefix);
+    }
+
+    /**
+     * Full-text search over title, artist and album of local songs. Every word
+     * of the query is matched as a prefix. Songs whose title starts with the
+     * query rank first, then songs whose artist does, then the rest by title.
+     */
+    public List<Song> searchSongs(String query, int limit) {
+        return stats.time("searchSongs", () -> {
+            String match = toPrefixMatch(query);
+            if (match == null) {
+                return new ArrayList<>();
+            }
+            String startsWith = query.trim().replace("\\", "\\\\")
+                    .replace("%", "\\%").replace("_", "\\_") + "%";
+        
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT " + columns("s.", PROJECTION_SONG_LIST) +
+                    " FROM " + TABLE_SONGS_FTS + " f" +
+                    " INNER JOIN " + TABLE_SONGS + " s ON s." + COLUMN_ID + " = f.docid" +
+                    " WHERE " + TABLE_SONGS_FTS + " MATCH ? AND s." + LOCAL_SONGS_SELECTION +
+                    " ORDER BY CASE" +
+                    " WHEN s." + COLUMN_TITLE + " LIKE ? ESCAPE '\\' THEN 0" +
+                    " WHEN s." + COLUMN_ARTIST + " LIKE ? ESCAPE '\\' THEN 1" +
+                    " ELSE 2 END, s." + COLUMN_TITLE + " ASC, s." + COLUMN_ID + " ASC" +
+                    " LIMIT " + limit, new String[]{match, startsWith, startsWith});
+        
+            return SongRowMapper.readAll(cursor);
+        });
+    }
+
+    // Turn free text into an FTS query of prefix terms ("beat ye" -> "beat* ye*")
+    private static String toPrefixMatch(String query) {
+        StringBuilder match = new StringBuilder();
+        // Lowercase so words like OR/NOT are never read as operators
+        for (String term : query.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(term).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
     }
 
     // Check if song exists by path
     public boolean songExists(String path) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_SONGS, new String[]{COLUMN_ID}, 
-                COLUMN_PATH + " = ?", new String[]{path}, null, null, null);
-        boolean exists = cursor.getCount() > 0;
-        cursor.close();
-        return exists;
+        return stats.time("songExists", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            // The integer hash finds the row through its index, the path rules out collisions
+            Cursor cursor = db.query(TABLE_SONGS, new String[]{COLUMN_ID},
+                    COLUMN_PATH_HASH + " = ? AND " + COLUMN_PATH + " = ?",
+                    new String[]{String.valueOf(PathHashIndex.hash(path)), path}, null, null, null);
+            boolean exists = cursor.getCount() > 0;
+            cursor.close();
+            return exists;
+        });
+    }
+
+    // Favorite one Deezer track, see favoriteRemoteTracks
+    public CompletableFuture<Integer> favoriteRemoteTrack(DeezerService.DeezerTrack track) {
+        return favoriteRemoteTracks(Collections.singletonList(track));
     }
 
-    // Add to favorites
-    public void addToFavorites(long songId) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    /**
+     * Store Deezer tracks as songs and favorite them, all in one write
+     * transaction. A track that is already stored gets its metadata and
+     * preview URL refreshed. Android 9 ships SQLite 3.22, which predates
+     * UPSERT, so each track is an INSERT OR IGNORE followed by an UPDATE
+     * through statements compiled once per batch. Tracks without a preview
+     * URL cannot be played and are skipped, and so are tracks whose id a
+     * local song already uses. The in-memory favorites index updates once
+     * the write has committed; resolves to the number of newly favorited
+     * tracks.
+     */
+    public CompletableFuture<Integer> favoriteRemoteTracks(List<DeezerService.DeezerTrack> tracks) {
+        List<DeezerService.DeezerTrack> playable = new ArrayList<>(tracks.size());
+        FavoritesIndex favorites = getFavoritesIndex();
+        for (DeezerService.DeezerTrack track : tracks) {
+            String previewUrl = track.getPreviewUrl();
+            if (previewUrl != null && !previewUrl.isEmpty()) {
+                playable.add(track);
+            }
+        }
+        if (playable.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        
+        // Written on the writer thread, read once the write has committed
+        long[] favorited = new long[playable.size()];
+        int[] favoritedCount = new int[1];
+        return write("favoriteRemoteTracks", db -> {
+            SQLiteStatement insert = db.compileStatement(INSERT_REMOTE_SONG_OR_IGNORE);
+            SQLiteStatement update = db.compileStatement(UPDATE_REMOTE_SONG);
+            SQLiteStatement isRemote = db.compileStatement(IS_REMOTE_SONG);
+            SQLiteStatement favorite = db.compileStatement(INSERT_FAVORITE_OR_IGNORE);
+            int added = 0;
+            favoritedCount[0] = 0;
+            try {
+                for (DeezerService.DeezerTrack track : playable) {
+                    long pathHash = PathHashIndex.hash(track.getPreviewUrl());
+                    long duration = track.getDuration() * 1000L;
+                    
+                    insert.bindLong(1, track.getId());
+                    bindText(insert, 2, track.getTitle());
+                    bindText(insert, 3, track.getArtist());
+                    bindText(insert, 4, track.getAlbum());
+                    insert.bindString(5, track.getPreviewUrl());
+                    insert.bindLong(6, duration);
+                    insert.bindLong(7, pathHash);
+                    if (insert.executeInsert() == -1) {
+                        bindText(update, 1, track.getTitle());
+                        bindText(update, 2, track.getArtist());
+                        bindText(update, 3, track.getAlbum());
+                        update.bindString(4, track.getPreviewUrl());
+                        update.bindLong(5, duration);
+                        update.bindLong(6, pathHash);
+                        update.bindLong(7, track.getId());
+                        if (update.executeUpdateDelete() == 0) {
+                            isRemote.bindLong(1, track.getId());
+                            if (isRemote.simpleQueryForLong() == 0) {
+                                // The id belongs to a local song; never favorite it by accident
+                                continue;
+                            }
+                        }
+                    }
+                    
+                    favorite.bindLong(1, track.getId());
+                    if (favorite.executeInsert() != -1) {
+                        added++;
+                    }
+                    favorited[favoritedCount[0]++] = track.getId();
+                }
+            } finally {
+                insert.close();
+                update.close();
+                isRemote.close();
+                favorite.close();
+            }
+            return added;
+        }).thenApply(added -> {
+            for (int i = 0; i < favoritedCount[0]; i++) {
+                favorites.add(favorited[i]);
+            }
+            return added;
+        });
+    }
+
+    // Add to favorites; the in-memory index updates right away, the row is queued
+    public CompletableFuture<Long> addToFavorites(long songId) {
+        getFavoritesIndex().add(songId);
         ContentValues values = new ContentValues();
         values.put("song_id", songId);
-        db.insertWithOnConflict(TABLE_FAVORITES, null, values, 
-                SQLiteDatabase.CONFLICT_IGNORE);
+        return write("addToFavorites", db -> db.insertWithOnConflict(TABLE_FAVORITES, null, values, 
+                SQLiteDatabase.CONFLICT_IGNORE));
     }
 
-    // Remove from favorites
-    public void removeFromFavorites(long songId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_FAVORITES, "song_id = ?", new String[]{String.valueOf(songId)});
+    // Remove from favorites; the in-memory index updates right away, the delete is queued
+    public CompletableFuture<Integer> removeFromFavorites(long songId) {
+        getFavoritesIndex().remove(songId);
+        return write("removeFromFavorites", db -> db.delete(TABLE_FAVORITES, "song_id = ?",
+                new String[]{String.valueOf(songId)}));
     }
 
-    // Check if song is favorite
+    // Check if song is favorite (answered from memory, no query)
     public boolean isFavorite(long songId) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_FAVORITES, null, 
-                "song_id = ?", new String[]{String.valueOf(songId)}, null, null, null);
-        boolean isFav = cursor.getCount() > 0;
-        cursor.close();
-        return isFav;
+        return getFavoritesIndex().contains(songId);
+    }
+
+    /**
+     * In-memory set of favorite song ids. Loaded with a single query on first
+     * use and kept current by addToFavorites/removeFromFavorites afterwards.
+     */
+    public synchronized FavoritesIndex getFavoritesIndex() {
+        if (favoritesIndex == null) {
+            long[] ids = stats.time("loadFavoritesIndex", () -> {
+                SQLiteDatabase db = this.getReadableDatabase();
+                Cursor cursor = db.rawQuery("SELECT song_id FROM " + TABLE_FAVORITES, null);
+                long[] loaded = new long[cursor.getCount()];
+                int count = 0;
+                while (cursor.moveToNext()) {
+                    loaded[count++] = cursor.getLong(0);
+                }
+                cursor.close();
+                return loaded;
+            });
+            favoritesIndex = new FavoritesIndex(ids);
+        }
+        return favoritesIndex;
+    }
+
+    // Every file counted against a quota, least recently played first
+    public List<StorageUsage> getStorageUsage() {
+        return stats.time("getStorageUsage", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_STORAGE_USAGE,
+                    new String[]{COLUMN_PATH, "category", "bytes", "song_id", "last_played"},
+                    null, null, null, null, "last_played ASC");
+            List<StorageUsage> usage = new ArrayList<>(cursor.getCount());
+            try {
+                while (cursor.moveToNext()) {
+                    usage.add(new StorageUsage(cursor.getString(0), cursor.getInt(1),
+                            cursor.getLong(2), cursor.getLong(3), cursor.getLong(4)));
+                }
+            } finally {
+                cursor.close();
+            }
+            return usage;
+        });
+    }
+
+    // Track files, replacing whatever was tracked for the same paths
+    public CompletableFuture<Integer> saveStorageUsage(Collection<StorageUsage> usage) {
+        if (usage.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return write("saveStorageUsage", db -> {
+            SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " +
+                    TABLE_STORAGE_USAGE + " (" + COLUMN_PATH + ", category, bytes, song_id, last_played)" +
+                    " VALUES (?, ?, ?, ?, ?)");
+            try {
+                for (StorageUsage file : usage) {
+                    statement.bindString(1, file.getPath());
+                    statement.bindLong(2, file.getCategory());
+                    statement.bindLong(3, file.getBytes());
+                    statement.bindLong(4, file.getSongId());
+                    statement.bindLong(5, file.getLastPlayed());
+                    statement.executeInsert();
+                }
+            } finally {
+                statement.close();
+            }
+            return usage.size();
+        });
+    }
+
+    // Record a play of a tracked file
+    public CompletableFuture<Integer> touchStorageUsage(String path, long playedAt) {
+        ContentValues values = new ContentValues();
+        values.put("last_played", playedAt);
+        return write("touchStorageUsage", db -> db.update(TABLE_STORAGE_USAGE, values,
+                COLUMN_PATH + " = ?", new String[]{path}));
+    }
+
+    // Stop tracking files, e.g. once they have been evicted
+    public CompletableFuture<Integer> deleteStorageUsage(Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return write("deleteStorageUsage", db -> {
+            SQLiteStatement statement = db.compileStatement("DELETE FROM " + TABLE_STORAGE_USAGE +
+                    " WHERE " + COLUMN_PATH + " = ?");
+            int deleted = 0;
+            try {
+                for (String path : paths) {
+                    statement.bindString(1, path);
+                    deleted += statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+            return deleted;
+        });
     }
 
     // Get favorite songs
     public List<Song> getFavoriteSongs() {
-        List<Song> songs = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
+        return stats.time("getFavoriteSongs", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
         
-        String query = "SELECT s.* FROM " + TABLE_SONGS + " s " +
-                "INNER JOIN " + TABLE_FAVORITES + " f ON s." + COLUMN_ID + " = f.song_id " +
-                "ORDER BY f.added_at DESC";
+            String query = "SELECT " + columns("s.", PROJECTION_SONG_FULL) + " FROM " + TABLE_SONGS + " s " +
+                    "INNER JOIN " + TABLE_FAVORITES + " f ON s." + COLUMN_ID + " = f.song_id " +
+                    "ORDER BY f.added_at DESC";
         
-        Cursor cursor = db.rawQuery(query, null);
+            Cursor cursor = db.rawQuery(query, null);
         
-        if (cursor.moveToFirst()) {
-            do {
-                Song song = cursorToSong(cursor);
-                songs.add(song);
-            } while (cursor.moveToNext());
+            return SongRowMapper.readAll(cursor);
+        });
+    }
+
+    /**
+     * Append buffered plays to the history log in one batch. Remote (Deezer)
+     * tracks get a song row first so the history can join against it.
+     */
+    public CompletableFuture<Integer> insertPlayEvents(List<PlayEvent> events) {
+        if (events.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
         }
-        cursor.close();
+        return write("insertPlayEvents", db -> {
+            SQLiteStatement remoteSong = db.compileStatement(INSERT_REMOTE_SONG_OR_IGNORE);
+            SQLiteStatement event = db.compileStatement("INSERT INTO " + TABLE_PLAY_EVENTS +
+                    " (song_id, played_at) VALUES (?, ?)");
+            try {
+                for (PlayEvent playEvent : events) {
+                    Song song = playEvent.getSong();
+                    if (song.getPath() != null && song.getPath().startsWith("http")) {
+                        remoteSong.bindLong(1, song.getId());
+                        bindText(remoteSong, 2, song.getTitle());
+                        bindText(remoteSong, 3, song.getArtist());
+                        bindText(remoteSong, 4, song.getAlbum());
+                        bindText(remoteSong, 5, song.getPath());
+                        remoteSong.bindLong(6, song.getDuration());
+                        remoteSong.bindLong(7, PathHashIndex.hash(song.getPath()));
+                        remoteSong.executeInsert();
+                    }
+                    event.bindLong(1, song.getId());
+                    event.bindLong(2, playEvent.getPlayedAt());
+                    event.executeInsert();
+                }
+            } finally {
+                remoteSong.close();
+                event.close();
+            }
+            return events.size();
+        });
+    }
+
+    /**
+     * Fold raw events older than the raw retention window into per-day counts
+     * and drop daily counts past their own window, keeping history bounded.
+     * The cutoff is day-aligned so a day is always compacted in one go.
+     */
+    public CompletableFuture<Integer> compactPlayHistory(long now) {
+        long rawCutoff = (now / DAY_MS - RAW_HISTORY_DAYS) * DAY_MS;
+        long dailyCutoff = now / DAY_MS - DAILY_HISTORY_DAYS;
+        return write("compactPlayHistory", db -> {
+            String cutoff = String.valueOf(rawCutoff);
+            // Adds to any count already stored for the same day and song
+            db.execSQL("INSERT OR REPLACE INTO " + TABLE_PLAY_DAILY + " (day, song_id, play_count)" +
+                    " SELECT e.played_at / " + DAY_MS + " AS d, e.song_id, COUNT(*) +" +
+                    " IFNULL((SELECT p.play_count FROM " + TABLE_PLAY_DAILY + " p" +
+                    " WHERE p.day = e.played_at / " + DAY_MS + " AND p.song_id = e.song_id), 0)" +
+                    " FROM " + TABLE_PLAY_EVENTS + " e WHERE e.played_at < ?" +
+                    " GROUP BY d, e.song_id", new Object[]{cutoff});
+            int compacted = db.delete(TABLE_PLAY_EVENTS, "played_at < ?", new String[]{cutoff});
+            db.delete(TABLE_PLAY_DAILY, "day < ?", new String[]{String.valueOf(dailyCutoff)});
+            return compacted;
+        });
+    }
+
+    /**
+     * Most recent plays first. Walks the played_at index backwards and stops
+     * after limit rows, so the cost does not depend on how much history is kept.
+     */
+    public List<Song> getRecentlyPlayed(int limit) {
+        return stats.time("getRecentlyPlayed", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            // CROSS JOIN keeps play_events as the outer loop so the index drives the scan
+            Cursor cursor = db.rawQuery("SELECT " + columns("s.", PROJECTION_SONG_LIST) +
+                    " FROM " + TABLE_PLAY_EVENTS + " e CROSS JOIN " + TABLE_SONGS + " s" +
+                    " ON s." + COLUMN_ID + " = e.song_id" +
+                    " ORDER BY e.played_at DESC LIMIT " + limit, null);
+        
+            return SongRowMapper.readAll(cursor);
+        });
+    }
+
+    /**
+     * One page of artists ordered by name, starting after the given artist
+     * (null for the first page). Names are unique, so the name alone is the
+     * keyset and every page is a seek on the name index.
+     */
+    public List<Artist> getArtists(Artist after, int limit) {
+        return stats.time("getArtists", () -> {
+            String selection = null;
+            String[] selectionArgs = null;
+            if (after != null) {
+                selection = COLUMN_NAME + " > ?";
+                selectionArgs = new String[]{after.getName()};
+            }
+        
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_ARTISTS,
+                    new String[]{COLUMN_ID, COLUMN_NAME, COLUMN_TRACK_COUNT, COLUMN_TOTAL_DURATION},
+                    selection, selectionArgs, null, null, COLUMN_NAME + " ASC", String.valueOf(limit));
+        
+            List<Artist> artists = new ArrayList<>(cursor.getCount());
+            try {
+                int idColumn = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                int nameColumn = cursor.getColumnIndexOrThrow(COLUMN_NAME);
+                int trackCountColumn = cursor.getColumnIndexOrThrow(COLUMN_TRACK_COUNT);
+                int durationColumn = cursor.getColumnIndexOrThrow(COLUMN_TOTAL_DURATION);
+                while (cursor.moveToNext()) {
+                    artists.add(new Artist(cursor.getLong(idColumn), cursor.getString(nameColumn),
+                            cursor.getInt(trackCountColumn), cursor.getLong(durationColumn)));
+                }
+            } finally {
+                cursor.close();
+            }
+            return artists;
+        });
+    }
+
+    // Albums of one artist ordered by title, read straight off the (artist_id, title) index
+    public List<Album> getAlbumsForArtist(long artistId) {
+        return stats.time("getAlbumsForArtist", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_ALBUMS,
+                    new String[]{COLUMN_ID, COLUMN_TITLE, COLUMN_TRACK_COUNT, COLUMN_TOTAL_DURATION},
+                    COLUMN_ARTIST_ID + " = ?", new String[]{String.valueOf(artistId)},
+                    null, null, COLUMN_TITLE + " ASC");
         
-        return songs;
+            List<Album> albums = new ArrayList<>(cursor.getCount());
+            try {
+                int idColumn = cursor.getColumnIndexOrThrow(COLUMN_ID);
+                int titleColumn = cursor.getColumnIndexOrThrow(COLUMN_TITLE);
+                int trackCountColumn = cursor.getColumnIndexOrThrow(COLUMN_TRACK_COUNT);
+                int durationColumn = cursor.getColumnIndexOrThrow(COLUMN_TOTAL_DURATION);
+                while (cursor.moveToNext()) {
+                    albums.add(new Album(cursor.getLong(idColumn), artistId, cursor.getString(titleColumn),
+                            cursor.getInt(trackCountColumn), cursor.getLong(durationColumn)));
+                }
+            } finally {
+                cursor.close();
+            }
+            return albums;
+        });
+    }
+
+    // Delete all songs, resolves to the number of rows removed
+    public CompletableFuture<Integer> deleteAllSongs() {
+        return write("deleteAllSongs", db -> db.delete(TABLE_SONGS, null, null));
+    }
+
+    /**
+     * Refresh planner statistics where SQLite thinks they are stale. On
+     * SQLite builds that know analysis_limit, ANALYZE only samples each
+     * index, which keeps the write lock short on large tables. Older builds
+     * would scan every row under the write lock, so there the refresh is
+     * skipped once the library outgrows UNBOUNDED_ANALYZE_MAX_ROWS.
+     * Resolves to 1 if statistics were refreshed, 0 if skipped.
+     */
+    public CompletableFuture<Integer> optimize() {
+        return write("optimize", db -> {
+            if (sqliteVersion(db) >= ANALYSIS_LIMIT_MIN_VERSION) {
+                drain(db, "PRAGMA analysis_limit = 400");
+            } else if (DatabaseUtils.queryNumEntries(db, TABLE_SONGS) > UNBOUNDED_ANALYZE_MAX_ROWS) {
+                Log.d(TAG, "Skipping optimize: no analysis_limit on SQLite " +
+                        DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null));
+                return 0;
+            }
+            drain(db, "PRAGMA optimize");
+            return 1;
+        });
+    }
+
+    // 3.22.0 as 3022000, the same encoding as SQLITE_VERSION_NUMBER
+    static int sqliteVersion(SQLiteDatabase db) {
+        return parseSqliteVersion(DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null));
+    }
+
+    static int parseSqliteVersion(String version) {
+        String[] parts = version.split("\\.");
+        int number = 0;
+        for (int i = 0; i < 3; i++) {
+            int part = 0;
+            if (i < parts.length) {
+                try {
+                    part = Integer.parseInt(parts[i]);
+                } catch (NumberFormatException e) {
+                    part = 0;
+                }
+            }
+            number = number * 1000 + part;
+        }
+        return number;
+    }
+
+    private static boolean isIncrementalVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == 2;
+    }
+
+    private static void switchToIncrementalVacuum(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+    }
+
+    /**
+     * Release up to maxPages free pages to the file system in one short
+     * write. Resolves to the number of free pages left; it is 0 right away
+     * on databases not yet switched to incremental auto-vacuum.
+     */
+    public CompletableFuture<Integer> incrementalVacuum(int maxPages) {
+        return write("incrementalVacuum", db -> {
+            if (!isIncrementalVacuum(db)) {
+                return 0;
+            }
+            drain(db, "PRAGMA incremental_vacuum(" + maxPages + ")");
+            return (int) DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        });
+    }
+
+    // Names of the indexes the app created (automatic ones are left to SQLite)
+    public List<String> getIndexNames() {
+        return stats.time("getIndexNames", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'" +
+                    " AND sql IS NOT NULL ORDER BY name", null);
+            List<String> names = new ArrayList<>(cursor.getCount());
+            try {
+                while (cursor.moveToNext()) {
+                    names.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            return names;
+        });
+    }
+
+    /**
+     * Run SQLite's quick consistency check of tables and indexes. Reads only,
+     * so under WAL it never blocks the writer. Returns null when the check
+     * passes, otherwise the first problem reported.
+     */
+    public String quickCheck() {
+        return stats.time("quickCheck", () -> {
+            String result = DatabaseUtils.stringForQuery(getReadableDatabase(),
+                    "PRAGMA quick_check(1)", null);
+            return "ok".equals(result) ? null : result;
+        });
+    }
+
+    // Rebuild one index, used when quickCheck reports a problem
+    public CompletableFuture<Integer> reindex(String index) {
+        return write("reindex", db -> {
+            db.execSQL("REINDEX \"" + index.replace("\"", "\"\"") + "\"");
+            return 0;
+        });
     }
 
-    // Delete all songs
-    public void deleteAllSongs() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_SONGS, null, null);
+    // Step a statement that may return rows until it is done
+    private static void drain(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
     }
 
     // Get song count
     public int getSongCount() {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_SONGS, null);
-        cursor.moveToFirst();
-        int count = cursor.getInt(0);
-        cursor.close();
-        return count;
-    }
-
-    private Song cursorToSong(Cursor cursor) {
-        long id = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID));
-        String title = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TITLE));
-        String artist = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ARTIST));
-        String album = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ALBUM));
-        String path = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PATH));
-        long duration = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_DURATION));
-        
-        return new Song(id, title, artist, album, path, duration, 0);
+        return stats.time("getSongCount", () -> {
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_SONGS, null);
+            cursor.moveToFirst();
+            int count = cursor.getInt(0);
+            cursor.close();
+            return count;
+        });
+    }
+
+    private static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Queue a write and time it on the writer thread. The time covers running
+     * the write inside its batch, not the wait in the queue. Integer results
+     * are affected-row counts; anything else counts as one row.
+     */
+    private <T> CompletableFuture<T> write(String method, DatabaseWriter.Write<T> write) {
+        return writer.submit(db -> {
+            long start = System.nanoTime();
+            T result = write.apply(db);
+            stats.record(method, System.nanoTime() - start,
+                    result instanceof Integer ? (Integer) result : 1);
+            return result;
+        });
+    }
+
+    // Comma-separated, alias-qualified column list for raw queries
+    private static String columns(String alias, String[] projection) {
+        StringBuilder columns = new StringBuilder();
+        for (String column : projection) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(alias).append(column);
+        }
+        return columns.toString();
     }
 }
@@ -0,0 +1,460 @@
+package com.example.carmusicplayer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies picked audio files into app storage and registers them, off the
+ * main thread. Files are stored by content hash in a {@link ContentStore},
+ * so a file imported twice is stored and registered once. A file whose size
+ * matches no stored file is hashed while it is copied, from memory-mapped
+ * chunks; one that does is hashed first and only copied, by the kernel
+ * with FileChannel.transferTo, if the hash is new. Pipes and other streams
+ * go through one reusable direct buffer. Progress is reported per file and
+ * for the whole import on the main thread, and an import can be cancelled
+ * between chunks. Stored files are registered in the library in batches,
+ * one insert per batch, and only count as stored once registered; files an
+ * interrupted import left without a row are deleted when the next import
+ * opens the store.
+ * <p>
+ * One import runs at a time. The importer outlives the screen that started
+ * it; a recreated screen picks the progress up again with setListener().
+ */
+public class MusicImporter {
+
+    private static final String TAG = "MusicImporter";
+    public static final String IMPORT_DIR = "imported_music";
+    // Copy granularity: how often progress is reported and cancellation checked
+    private static final int CHUNK_BYTES = 1024 * 1024;
+    // Stored files registered in the library per insert
+    private static final int REGISTER_BATCH = 50;
+
+    /**
+     * Receives import progress on the main thread
+     */
+    public interface ImportListener {
+        void onImportProgress(Progress progress);
+
+        void onImportFinished(Result result);
+    }
+
+    /**
+     * Where an import stands. Sizes the provider did not report are -1.
+     */
+    public static final class Progress {
+        public final int fileIndex;
+        public final int fileCount;
+        public final String fileName;
+        public final long fileBytes;
+        public final long fileSize;
+
+        Progress(int fileIndex, int fileCount, String fileName, long fileBytes, long fileSize) {
+            this.fileIndex = fileIndex;
+            this.fileCount = fileCount;
+            this.fileName = fileName;
+            this.fileBytes = fileBytes;
+            this.fileSize = fileSize;
+        }
+
+        // Share of the current file copied, 0..1, or -1 if its size is unknown
+        public float getFileFraction() {
+            return fileSize > 0 ? Math.min(1f, (float) fileBytes / fileSize) : -1;
+        }
+
+        // Share of the whole import done, 0..1; files of unknown size count once finished
+        public float getTotalFraction() {
+            float file = Math.max(0, getFileFraction());
+            return fileCount == 0 ? 1 : (fileIndex + file) / fileCount;
+        }
+    }
+
+    /**
+     * Outcome of an import. Files copied before a cancellation are kept and
+     * registered; files whose content was already stored are skipped.
+     */
+    public static final class Result {
+        public final List<Song> imported;
+        public final int failed;
+        public final int duplicates;
+        public final boolean cancelled;
+
+        Result(List<Song> imported, int failed, int duplicates, boolean cancelled) {
+            this.imported = imported;
+            this.failed = failed;
+            this.duplicates = duplicates;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private static MusicImporter instance;
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Main thread only
+    private ImportListener listener;
+    private Progress lastProgress;
+    private boolean running = false;
+    private volatile boolean cancelled = false;
+
+    public static synchronized MusicImporter getInstance(Context context) {
+        if (instance == null) {
+            instance = new MusicImporter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MusicImporter(Context context) {
+        this.context = context;
+    }
+
+    public static File getImportDir(Context context) {
+        return new File(context.getFilesDir(), IMPORT_DIR);
+    }
+
+    // Attach the screen showing progress; a running import reports where it is right away
+    public void setListener(ImportListener listener) {
+        this.listener = listener;
+        if (listener != null && running && lastProgress != null) {
+            listener.onImportProgress(lastProgress);
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Start importing the given documents. Returns false, and does nothing,
+     * while another import is still running.
+     */
+    public boolean start(List<Uri> uris) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        cancelled = false;
+        lastProgress = null;
+        List<Uri> batch = new ArrayList<>(uris);
+        executor.execute(() -> {
+            Result result = importFiles(batch);
+            handler.post(() -> {
+                running = false;
+                lastProgress = null;
+                if (listener != null) {
+                    listener.onImportFinished(result);
+                }
+            });
+        });
+        return true;
+    }
+
+    // Stop after the current chunk; the partial file is deleted
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Runs on the executor
+    private Result importFiles(List<Uri> uris) {
+        File dir = getImportDir(context);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + dir);
+            return new Result(new ArrayList<>(), uris.size(), 0, false);
+        }
+
+        ContentResolver resolver = context.getContentResolver();
+        MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(context);
+        ContentStore store = ContentStore.open(dir, dbHelper.getImportedSongIds().keySet());
+        for (File orphan : store.getOrphans()) {
+            // Never reported as imported; importing the file again stores it anew
+            Log.w(TAG, "Deleting unregistered " + orphan.getName());
+            if (!orphan.delete()) {
+                Log.w(TAG, "Could not delete " + orphan);
+            }
+        }
+        MessageDigest digest = ContentStore.newDigest();
+        ByteBuffer buffer = null;
+        List<Song> songs = new ArrayList<>();
+        // Stored but not yet registered, by hash
+        Map<String, Song> pending = new LinkedHashMap<>();
+        int failed = 0;
+        int duplicates = 0;
+        boolean stopped = false;
+        int count = uris.size();
+        for (int i = 0; i < count && !stopped; i++) {
+            Uri uri = uris.get(i);
+            String fileName = getFileName(resolver, uri);
+            File part = new File(dir, "import_" + i + ".part");
+            try {
+                ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
+                if (pfd == null) {
+                    throw new IOException("Provider returned no file for " + uri);
+                }
+                long size = pfd.getStatSize();
+                report(new Progress(i, count, fileName, 0, size));
+                digest.reset();
+                String hash;
+                try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+                    FileChannel source = in.getChannel();
+                    if (size >= 0 && store.mayContain(size)) {
+                        // Same size as a stored file: hash first, copy only if it is new
+                        hash = transfer(source, null, size, digest, i, count, fileName);
+                        if (!store.contains(hash)) {
+                            try (FileOutputStream out = new FileOutputStream(part)) {
+                                transfer(source, out.getChannel(), size, null, i, count, fileName);
+                            }
+                        }
+                    } else {
+                        // Cannot be stored yet (or size unknown): copy and hash in one pass
+                        try (FileOutputStream out = new FileOutputStream(part)) {
+                            if (size >= 0) {
+                                hash = transfer(source, out.getChannel(), size, digest, i, count, fileName);
+                            } else {
+                                if (buffer == null) {
+                                    buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+                                }
+                                hash = stream(source, out.getChannel(), buffer, digest, i, count, fileName);
+                            }
+                        }
+                    }
+                }
+
+                if (store.contains(hash) || pending.containsKey(hash)) {
+                    // Stored by an earlier import, or earlier in this one
+                    duplicates++;
+                    continue;
+                }
+                File target = store.fileFor(hash, fileName);
+                if (!part.renameTo(target)) {
+                    throw new IOException("Cannot move " + part + " to " + target);
+                }
+                pending.put(hash, readSong(target, fileName));
+                if (pending.size() >= REGISTER_BATCH) {
+                    failed += register(dbHelper, store, pending, songs);
+                }
+            } catch (CancellationException e) {
+                stopped = true;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error importing " + uri, e);
+                failed++;
+            } finally {
+                if (part.exists() && !part.delete()) {
+                    Log.w(TAG, "Could not delete " + part);
+                }
+            }
+        }
+        failed += register(dbHelper, store, pending, songs);
+
+        List<Song> added = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            if (song.getId() != 0) {
+                added.add(song);
+            }
+        }
+        Log.d(TAG, "Imported " + songs.size() + " files (" + added.size() + " new songs), " +
+                duplicates + " already stored, " + failed + " failed" + (stopped ? ", cancelled" : ""));
+        if (!added.isEmpty()) {
+            MusicScanner.writeSnapshot(context);
+            LibraryWatcher.getInstance(context).publish(new LibraryChange(added, new long[0]));
+            StorageQuotaManager quota = StorageQuotaManager.getInstance(context);
+            for (Song song : added) {
+                quota.onFileAdded(StorageQuotaManager.CATEGORY_IMPORTED, new File(song.getPath()), song.getId());
+            }
+        }
+        return new Result(added, failed, duplicates, stopped);
+    }
+
+    /**
+     * Register stored files in one insert, then count their hashes as
+     * stored. If the insert fails the files are deleted and returned as the
+     * number failed. Empties pending either way.
+     */
+    private static int register(MusicDatabaseHelper dbHelper, ContentStore store,
+                                Map<String, Song> pending, List<Song> registered) {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        int failed = 0;
+        try {
+            dbHelper.insertSongs(pending.values(), false).join();
+            for (Map.Entry<String, Song> entry : pending.entrySet()) {
+                store.add(entry.getKey(), new File(entry.getValue().getPath()).length());
+            }
+            registered.addAll(pending.values());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error registering " + pending.size() + " imported files", e);
+            for (Song song : pending.values()) {
+                File file = new File(song.getPath());
+                if (!file.delete()) {
+                    Log.w(TAG, "Could not delete " + file);
+                }
+            }
+            failed = pending.size();
+        }
+        pending.clear();
+        return failed;
+    }
+
+    /**
+     * Copy and/or hash a regular file. Without a digest the kernel moves the
+     * bytes (transferTo); with one, each chunk is mapped, hashed and written
+     * from the mapping. A null sink only hashes.
+     *
+     * @return the hex digest, or null without a digest
+     */
+    private String transfer(FileChannel source, FileChannel sink, long size, MessageDigest digest,
+                            int index, int count, String fileName) throws IOException {
+        long position = 0;
+        while (position < size) {
+            checkCancelled();
+            long length = Math.min(CHUNK_BYTES, size - position);
+            long done;
+            if (digest == null) {
+                done = source.transferTo(position, length, sink);
+            } else {
+                MappedByteBuffer chunk = source.map(FileChannel.MapMode.READ_ONLY, position, length);
+                digest.update(chunk.duplicate());
+                while (sink != null && chunk.hasRemaining()) {
+                    sink.write(chunk);
+                }
+                done = length;
+            }
+            if (done <= 0) {
+                // The file shrank while being copied
+                break;
+            }
+            position += done;
+            report(new Progress(index, count, fileName, position, size));
+        }
+        return digest != null ? ContentStore.toHex(digest.digest()) : null;
+    }
+
+    // Pipe or socket from a streaming provider: no size, no positional reads
+    private String stream(FileChannel source, FileChannel sink, ByteBuffer buffer, MessageDigest digest,
+                          int index, int count, String fileName) throws IOException {
+        long copied = 0;
+        buffer.clear();
+        while (true) {
+            checkCancelled();
+            int read = source.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                sink.write(buffer);
+            }
+            buffer.clear();
+            copied += read;
+            report(new Progress(index, count, fileName, copied, -1));
+        }
+        return ContentStore.toHex(digest.digest());
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    private void report(Progress progress) {
+        handler.post(() -> {
+            lastProgress = progress;
+            if (listener != null) {
+                listener.onImportProgress(progress);
+            }
+        });
+    }
+
+    /**
+     * Song for an imported file, from its headers or, failing that, the
+     * platform extractor. Untitled songs are named after the original file.
+     */
+    static Song readSong(File file, String originalName) {
+        String title = null;
+        String artist = null;
+        String album = null;
+        long duration = 0;
+        TagReader.Tags tags = TagReader.read(file);
+        if (tags != null && tags.durationMs >= 0) {
+            title = tags.title;
+            artist = tags.artist;
+            album = tags.album;
+            duration = tags.durationMs;
+        } else {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(file.getAbsolutePath());
+                title = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
+                artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
+                album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
+                String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+                if (durationStr != null) {
+                    duration = Long.parseLong(durationStr);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Error reading metadata: " + file, e);
+            } finally {
+                try {
+                    retriever.release();
+                } catch (Exception e) {
+                    Log.w(TAG, "Error releasing retriever", e);
+                }
+            }
+        }
+
+        if (title == null || title.isEmpty()) {
+            title = originalName.replaceFirst("[.][^.]+$", "");
+        }
+        if (artist == null) artist = "Unknown Artist";
+        if (album == null) album = "Imported";
+        return new Song(0, title, artist, album, file.getAbsolutePath(), duration, 0);
+    }
+
+    // Display name of a document, made safe to use as a file name
+    private static String getFileName(ContentResolver resolver, Uri uri) {
+        String result = null;
+        if ("content".equals(uri.getScheme())) {
+            try (Cursor cursor = resolver.query(uri, new String[]{OpenableColumns.DISPLAY_NAME},
+                    null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    result = cursor.getString(0);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Error reading name of " + uri, e);
+            }
+        }
+        if (result == null) {
+            result = uri.getLastPathSegment();
+        }
+        if (result == null || result.isEmpty()) {
+            return "imported_" + System.currentTimeMillis() + ".mp3";
+        }
+        return result.replace('/', '_');
+    }
+}
@@ -1,15 +1,15 @@
 package com.example.carmusicplayer;
 
-import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
-import android.provider.MediaStore;
 import android.util.Log;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Utility class to get songs from database and scan device storage
@@ -23,25 +23,12 @@ public class MusicScanner {
      * This does NOT include Deezer online songs (they have http URLs)
      */
     public static List<Song> getAllSongs(Context context) {
-        // First, scan and register assets
-        AssetMusicScanner.scanAndRegisterAssets(context);
-        
-        // Get database helper
-        MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(context);
+        scanLibrary(context);
         
         // Get only local songs from database (assets + imported, NOT Deezer)
-        List<Song> songs = dbHelper.getLocalSongs();
+        List<Song> songs = MusicDatabaseHelper.getInstance(context).getLocalSongs();
         Log.d(TAG, "Database has " + songs.size() + " local songs");
         
-        // Also try to scan from MediaStore and add to database
-        List<Song> deviceSongs = scanWithMediaStore(context);
-        for (Song song : deviceSongs) {
-            if (!dbHelper.songExists(song.getPath())) {
-                dbHelper.insertSong(song, false);
-                songs.add(song);
-            }
-        }
-        
         // Return songs (even if empty - no demo songs)
         if (songs.isEmpty()) {
             Log.d(TAG, "No songs found");
@@ -51,61 +38,150 @@ public class MusicScanner {
     }
 
     /**
-     * Check if song is from assets folder
+     * Bring the database in line with assets and MediaStore without loading
+     * the library back; callers page through it with the database helper.
+     * Assets are diffed by path hash in memory; device songs are synced
+     * incrementally from the MediaStore watermark of the last scan, so a scan
+     * with nothing new reads almost nothing. Only changed rows are written,
+     * and the startup snapshot is rewritten whenever the library changed.
+     *
+     * @return songs added and removed
      */
-    public static boolean isAssetSong(Song song) {
-        return song.getPath().startsWith("music/");
+    public static LibraryChange scanLibrary(Context context) {
+        return scanLibrary(context, null);
     }
-    
-    private static List<Song> scanWithMediaStore(Context context) {
-        List<Song> songs = new ArrayList<>();
+
+    /**
+     * Scan as above, reporting each batch of new assets to the listener as
+     * soon as it is stored, on the database writer thread. The returned
+     * change then only holds what was not reported yet.
+     */
+    public static LibraryChange scanLibrary(Context context,
+                                            LibraryWatcher.OnLibraryChangedListener progress) {
+        return scanLibrary(context, MusicDatabaseHelper.getInstance(context), progress);
+    }
+
+    // Package-private so tests can scan into an isolated database
+    static LibraryChange scanLibrary(Context context, MusicDatabaseHelper dbHelper,
+                                     LibraryWatcher.OnLibraryChangedListener progress) {
+        // New assets are inserted batch by batch while the rest are still being read
+        PathHashIndex knownAssets = dbHelper.loadPathHashes(true);
+        List<CompletableFuture<Integer>> assetWrites = new ArrayList<>();
+        List<Song> newAssets = AssetMusicScanner.scanNewAssets(context, knownAssets, batch -> {
+            CompletableFuture<Integer> write = dbHelper.insertSongs(batch, true);
+            if (progress != null) {
+                write = write.thenApply(inserted -> {
+                    if (inserted > 0) {
+                        progress.onLibraryChanged(new LibraryChange(insertedOnly(batch), new long[0]));
+                    }
+                    return inserted;
+                });
+            }
+            assetWrites.add(write);
+        });
+        MediaStoreSync.Delta device = MediaStoreSync.sync(context, dbHelper);
         
-        ContentResolver contentResolver = context.getContentResolver();
-        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        int assetsInserted = 0;
+        for (CompletableFuture<Integer> write : assetWrites) {
+            assetsInserted += write.join();
+        }
+        // A listing that failed says nothing about which files are gone
+        return applyScan(context, dbHelper, progress == null ? newAssets : null, assetsInserted,
+                newAssets != null ? knownAssets.unseenIds() : new long[0], device);
+    }
+
+    /**
+     * Apply only what changed in MediaStore since the last sync; assets are
+     * part of the APK and cannot change while the app runs
+     *
+     * @return songs added and removed
+     */
+    public static LibraryChange syncDevice(Context context) {
+        return syncDevice(context, MusicDatabaseHelper.getInstance(context));
+    }
+
+    static LibraryChange syncDevice(Context context, MusicDatabaseHelper dbHelper) {
+        return applyScan(context, dbHelper, null, 0, new long[0],
+                MediaStoreSync.sync(context, dbHelper));
+    }
+
+    /**
+     * Store the device delta and the deletions in one write. New assets
+     * arrive already inserted, with their row ids set, or null once they
+     * have been reported.
+     */
+    private static LibraryChange applyScan(Context context, MusicDatabaseHelper dbHelper,
+                                           List<Song> insertedAssets, int assetsInserted,
+                                           long[] vanishedAssets, MediaStoreSync.Delta device) {
+        List<Song> added = new ArrayList<>();
+        if (insertedAssets != null) {
+            added.addAll(insertedAssets);
+        }
+        if (device != null) {
+            // Inserts assign row ids; songs the insert skipped keep 0 and are left out below
+            for (Song song : device.added) {
+                song.setId(0);
+            }
+            added.addAll(device.added);
+        }
+        long[] vanishedDevice = device != null ? device.vanished : new long[0];
+        long[] vanished = Arrays.copyOf(vanishedAssets, vanishedAssets.length + vanishedDevice.length);
+        System.arraycopy(vanishedDevice, 0, vanished, vanishedAssets.length, vanishedDevice.length);
         
-        String[] projection = {
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.TITLE,
-                MediaStore.Audio.Media.ARTIST,
-                MediaStore.Audio.Media.ALBUM,
-                MediaStore.Audio.Media.DATA,
-                MediaStore.Audio.Media.DURATION,
-                MediaStore.Audio.Media.ALBUM_ID
-        };
+        List<Song> noSongs = new ArrayList<>();
+        int changed = assetsInserted + dbHelper.reconcileLibrary(noSongs,
+                device != null ? device.added : noSongs,
+                device != null ? device.changed : noSongs,
+                vanished).join();
+        // Only move the watermark once the changes it covers are stored
+        if (device != null) {
+            MediaStoreSync.commit(context, device);
+        }
+        Log.d(TAG, "Scan changed " + changed + " rows, removed " + vanished.length + " missing songs" +
+                (device != null && device.fullScan ? " (full MediaStore scan)" : ""));
         
-        try {
-            Cursor cursor = contentResolver.query(uri, projection, null, null, null);
-            
-            if (cursor != null && cursor.moveToFirst()) {
-                int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-                int titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
-                int artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
-                int albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
-                int pathColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA);
-                int durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
-                int albumIdColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID);
-                
-                do {
-                    long id = cursor.getLong(idColumn);
-                    String title = cursor.getString(titleColumn);
-                    String artist = cursor.getString(artistColumn);
-                    String album = cursor.getString(albumColumn);
-                    String path = cursor.getString(pathColumn);
-                    long duration = cursor.getLong(durationColumn);
-                    long albumId = cursor.getLong(albumIdColumn);
-                    
-                    if (duration > 5000) {
-                        songs.add(new Song(id, title, artist, album, path, duration, albumId));
-                    }
-                } while (cursor.moveToNext());
-                
-                cursor.close();
+        if (changed > 0 || !LibrarySnapshot.getFile(context).isFile()) {
+            writeSnapshot(context, dbHelper);
+        }
+        if (changed == 0) {
+            return LibraryChange.NONE;
+        }
+        return new LibraryChange(insertedOnly(added), vanished);
+    }
+
+    // Songs the insert gave a row id; skipped ones still have 0
+    private static List<Song> insertedOnly(List<Song> songs) {
+        List<Song> inserted = new ArrayList<>(songs.size());
+        for (Song song : songs) {
+            if (song.getId() != 0) {
+                inserted.add(song);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error scanning with MediaStore", e);
         }
-        
-        return songs;
+        return inserted;
+    }
+
+    /**
+     * Rewrite the memory-mapped snapshot HomeFragment renders from at startup
+     */
+    public static void writeSnapshot(Context context) {
+        writeSnapshot(context, MusicDatabaseHelper.getInstance(context));
+    }
+
+    private static void writeSnapshot(Context context, MusicDatabaseHelper dbHelper) {
+        List<Song> songs = dbHelper.getLocalSongs();
+        try {
+            LibrarySnapshot.write(LibrarySnapshot.getFile(context), songs);
+            Log.d(TAG, "Wrote library snapshot of " + songs.size() + " songs");
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing library snapshot", e);
+        }
+    }
+
+    /**
+     * Check if song is from assets folder
+     */
+    public static boolean isAssetSong(Song song) {
+        return song.getPath().startsWith("music/");
     }
     
     public static Uri getAlbumArtUri(long albumId) {
@@ -0,0 +1,173 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SongAdapter that fills itself from a keyset-paged query one fixed-size
+ * window at a time. The next window is fetched on a background thread when
+ * a row near the end of the loaded range gets bound.
+ */
+public class PagedSongAdapter extends SongAdapter {
+
+    public static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Loads the page that follows the given song (null for the first page)
+     */
+    public interface PageSource {
+        List<Song> loadPage(Song after, int limit);
+    }
+
+    public interface OnPageLoadedListener {
+        void onPageLoaded(int loadedCount, boolean endReached);
+    }
+
+    private PageSource source;
+    private OnPageLoadedListener pageLoadedListener;
+    private boolean loading = false;
+    private boolean endReached = true;
+    // Whether the rows come from the page source rather than a caller-supplied list
+    private boolean paging = false;
+    // Bumped whenever the contents are replaced so stale pages are dropped
+    private int generation = 0;
+
+    public PagedSongAdapter(Context context, OnSongClickListener listener) {
+        super(context, new ArrayList<>(), listener);
+    }
+
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        this.pageLoadedListener = listener;
+    }
+
+    // Start paging from the first window of the given source
+    public void setSource(PageSource source) {
+        this.source = source;
+        paging = true;
+        generation++;
+        loading = false;
+        endReached = false;
+        super.updateSongs(new ArrayList<>());
+        loadNextPage();
+    }
+
+    /**
+     * Start paging from a first window that was already loaded in the
+     * background; further windows are fetched from the source as usual
+     */
+    public void setSource(PageSource source, List<Song> firstPage) {
+        this.source = source;
+        paging = true;
+        generation++;
+        loading = false;
+        endReached = firstPage.size() < PAGE_SIZE;
+        super.updateSongs(new ArrayList<>(firstPage));
+        if (pageLoadedListener != null) {
+            pageLoadedListener.onPageLoaded(getItemCount(), endReached);
+        }
+    }
+
+    // Drop everything loaded so far and start again from the first window
+    public void reload() {
+        if (source != null) {
+            setSource(source);
+        }
+    }
+
+    @Override
+    public void updateSongs(List<Song> newSongs) {
+        // A caller-supplied list (search results, shuffled queue) stops paging
+        paging = false;
+        generation++;
+        loading = false;
+        endReached = true;
+        super.updateSongs(newSongs);
+    }
+
+    // True while the rows come from the page source, i.e. only some of them are loaded
+    public boolean isPaging() {
+        return paging;
+    }
+
+    /**
+     * While paging, new songs are also inserted at their place in title
+     * order if it lies inside the loaded range; songs sorting after the last
+     * loaded row arrive with a later page instead.
+     */
+    @Override
+    public void applyLibraryChange(LibraryChange change) {
+        removeSongs(change.getRemovedIds());
+        if (!paging) {
+            return;
+        }
+        List<Song> loaded = getSongs();
+        for (Song song : change.getAdded()) {
+            int position = insertionPoint(loaded, song);
+            if (position < loaded.size() || endReached) {
+                insertSong(position, song);
+            }
+        }
+    }
+
+    // First loaded row that sorts after the song, binary search over the title order
+    private static int insertionPoint(List<Song> loaded, Song song) {
+        int low = 0;
+        int high = loaded.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Song.LIBRARY_ORDER.compare(loaded.get(mid), song) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SongViewHolder holder, int position) {
+        super.onBindViewHolder(holder, position);
+        if (position >= getItemCount() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    private void loadNextPage() {
+        if (loading || endReached || source == null) {
+            return;
+        }
+        loading = true;
+        
+        final PageSource pageSource = source;
+        final int requestGeneration = generation;
+        List<Song> loaded = getSongs();
+        final Song after = loaded.isEmpty() ? null : loaded.get(loaded.size() - 1);
+        
+        executor.execute(() -> {
+            List<Song> page = pageSource.loadPage(after, PAGE_SIZE);
+            mainHandler.post(() -> {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                loading = false;
+                endReached = page.size() < PAGE_SIZE;
+                appendSongs(page);
+                if (pageLoadedListener != null) {
+                    pageLoadedListener.onPageLoaded(getItemCount(), endReached);
+                }
+            });
+        });
+    }
+}
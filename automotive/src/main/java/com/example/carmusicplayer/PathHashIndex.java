@@ -0,0 +1,105 @@
+package com.example.carmusicplayer;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the path hashes already in the songs table, used to diff a
+ * scan against the database in memory. Hashes are kept sorted next to their
+ * row ids; each lookup is a binary search that also marks the entry as seen,
+ * so once a listing has been walked the unseen entries are exactly the rows
+ * whose files are gone. Not thread-safe.
+ */
+public class PathHashIndex {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] hashes;
+    private long[] ids;
+    private boolean[] seen;
+    private int size;
+
+    public PathHashIndex() {
+        this(16);
+    }
+
+    public PathHashIndex(int expectedSize) {
+        int capacity = Math.max(expectedSize, 4);
+        hashes = new long[capacity];
+        ids = new long[capacity];
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units of a path. Stored in the
+     * path_hash column so scans can compare integers instead of long strings.
+     */
+    public static long hash(String path) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Append an entry. Entries must arrive in ascending hash order, as they
+     * do when read through the path_hash index.
+     */
+    public void add(long hash, long id) {
+        if (seen != null) {
+            throw new IllegalStateException("Index is already in use");
+        }
+        if (size > 0 && hash < hashes[size - 1]) {
+            throw new IllegalArgumentException("Hashes must be added in ascending order");
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        hashes[size] = hash;
+        ids[size] = id;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Whether the path is already known; marks every row stored under its hash as seen
+    public boolean markSeen(String path) {
+        return markSeen(hash(path));
+    }
+
+    public boolean markSeen(long hash) {
+        if (seen == null) {
+            seen = new boolean[size];
+        }
+        int index = Arrays.binarySearch(hashes, 0, size, hash);
+        if (index < 0) {
+            return false;
+        }
+        // Duplicate hashes sit next to each other; mark the whole run
+        int first = index;
+        while (first > 0 && hashes[first - 1] == hash) {
+            first--;
+        }
+        for (int i = first; i < size && hashes[i] == hash; i++) {
+            seen[i] = true;
+        }
+        return true;
+    }
+
+    // Row ids of every entry no markSeen call has matched
+    public long[] unseenIds() {
+        long[] unseen = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (seen == null || !seen[i]) {
+                unseen[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(unseen, count);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.carmusicplayer;
+
+/**
+ * One completed play of a song, waiting to be written to the history log
+ */
+public class PlayEvent {
+
+    private final Song song;
+    private final long playedAt;
+
+    public PlayEvent(Song song, long playedAt) {
+        this.song = song;
+        this.playedAt = playedAt;
+    }
+
+    public Song getSong() { return song; }
+    public long getPlayedAt() { return playedAt; }
+}
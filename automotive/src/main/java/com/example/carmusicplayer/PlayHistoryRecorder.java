@@ -0,0 +1,80 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Write-behind buffer for the listening history. Completed plays are kept
+ * in memory and written as one batch once enough have piled up or a short
+ * delay has passed, so a single play never costs its own database write.
+ * Old events are compacted into daily aggregates at most once a day.
+ */
+public class PlayHistoryRecorder {
+
+    private static final int FLUSH_THRESHOLD = 20;
+    private static final long FLUSH_DELAY_MS = 30_000;
+    private static final long COMPACT_INTERVAL_MS = 24L * 60 * 60 * 1000;
+
+    private static PlayHistoryRecorder instance;
+
+    private final MusicDatabaseHelper dbHelper;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable delayedFlush = this::flush;
+    private final List<PlayEvent> buffer = new ArrayList<>();
+    private long lastCompactionAt = 0;
+
+    public static synchronized PlayHistoryRecorder getInstance(Context context) {
+        if (instance == null) {
+            instance = new PlayHistoryRecorder(MusicDatabaseHelper.getInstance(context));
+        }
+        return instance;
+    }
+
+    private PlayHistoryRecorder(MusicDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    // Record a play that ran to completion
+    public void recordPlay(Song song) {
+        if (song == null || song.getId() == 0) {
+            return;
+        }
+        int buffered;
+        synchronized (buffer) {
+            buffer.add(new PlayEvent(song, System.currentTimeMillis()));
+            buffered = buffer.size();
+        }
+        if (buffered >= FLUSH_THRESHOLD) {
+            flush();
+        } else {
+            handler.removeCallbacks(delayedFlush);
+            handler.postDelayed(delayedFlush, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Write out everything buffered so far. The returned future completes
+     * once the events are committed, so readers can join it before querying.
+     */
+    public CompletableFuture<Integer> flush() {
+        handler.removeCallbacks(delayedFlush);
+        List<PlayEvent> events;
+        synchronized (buffer) {
+            events = new ArrayList<>(buffer);
+            buffer.clear();
+        }
+        CompletableFuture<Integer> written = dbHelper.insertPlayEvents(events);
+        
+        long now = System.currentTimeMillis();
+        if (now - lastCompactionAt >= COMPACT_INTERVAL_MS) {
+            lastCompactionAt = now;
+            dbHelper.compactPlayHistory(now);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.carmusicplayer;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-method latency histograms for the database layer. Every call records
+ * its duration, the number of rows it returned or touched and the thread it
+ * ran on. Calls made on the main thread are counted (and the first one per
+ * method is logged with a stack trace), calls slower than the configured
+ * threshold are logged. Read the numbers back with snapshot() or dump().
+ */
+public class QueryStats {
+
+    private static final String TAG = "QueryStats";
+    private static final long DEFAULT_SLOW_QUERY_MS = 16;
+    // Distinct thread names kept per method, enough to tell callers apart
+    private static final int MAX_THREAD_NAMES = 8;
+
+    // Upper bounds (exclusive, ms) of the histogram buckets; the last bucket is open-ended
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    /**
+     * Work whose duration is recorded
+     */
+    public interface Query<T> {
+        T run();
+    }
+
+    /**
+     * Point-in-time copy of the numbers recorded for one method
+     */
+    public static final class MethodSnapshot {
+        public final String method;
+        public final long calls;
+        public final long mainThreadCalls;
+        public final long slowCalls;
+        public final long rows;
+        public final long totalNanos;
+        public final long maxNanos;
+        public final long[] histogram;
+        public final List<String> threads;
+
+        MethodSnapshot(String method, long calls, long mainThreadCalls, long slowCalls, long rows,
+                       long totalNanos, long maxNanos, long[] histogram, List<String> threads) {
+            this.method = method;
+            this.calls = calls;
+            this.mainThreadCalls = mainThreadCalls;
+            this.slowCalls = slowCalls;
+            this.rows = rows;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+            this.threads = threads;
+        }
+
+        public double getMeanMs() {
+            return calls == 0 ? 0 : totalNanos / 1e6 / calls;
+        }
+
+        public double getMaxMs() {
+            return maxNanos / 1e6;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile (0..100), in ms.
+         * Returns -1 when the percentile falls into the open-ended last bucket.
+         */
+        public long getPercentileMs(double percentile) {
+            long target = (long) Math.ceil(calls * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= target && seen > 0) {
+                    return i < BUCKET_BOUNDS_MS.length ? BUCKET_BOUNDS_MS[i] : -1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static final class MethodStats {
+        long calls;
+        long mainThreadCalls;
+        long slowCalls;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+        final long[] histogram = new long[BUCKET_BOUNDS_MS.length + 1];
+        final Set<String> threads = new LinkedHashSet<>();
+    }
+
+    private final Map<String, MethodStats> methods = new ConcurrentHashMap<>();
+    private volatile long slowQueryThresholdMs = DEFAULT_SLOW_QUERY_MS;
+
+    public long getSlowQueryThresholdMs() {
+        return slowQueryThresholdMs;
+    }
+
+    // Calls at or above this duration are logged; 0 logs every call
+    public void setSlowQueryThresholdMs(long thresholdMs) {
+        slowQueryThresholdMs = thresholdMs;
+    }
+
+    /**
+     * Run a query on the calling thread and record it. The row count is the
+     * size of a returned collection, 0 for null and 1 for any other result.
+     */
+    public <T> T time(String method, Query<T> query) {
+        long start = System.nanoTime();
+        T result = null;
+        try {
+            result = query.run();
+            return result;
+        } finally {
+            record(method, System.nanoTime() - start, rowsOf(result));
+        }
+    }
+
+    // Record a call that has already been timed, attributed to the calling thread
+    public void record(String method, long elapsedNanos, int rows) {
+        Thread thread = Thread.currentThread();
+        boolean onMainThread = Looper.getMainLooper().isCurrentThread();
+        long elapsedMs = elapsedNanos / 1_000_000;
+        boolean slow = elapsedMs >= slowQueryThresholdMs;
+
+        MethodStats stats = methods.computeIfAbsent(method, name -> new MethodStats());
+        boolean firstOnMainThread;
+        synchronized (stats) {
+            stats.calls++;
+            stats.rows += rows;
+            stats.totalNanos += elapsedNanos;
+            stats.maxNanos = Math.max(stats.maxNanos, elapsedNanos);
+            stats.histogram[bucketOf(elapsedMs)]++;
+            if (slow) {
+                stats.slowCalls++;
+            }
+            firstOnMainThread = onMainThread && stats.mainThreadCalls++ == 0;
+            if (stats.threads.size() < MAX_THREAD_NAMES) {
+                stats.threads.add(thread.getName());
+            }
+        }
+
+        if (firstOnMainThread) {
+            Log.w(TAG, method + " called on the main thread", new Throwable("call site"));
+        }
+        if (slow) {
+            Log.w(TAG, "Slow query: " + method + " took " + elapsedMs + " ms, " + rows +
+                    " rows, thread " + thread.getName() + (onMainThread ? " (main)" : ""));
+        }
+    }
+
+    // Copy of everything recorded so far, sorted by method name
+    public List<MethodSnapshot> snapshot() {
+        List<String> names = new ArrayList<>(methods.keySet());
+        Collections.sort(names);
+        List<MethodSnapshot> snapshots = new ArrayList<>(names.size());
+        for (String name : names) {
+            MethodStats stats = methods.get(name);
+            synchronized (stats) {
+                snapshots.add(new MethodSnapshot(name, stats.calls, stats.mainThreadCalls,
+                        stats.slowCalls, stats.rows, stats.totalNanos, stats.maxNanos,
+                        stats.histogram.clone(), new ArrayList<>(stats.threads)));
+            }
+        }
+        return snapshots;
+    }
+
+    public void reset() {
+        methods.clear();
+    }
+
+    // Human-readable table, one line per method, for dumpsys or a debug screen
+    public void dump(PrintWriter writer) {
+        writer.println("Database query stats (slow threshold " + slowQueryThresholdMs + " ms):");
+        for (MethodSnapshot stats : snapshot()) {
+            writer.println(String.format(Locale.US, "  %-24s calls=%d main=%d slow=%d rows=%d" +
+                            " mean=%.2fms p50<%s p95<%s max=%.2fms threads=%s",
+                    stats.method, stats.calls, stats.mainThreadCalls, stats.slowCalls, stats.rows,
+                    stats.getMeanMs(), formatBound(stats.getPercentileMs(50)),
+                    formatBound(stats.getPercentileMs(95)), stats.getMaxMs(), stats.threads));
+        }
+    }
+
+    private static String formatBound(long boundMs) {
+        return boundMs < 0 ? "inf" : boundMs + "ms";
+    }
+
+    private static int bucketOf(long elapsedMs) {
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            if (elapsedMs < BUCKET_BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MS.length;
+    }
+
+    private static int rowsOf(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return 1;
+    }
+}
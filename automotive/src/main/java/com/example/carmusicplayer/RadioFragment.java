@@ -1,6 +1,8 @@
 package com.example.carmusicplayer;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -19,6 +21,8 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Radio Fragment with Deezer search integration
@@ -26,6 +30,10 @@ import java.util.List;
  */
 public class RadioFragment extends Fragment implements SearchResultAdapter.OnTrackClickListener {
 
+    // Loads the favorites index off the main thread
+    private static final ExecutorService favoritesExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     private EditText etSearchQuery;
     private ImageButton btnSearch;
     private ProgressBar progressBar;
@@ -56,11 +64,31 @@ public class RadioFragment extends Fragment implements SearchResultAdapter.OnTra
         adapter = new SearchResultAdapter(getContext(), searchResults, this);
         rvSearchResults.setLayoutManager(new LinearLayoutManager(getContext()));
         rvSearchResults.setAdapter(adapter);
+        
+        MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(getContext());
+        favoritesExecutor.execute(() -> {
+            FavoritesIndex favorites = dbHelper.getFavoritesIndex();
+            mainHandler.post(() -> {
+                if (isAdded()) {
+                    adapter.setFavorites(favorites);
+                }
+            });
+        });
     }
 
     private void setupListeners() {
         btnSearch.setOnClickListener(v -> performSearch());
         
+        // Long-press the results header to favorite the whole page
+        tvResultsHeader.setOnLongClickListener(v -> {
+            adapter.favoriteAll().thenAccept(favorited -> {
+                if (favorited > 0 && isAdded()) {
+                    Toast.makeText(getContext(), favorited + " tracks in favorites ❤️", Toast.LENGTH_SHORT).show();
+                }
+            });
+            return true;
+        });
+        
         etSearchQuery.setOnEditorActionListener((v, actionId, event) -> {
             if (actionId == EditorInfo.IME_ACTION_SEARCH) {
                 performSearch();
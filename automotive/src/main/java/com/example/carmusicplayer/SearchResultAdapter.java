@@ -1,6 +1,8 @@
 package com.example.carmusicplayer;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,9 +14,8 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Adapter for displaying Deezer search results
@@ -24,7 +25,10 @@ public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapte
     private List<DeezerService.DeezerTrack> tracks;
     private Context context;
     private OnTrackClickListener listener;
-    private Set<Long> favoriteIds = new HashSet<>(); // Track favorite status locally
+    private MusicDatabaseHelper dbHelper;
+    // Null until the owner hands over the index it loaded off the main thread
+    private FavoritesIndex favorites;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     public interface OnTrackClickListener {
         void onTrackClick(DeezerService.DeezerTrack track);
@@ -34,6 +38,13 @@ public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapte
         this.context = context;
         this.tracks = tracks;
         this.listener = listener;
+        this.dbHelper = MusicDatabaseHelper.getInstance(context);
+    }
+
+    // Show favorite state once the index is loaded; the buttons stay disabled until then
+    public void setFavorites(FavoritesIndex favorites) {
+        this.favorites = favorites;
+        notifyDataSetChanged();
     }
 
     @NonNull
@@ -55,41 +66,30 @@ public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapte
         holder.ivAlbumCover.setImageResource(R.drawable.ic_music_note);
         
         // Update favorite state
-        boolean isFavorite = favoriteIds.contains(track.getId());
+        boolean isFavorite = favorites != null && favorites.contains(track.getId());
         updateFavoriteIcon(holder.btnFavorite, isFavorite);
+        holder.btnFavorite.setEnabled(favorites != null);
         
         // Favorite button click - save to database as a new song
         holder.btnFavorite.setOnClickListener(v -> {
-            MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(context);
-            boolean currentFav = favoriteIds.contains(track.getId());
+            boolean currentFav = favorites.contains(track.getId());
             
             if (currentFav) {
-                favoriteIds.remove(track.getId());
                 updateFavoriteIcon(holder.btnFavorite, false);
-                // Also remove from database
                 dbHelper.removeFromFavorites(track.getId());
                 Toast.makeText(context, "Removed from favorites", Toast.LENGTH_SHORT).show();
             } else {
-                favoriteIds.add(track.getId());
+                String previewUrl = track.getPreviewUrl();
+                if (previewUrl == null || previewUrl.isEmpty()) {
+                    Toast.makeText(context, "No preview available", Toast.LENGTH_SHORT).show();
+                    return;
+                }
                 updateFavoriteIcon(holder.btnFavorite, true);
                 
-                // First check if song already exists
-                Song existingSong = dbHelper.getSongById(track.getId());
-                if (existingSong == null) {
-                    // Insert new song with specific ID
-                    Song song = new Song(
-                        track.getId(),
-                        track.getTitle(),
-                        track.getArtist(),
-                        track.getAlbum(),
-                        track.getPreviewUrl(),
-                        track.getDuration() * 1000L,
-                        0
-                    );
-                    dbHelper.insertSongWithId(song);
-                }
-                // Add to favorites
-                dbHelper.addToFavorites(track.getId());
+                // Song row and favorite are written together, off the UI thread;
+                // rebind once committed in case a local song owns the id
+                dbHelper.favoriteRemoteTrack(track).whenComplete((added, error) ->
+                        mainHandler.post(this::notifyDataSetChanged));
                 
                 Toast.makeText(context, "Added to favorites ❤️", Toast.LENGTH_SHORT).show();
             }
@@ -117,9 +117,32 @@ public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapte
         return tracks != null ? tracks.size() : 0;
     }
 
+    /**
+     * Favorite every track on the current page in one write. Resolves on the
+     * main thread, once the write has committed, to how many are now favorites.
+     */
+    public CompletableFuture<Integer> favoriteAll() {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        if (tracks == null || tracks.isEmpty() || favorites == null) {
+            result.complete(0);
+            return result;
+        }
+        List<DeezerService.DeezerTrack> page = tracks;
+        dbHelper.favoriteRemoteTracks(page).whenComplete((added, error) -> mainHandler.post(() -> {
+            notifyDataSetChanged();
+            int count = 0;
+            for (DeezerService.DeezerTrack track : page) {
+                if (favorites.contains(track.getId())) {
+                    count++;
+                }
+            }
+            result.complete(count);
+        }));
+        return result;
+    }
+
     public void updateTracks(List<DeezerService.DeezerTrack> newTracks) {
         this.tracks = newTracks;
-        favoriteIds.clear(); // Reset favorites on new search
         notifyDataSetChanged();
     }
 
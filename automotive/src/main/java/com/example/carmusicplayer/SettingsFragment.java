@@ -1,15 +1,17 @@
 package com.example.carmusicplayer;
 
 import android.app.Activity;
+import android.content.ClipData;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.Switch;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
@@ -18,44 +20,46 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Settings Fragment with Import Music feature
+ * Settings Fragment with Import Music feature. The copy itself runs in
+ * {@link MusicImporter}; this screen only starts it and shows its progress.
  */
-public class SettingsFragment extends Fragment {
+public class SettingsFragment extends Fragment implements MusicImporter.ImportListener {
 
     private ActivityResultLauncher<Intent> filePickerLauncher;
+    private MusicImporter importer;
+    private Button btnImportMusic;
+    private View importProgressPanel;
+    private TextView tvImportStatus;
+    private ProgressBar progressImportFile;
+    private ProgressBar progressImportTotal;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        
+        importer = MusicImporter.getInstance(requireContext());
+
         // Setup file picker
         filePickerLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
                 if (result.getResultCode() == Activity.RESULT_OK && result.getData() != null) {
                     // Handle single or multiple files
-                    if (result.getData().getClipData() != null) {
-                        // Multiple files
-                        int count = result.getData().getClipData().getItemCount();
-                        int imported = 0;
-                        for (int i = 0; i < count; i++) {
-                            Uri uri = result.getData().getClipData().getItemAt(i).getUri();
-                            if (importMusicFile(uri)) {
-                                imported++;
-                            }
+                    List<Uri> uris = new ArrayList<>();
+                    ClipData clipData = result.getData().getClipData();
+                    if (clipData != null) {
+                        for (int i = 0; i < clipData.getItemCount(); i++) {
+                            uris.add(clipData.getItemAt(i).getUri());
                         }
-                        Toast.makeText(getContext(), "Imported " + imported + " songs!", Toast.LENGTH_SHORT).show();
                     } else if (result.getData().getData() != null) {
-                        // Single file
-                        Uri uri = result.getData().getData();
-                        if (importMusicFile(uri)) {
-                            Toast.makeText(getContext(), "Song imported!", Toast.LENGTH_SHORT).show();
-                        }
+                        uris.add(result.getData().getData());
+                    }
+                    if (!uris.isEmpty() && importer.start(uris)) {
+                        showImportRunning(true);
+                        tvImportStatus.setText("Preparing import...");
                     }
                 }
             }
@@ -66,15 +70,42 @@ public class SettingsFragment extends Fragment {
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_settings, container, false);
-        
-        Button btnImportMusic = view.findViewById(R.id.btnImportMusic);
-        if (btnImportMusic != null) {
-            btnImportMusic.setOnClickListener(v -> openFilePicker());
-        }
-        
+
+        btnImportMusic = view.findViewById(R.id.btnImportMusic);
+        importProgressPanel = view.findViewById(R.id.importProgressPanel);
+        tvImportStatus = view.findViewById(R.id.tvImportStatus);
+        progressImportFile = view.findViewById(R.id.progressImportFile);
+        progressImportTotal = view.findViewById(R.id.progressImportTotal);
+        btnImportMusic.setOnClickListener(v -> openFilePicker());
+        view.findViewById(R.id.btnCancelImport).setOnClickListener(v -> {
+            importer.cancel();
+            tvImportStatus.setText("Cancelling...");
+        });
+
+        StorageQuotaManager quota = StorageQuotaManager.getInstance(requireContext());
+        Switch switchEvictImported = view.findViewById(R.id.switchEvictImported);
+        switchEvictImported.setChecked(quota.isImportedEvictionEnabled());
+        switchEvictImported.setOnCheckedChangeListener((button, checked) -> {
+            quota.setImportedEvictionEnabled(checked);
+            if (checked) {
+                Toast.makeText(getContext(), "Least played imported songs will be deleted above 4 GB",
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        // An import started before the screen was recreated is still running
+        showImportRunning(importer.isRunning());
+        importer.setListener(this);
+
         return view;
     }
-    
+
+    @Override
+    public void onDestroyView() {
+        importer.setListener(null);
+        super.onDestroyView();
+    }
+
     private void openFilePicker() {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         intent.setType("audio/*");
@@ -82,102 +113,46 @@ public class SettingsFragment extends Fragment {
         intent.addCategory(Intent.CATEGORY_OPENABLE);
         filePickerLauncher.launch(intent);
     }
-    
-    private boolean importMusicFile(Uri uri) {
-        try {
-            // Get file name
-            String fileName = getFileName(uri);
-            if (fileName == null) {
-                fileName = "imported_" + System.currentTimeMillis() + ".mp3";
-            }
-            
-            // Create music directory in internal storage
-            File musicDir = new File(requireContext().getFilesDir(), "imported_music");
-            if (!musicDir.exists()) {
-                musicDir.mkdirs();
-            }
-            
-            // Copy file
-            File destFile = new File(musicDir, fileName);
-            InputStream inputStream = requireContext().getContentResolver().openInputStream(uri);
-            FileOutputStream outputStream = new FileOutputStream(destFile);
-            
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-            
-            inputStream.close();
-            outputStream.close();
-            
-            // Register in database
-            registerImportedSong(destFile);
-            
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(getContext(), "Error importing: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            return false;
+
+    @Override
+    public void onImportProgress(MusicImporter.Progress progress) {
+        tvImportStatus.setText("Importing " + (progress.fileIndex + 1) + " of " +
+                progress.fileCount + ": " + progress.fileName);
+        float fileFraction = progress.getFileFraction();
+        // Streams of unknown length only show that something is happening
+        progressImportFile.setIndeterminate(fileFraction < 0);
+        if (fileFraction >= 0) {
+            progressImportFile.setProgress((int) (fileFraction * 1000));
         }
+        progressImportTotal.setProgress((int) (progress.getTotalFraction() * 1000));
     }
-    
-    private String getFileName(Uri uri) {
-        String result = null;
-        if (uri.getScheme().equals("content")) {
-            Cursor cursor = requireContext().getContentResolver().query(uri, null, null, null, null);
-            if (cursor != null && cursor.moveToFirst()) {
-                int index = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                if (index >= 0) {
-                    result = cursor.getString(index);
-                }
-                cursor.close();
-            }
+
+    @Override
+    public void onImportFinished(MusicImporter.Result result) {
+        showImportRunning(false);
+        String message;
+        if (result.cancelled) {
+            message = "Import cancelled, " + result.imported.size() + " songs imported";
+        } else if (result.imported.size() == 1 && result.failed == 0) {
+            message = "Song imported!";
+        } else {
+            message = "Imported " + result.imported.size() + " songs!";
+        }
+        if (result.duplicates > 0) {
+            message += " (" + result.duplicates + " already in library)";
         }
-        if (result == null) {
-            result = uri.getLastPathSegment();
+        if (result.failed > 0) {
+            message += " (" + result.failed + " failed)";
         }
-        return result;
+        Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
     }
-    
-    private void registerImportedSong(File file) {
-        try {
-            android.media.MediaMetadataRetriever retriever = new android.media.MediaMetadataRetriever();
-            retriever.setDataSource(file.getAbsolutePath());
-            
-            String title = retriever.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_TITLE);
-            String artist = retriever.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_ARTIST);
-            String album = retriever.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_ALBUM);
-            String durationStr = retriever.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_DURATION);
-            
-            retriever.release();
-            
-            if (title == null || title.isEmpty()) {
-                title = file.getName().replaceFirst("[.][^.]+$", "");
-            }
-            if (artist == null) artist = "Unknown Artist";
-            if (album == null) album = "Imported";
-            
-            long duration = 0;
-            if (durationStr != null) {
-                duration = Long.parseLong(durationStr);
-            }
-            
-            Song song = new Song(
-                System.currentTimeMillis(),
-                title,
-                artist,
-                album,
-                file.getAbsolutePath(),
-                duration,
-                0
-            );
-            
-            MusicDatabaseHelper dbHelper = MusicDatabaseHelper.getInstance(requireContext());
-            dbHelper.insertSong(song, false);
-            
-        } catch (Exception e) {
-            e.printStackTrace();
+
+    private void showImportRunning(boolean running) {
+        importProgressPanel.setVisibility(running ? View.VISIBLE : View.GONE);
+        btnImportMusic.setEnabled(!running);
+        if (running) {
+            progressImportFile.setProgress(0);
+            progressImportTotal.setProgress(0);
         }
     }
 }
@@ -1,9 +1,21 @@
 package com.example.carmusicplayer;
 
+import java.util.Comparator;
+
 /**
  * Model class representing a song
  */
 public class Song {
+
+    /**
+     * Order of the library pages: title, then id. SQLite compares text as
+     * UTF-8 bytes, which orders like code points rather than like
+     * String.compareTo; NULL titles come first.
+     */
+    public static final Comparator<Song> LIBRARY_ORDER = (a, b) -> {
+        int byTitle = compareCodePoints(a.getTitle(), b.getTitle());
+        return byTitle != 0 ? byTitle : Long.compare(a.getId(), b.getId());
+    };
     
     private long id;
     private String title;
@@ -46,4 +58,22 @@ public class Song {
         long seconds = (duration / 1000) % 60;
         return String.format("%d:%02d", minutes, seconds);
     }
+
+    private static int compareCodePoints(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
 }
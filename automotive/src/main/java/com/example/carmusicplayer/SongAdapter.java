@@ -23,6 +23,7 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
     private Context context;
     private OnSongClickListener listener;
     private MusicDatabaseHelper dbHelper;
+    private FavoritesIndex favorites;
     private int currentPlayingPosition = -1;
 
     public interface OnSongClickListener {
@@ -50,13 +51,17 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         holder.tvArtist.setText(song.getArtist());
         holder.tvDuration.setText(song.getFormattedDuration());
         
-        // Check if favorited
-        boolean isFavorite = dbHelper.isFavorite(song.getId());
+        // Check if favorited (in-memory, no disk I/O while scrolling)
+        if (favorites == null) {
+            // Loaded on first bind, not when the view is created; loaders warm it up off the main thread
+            favorites = dbHelper.getFavoritesIndex();
+        }
+        boolean isFavorite = favorites.contains(song.getId());
         updateFavoriteIcon(holder.btnFavorite, isFavorite);
         
         // Favorite button click
         holder.btnFavorite.setOnClickListener(v -> {
-            boolean currentFav = dbHelper.isFavorite(song.getId());
+            boolean currentFav = favorites.contains(song.getId());
             if (currentFav) {
                 dbHelper.removeFromFavorites(song.getId());
                 updateFavoriteIcon(holder.btnFavorite, false);
@@ -78,8 +83,10 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         }
         
         holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onSongClick(song, position);
+            // Rows can shift under a bound holder when the library changes
+            int currentPosition = holder.getAdapterPosition();
+            if (listener != null && currentPosition != RecyclerView.NO_POSITION) {
+                listener.onSongClick(song, currentPosition);
             }
         });
     }
@@ -115,6 +122,61 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         notifyDataSetChanged();
     }
 
+    public void appendSongs(List<Song> moreSongs) {
+        int start = songs.size();
+        songs.addAll(moreSongs);
+        notifyItemRangeInserted(start, moreSongs.size());
+    }
+
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+    public int getCurrentPlaying() {
+        return currentPlayingPosition;
+    }
+
+    /**
+     * Apply a library delta to the rows on screen. A plain list (search
+     * results, a shuffled queue) only loses the songs that are gone; new
+     * songs are not known to belong in it. The list must be mutable.
+     */
+    public void applyLibraryChange(LibraryChange change) {
+        removeSongs(change.getRemovedIds());
+    }
+
+    // Remove the rows of the given song ids, one notification per row
+    public void removeSongs(long[] songIds) {
+        if (songIds.length == 0 || songs.isEmpty()) {
+            return;
+        }
+        LongHashSet removed = new LongHashSet(songIds.length);
+        for (long id : songIds) {
+            removed.add(id);
+        }
+        for (int i = songs.size() - 1; i >= 0; i--) {
+            if (!removed.contains(songs.get(i).getId())) {
+                continue;
+            }
+            songs.remove(i);
+            notifyItemRemoved(i);
+            if (i == currentPlayingPosition) {
+                currentPlayingPosition = -1;
+            } else if (i < currentPlayingPosition) {
+                currentPlayingPosition--;
+            }
+        }
+    }
+
+    // Insert one row at the given position, keeping the playing row highlighted
+    protected void insertSong(int position, Song song) {
+        songs.add(position, song);
+        notifyItemInserted(position);
+        if (currentPlayingPosition >= position) {
+            currentPlayingPosition++;
+        }
+    }
+
     static class SongViewHolder extends RecyclerView.ViewHolder {
         TextView tvTitle;
         TextView tvArtist;
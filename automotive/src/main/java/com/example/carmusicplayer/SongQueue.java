@@ -0,0 +1,105 @@
+package com.example.carmusicplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.carmusicplayer.shared.PlaybackQueue;
+import com.example.carmusicplayer.shared.Track;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Playback queue over a list of songs as a screen shows it, or over song
+ * ids. The list is not copied: library lists only carry display columns, so
+ * each song's full row is loaded on a background thread when it is about to
+ * play.
+ */
+public class SongQueue implements PlaybackQueue {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final MusicDatabaseHelper dbHelper;
+    private final List<Song> songs;
+    // Set instead of songs for a queue of songs known only by id
+    private final long[] ids;
+
+    public SongQueue(MusicDatabaseHelper dbHelper, List<Song> songs) {
+        this.dbHelper = dbHelper;
+        this.songs = songs;
+        this.ids = null;
+    }
+
+    // A queue over song ids, e.g. the whole library while only a few pages are on screen
+    public SongQueue(MusicDatabaseHelper dbHelper, long[] ids) {
+        this.dbHelper = dbHelper;
+        this.songs = null;
+        this.ids = ids;
+    }
+
+    // The list this queue plays through, for matching it against a screen's list; null for ids
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+    @Override
+    public int size() {
+        return songs != null ? songs.size() : ids.length;
+    }
+
+    // Position of a song in an id queue, trying the expected position first; 0 if missing
+    public static int indexOf(long[] ids, long id, int expected) {
+        if (expected >= 0 && expected < ids.length && ids[expected] == id) {
+            return expected;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void loadTrack(int index, Consumer<Track> callback) {
+        long id;
+        if (songs != null) {
+            Song song = songs.get(index);
+            if (song.getPath() != null) {
+                callback.accept(toTrack(song));
+                return;
+            }
+            id = song.getId();
+        } else {
+            id = ids[index];
+        }
+        executor.execute(() -> {
+            Song full = dbHelper.getSongById(id);
+            Track track = full != null ? toTrack(full) : null;
+            mainHandler.post(() -> callback.accept(track));
+        });
+    }
+
+    // Library songs use their row id as media id
+    public static Track toTrack(Song song) {
+        String source = MusicScanner.isAssetSong(song) ? Track.ASSET_URI_PREFIX + song.getPath() : song.getPath();
+        return new Track(String.valueOf(song.getId()), song.getTitle(), song.getArtist(),
+                song.getAlbum(), source, song.getDuration());
+    }
+
+    // Song for the now-playing views and the play history; id 0 for streams
+    public static Song toSong(Track track) {
+        long id = 0;
+        try {
+            id = Long.parseLong(track.getMediaId());
+        } catch (NumberFormatException e) {
+            // Streams have no id and stay out of the play history
+        }
+        String path = track.isAsset() ? track.getAssetPath() : track.getSource();
+        return new Song(id, track.getTitle(), track.getArtist(), track.getAlbum(), path,
+                track.getDurationMs(), 0);
+    }
+}
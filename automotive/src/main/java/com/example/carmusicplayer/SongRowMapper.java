@@ -0,0 +1,58 @@
+package com.example.carmusicplayer;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps rows of the songs table to Song objects. Column indices are resolved
+ * once when the mapper is created instead of on every row. Columns left out
+ * of the projection map to null / 0, so the same mapper serves narrow list
+ * queries and full playback loads.
+ */
+public class SongRowMapper {
+
+    private final int idColumn;
+    private final int titleColumn;
+    private final int artistColumn;
+    private final int albumColumn;
+    private final int pathColumn;
+    private final int durationColumn;
+
+    public SongRowMapper(Cursor cursor) {
+        idColumn = cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_ID);
+        titleColumn = cursor.getColumnIndexOrThrow(MusicDatabaseHelper.COLUMN_TITLE);
+        artistColumn = cursor.getColumnIndex(MusicDatabaseHelper.COLUMN_ARTIST);
+        albumColumn = cursor.getColumnIndex(MusicDatabaseHelper.COLUMN_ALBUM);
+        pathColumn = cursor.getColumnIndex(MusicDatabaseHelper.COLUMN_PATH);
+        durationColumn = cursor.getColumnIndex(MusicDatabaseHelper.COLUMN_DURATION);
+    }
+
+    // Map the row the cursor is currently positioned on
+    public Song map(Cursor cursor) {
+        return new Song(
+                cursor.getLong(idColumn),
+                cursor.getString(titleColumn),
+                artistColumn >= 0 ? cursor.getString(artistColumn) : null,
+                albumColumn >= 0 ? cursor.getString(albumColumn) : null,
+                pathColumn >= 0 ? cursor.getString(pathColumn) : null,
+                durationColumn >= 0 ? cursor.getLong(durationColumn) : 0,
+                0
+        );
+    }
+
+    // Map every remaining row and close the cursor
+    public static List<Song> readAll(Cursor cursor) {
+        List<Song> songs = new ArrayList<>(Math.max(cursor.getCount(), 0));
+        try {
+            SongRowMapper mapper = new SongRowMapper(cursor);
+            while (cursor.moveToNext()) {
+                songs.add(mapper.map(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return songs;
+    }
+}
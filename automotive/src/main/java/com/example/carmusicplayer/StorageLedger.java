@@ -0,0 +1,92 @@
+package com.example.carmusicplayer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Byte totals and least-recently-played order of the files in each storage
+ * category. Every category is an access-ordered LinkedHashMap keyed by
+ * path, so recording a play, adding and removing a file are all O(1); the
+ * least recently played file is always at the head. Not thread-safe.
+ */
+public class StorageLedger {
+
+    private final List<LinkedHashMap<String, StorageUsage>> categories = new ArrayList<>();
+    private final long[] usedBytes;
+
+    public StorageLedger(int categoryCount) {
+        usedBytes = new long[categoryCount];
+        for (int i = 0; i < categoryCount; i++) {
+            categories.add(new LinkedHashMap<>(16, 0.75f, true));
+        }
+    }
+
+    /**
+     * Start tracking a file, or replace what was tracked for its path.
+     * Entries loaded in last-played order rebuild the LRU order as it was.
+     */
+    public void add(StorageUsage usage) {
+        remove(usage.getPath());
+        categories.get(usage.getCategory()).put(usage.getPath(), usage);
+        usedBytes[usage.getCategory()] += usage.getBytes();
+    }
+
+    /**
+     * Move a file to the most recently played end. Returns its entry, or
+     * null if the path is not tracked.
+     */
+    public StorageUsage touch(String path, long playedAt) {
+        for (LinkedHashMap<String, StorageUsage> category : categories) {
+            StorageUsage usage = category.get(path);
+            if (usage != null) {
+                usage.setLastPlayed(playedAt);
+                return usage;
+            }
+        }
+        return null;
+    }
+
+    public StorageUsage remove(String path) {
+        for (int i = 0; i < categories.size(); i++) {
+            StorageUsage usage = categories.get(i).remove(path);
+            if (usage != null) {
+                usedBytes[i] -= usage.getBytes();
+                return usage;
+            }
+        }
+        return null;
+    }
+
+    public long getUsedBytes(int category) {
+        return usedBytes[category];
+    }
+
+    public int getFileCount(int category) {
+        return categories.get(category).size();
+    }
+
+    /**
+     * Remove least recently played files from a category until it fits the
+     * quota. Files whose song the predicate protects (favorites) are kept
+     * however old they are, so a category full of them can stay over quota.
+     *
+     * @return the removed entries, oldest first; the caller deletes the files
+     */
+    public List<StorageUsage> evict(int category, long quotaBytes, LongPredicate isProtected) {
+        List<StorageUsage> evicted = new ArrayList<>();
+        Iterator<StorageUsage> oldestFirst = categories.get(category).values().iterator();
+        while (usedBytes[category] > quotaBytes && oldestFirst.hasNext()) {
+            StorageUsage usage = oldestFirst.next();
+            if (usage.getSongId() != 0 && isProtected.test(usage.getSongId())) {
+                continue;
+            }
+            oldestFirst.remove();
+            usedBytes[category] -= usage.getBytes();
+            evicted.add(usage);
+        }
+        return evicted;
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps imported music and cached audio within a byte budget per category.
+ * Sizes and last-played times live in a {@link StorageLedger} that is
+ * rebuilt from the storage_usage table in one ordered query at startup and
+ * written through on every change. Once a category goes over its quota the
+ * least recently played files are deleted, except those of favorite songs.
+ * Only the cache, which can be fetched again, has a quota by default;
+ * imported music is the user's only copy, so it is evicted only once the
+ * user opts in from Settings (setImportedEvictionEnabled), and evicted
+ * imported songs leave the library as well.
+ * <p>
+ * All ledger access happens on the manager's own thread, so a play costs
+ * the caller nothing but a queued task.
+ */
+public class StorageQuotaManager {
+
+    private static final String TAG = "StorageQuotaManager";
+    private static final String PREFS_NAME = "storage_quota";
+    private static final String KEY_BACKFILLED = "backfilled";
+
+    public static final int CATEGORY_IMPORTED = 0;
+    // Downloaded or streamed audio kept for replay; reserved until a cache writes here
+    public static final int CATEGORY_CACHE = 1;
+    private static final int CATEGORY_COUNT = 2;
+    public static final String CACHE_DIR = "audio_cache";
+
+    // Quota of a category that is never evicted
+    public static final long NO_QUOTA = Long.MAX_VALUE;
+    // Budget for imported music once the user opts in to evicting it
+    public static final long IMPORTED_OPT_IN_QUOTA = 4L * 1024 * 1024 * 1024;
+
+    private static final long[] DEFAULT_QUOTAS = {
+            NO_QUOTA,
+            512L * 1024 * 1024
+    };
+
+    private static StorageQuotaManager instance;
+
+    private final Context context;
+    private final MusicDatabaseHelper dbHelper;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Executor thread only
+    private final StorageLedger ledger = new StorageLedger(CATEGORY_COUNT);
+
+    public static synchronized StorageQuotaManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageQuotaManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private StorageQuotaManager(Context context) {
+        this.context = context;
+        this.dbHelper = MusicDatabaseHelper.getInstance(context);
+        executor.execute(this::load);
+    }
+
+    public static File getCacheDir(Context context) {
+        return new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    public long getQuota(int category) {
+        return getPrefs().getLong("quota_" + category, DEFAULT_QUOTAS[category]);
+    }
+
+    // Change a category's budget; files over the new budget are evicted right away
+    public void setQuota(int category, long bytes) {
+        getPrefs().edit().putLong("quota_" + category, bytes).apply();
+        executor.execute(() -> enforce(category));
+    }
+
+    public boolean isImportedEvictionEnabled() {
+        return getQuota(CATEGORY_IMPORTED) != NO_QUOTA;
+    }
+
+    // Opt in to deleting the least played imported songs beyond IMPORTED_OPT_IN_QUOTA
+    public void setImportedEvictionEnabled(boolean enabled) {
+        setQuota(CATEGORY_IMPORTED, enabled ? IMPORTED_OPT_IN_QUOTA : NO_QUOTA);
+    }
+
+    /**
+     * Count a new file against its category, as played now, and evict older
+     * files if that takes the category over quota. songId is 0 for files
+     * that do not belong to a library song.
+     */
+    public void onFileAdded(int category, File file, long songId) {
+        StorageUsage usage = new StorageUsage(file.getAbsolutePath(), category, file.length(),
+                songId, System.currentTimeMillis());
+        executor.execute(() -> {
+            ledger.add(usage);
+            dbHelper.saveStorageUsage(Collections.singletonList(usage));
+            enforce(category);
+        });
+    }
+
+    // A song started playing; untracked paths (assets, device music) are ignored
+    public void onPlayed(String path) {
+        if (path == null) {
+            return;
+        }
+        long playedAt = System.currentTimeMillis();
+        executor.execute(() -> {
+            if (ledger.touch(path, playedAt) != null) {
+                dbHelper.touchStorageUsage(path, playedAt);
+            }
+        });
+    }
+
+    // Runs on the executor
+    private void load() {
+        List<StorageUsage> usage = dbHelper.getStorageUsage();
+        // Already ordered by last play, so adding them in turn restores the LRU order
+        for (StorageUsage file : usage) {
+            ledger.add(file);
+        }
+        SharedPreferences prefs = getPrefs();
+        if (!prefs.getBoolean(KEY_BACKFILLED, false)) {
+            backfill();
+            prefs.edit().putBoolean(KEY_BACKFILLED, true).apply();
+        }
+        Log.d(TAG, "Loaded " + usage.size() + " files: " +
+                ledger.getUsedBytes(CATEGORY_IMPORTED) + " bytes imported, " +
+                ledger.getUsedBytes(CATEGORY_CACHE) + " bytes cached");
+        for (int category = 0; category < CATEGORY_COUNT; category++) {
+            enforce(category);
+        }
+    }
+
+    // Files stored before quotas existed count as played when first seen
+    private void backfill() {
+        Map<String, Long> songIds = dbHelper.getImportedSongIds();
+        List<StorageUsage> found = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> song : songIds.entrySet()) {
+            File file = new File(song.getKey());
+            if (file.isFile()) {
+                found.add(new StorageUsage(song.getKey(), CATEGORY_IMPORTED, file.length(),
+                        song.getValue(), now));
+            }
+        }
+        File[] cached = getCacheDir(context).listFiles();
+        if (cached != null) {
+            for (File file : cached) {
+                if (file.isFile()) {
+                    found.add(new StorageUsage(file.getAbsolutePath(), CATEGORY_CACHE,
+                            file.length(), 0, now));
+                }
+            }
+        }
+        for (StorageUsage file : found) {
+            ledger.add(file);
+        }
+        dbHelper.saveStorageUsage(found);
+    }
+
+    // Runs on the executor
+    private void enforce(int category) {
+        FavoritesIndex favorites = dbHelper.getFavoritesIndex();
+        List<StorageUsage> evicted = ledger.evict(category, getQuota(category), favorites::contains);
+        if (evicted.isEmpty()) {
+            return;
+        }
+
+        List<String> paths = new ArrayList<>(evicted.size());
+        long[] removedIds = new long[evicted.size()];
+        int removed = 0;
+        long freed = 0;
+        for (StorageUsage file : evicted) {
+            File target = new File(file.getPath());
+            if (target.exists() && !target.delete()) {
+                Log.w(TAG, "Could not delete " + target);
+            }
+            paths.add(file.getPath());
+            freed += file.getBytes();
+            if (file.getSongId() != 0) {
+                removedIds[removed++] = file.getSongId();
+            }
+        }
+        dbHelper.deleteStorageUsage(paths);
+        Log.d(TAG, "Evicted " + evicted.size() + " files (" + freed + " bytes) from category " + category);
+
+        if (removed > 0) {
+            long[] ids = removed == removedIds.length ? removedIds : Arrays.copyOf(removedIds, removed);
+            dbHelper.reconcileLibrary(Collections.emptyList(), Collections.emptyList(), ids).join();
+            MusicScanner.writeSnapshot(context);
+            LibraryWatcher.getInstance(context).publish(new LibraryChange(Collections.emptyList(), ids));
+        }
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.carmusicplayer;
+
+/**
+ * One file counted against a storage quota: its category, size, the song
+ * it belongs to (0 for none) and when it was last played or added
+ */
+public class StorageUsage {
+
+    private final String path;
+    private final int category;
+    private final long bytes;
+    private final long songId;
+    private long lastPlayed;
+
+    public StorageUsage(String path, int category, long bytes, long songId, long lastPlayed) {
+        this.path = path;
+        this.category = category;
+        this.bytes = bytes;
+        this.songId = songId;
+        this.lastPlayed = lastPlayed;
+    }
+
+    public String getPath() { return path; }
+    public int getCategory() { return category; }
+    public long getBytes() { return bytes; }
+    public long getSongId() { return songId; }
+    public long getLastPlayed() { return lastPlayed; }
+
+    void setLastPlayed(long lastPlayed) {
+        this.lastPlayed = lastPlayed;
+    }
+}
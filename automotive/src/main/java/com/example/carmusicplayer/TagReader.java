@@ -0,0 +1,751 @@
+package com.example.carmusicplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads title, artist, album and duration straight from the file headers,
+ * without the platform media extractor. Only the bytes that hold the tags
+ * and the stream parameters are read, through positional FileChannel reads;
+ * cover art and audio data are skipped over. Understands MP3 (ID3v2, ID3v1
+ * and the first frame for duration), WAV (RIFF INFO), FLAC (STREAMINFO and
+ * Vorbis comments), Ogg Vorbis and Opus (comment header and last granule
+ * position) and MP4/M4A (moov: mvhd and the iTunes ilst). Plain Java, so it
+ * also runs at build time and in local unit tests.
+ */
+public class TagReader {
+
+    // Frame and comment text larger than this is not a title
+    private static final int MAX_TEXT_BYTES = 4096;
+    // How far past the ID3v2 tag the first MPEG frame is looked for
+    private static final int FRAME_SEARCH_BYTES = 16 * 1024;
+    // Comment headers beyond this hold embedded pictures, not more text
+    private static final int MAX_COMMENT_BYTES = 64 * 1024;
+    // The last Ogg page starts within this many bytes of the end
+    private static final int OGG_TAIL_BYTES = 64 * 1024;
+
+    // iTunes item atoms, whose names start with the byte 0xA9 ("(c)" in Latin-1)
+    private static final int ATOM_NAME = 0xa96e616d;    // (c)nam
+    private static final int ATOM_ARTIST = 0xa9415254;  // (c)ART
+    private static final int ATOM_ALBUM = 0xa9616c62;   // (c)alb
+
+    private static final int[][] MPEG1_BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},  // Layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},     // Layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},      // Layer III
+    };
+    private static final int[][] MPEG2_BITRATES = {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},     // Layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},          // Layers II, III
+    };
+    private static final int[] MPEG1_SAMPLE_RATES = {44100, 48000, 32000};
+
+    /**
+     * What the headers say. Fields the file does not carry are null, or -1
+     * for the duration.
+     */
+    public static final class Tags {
+        public String title;
+        public String artist;
+        public String album;
+        public long durationMs = -1;
+    }
+
+    /**
+     * Read the tags of an audio file. Returns null if the format is not one
+     * this reader understands or the headers are damaged; callers fall back
+     * to MediaMetadataRetriever.
+     */
+    public static Tags read(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return read(channel, 0, channel.size());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the tags of the audio file stored in the given byte range of a
+     * channel, such as an asset opened through its file descriptor. The
+     * channel is left open. Returns null like read(File).
+     */
+    public static Tags read(FileChannel channel, long offset, long length) {
+        try {
+            return read(new Source(channel, offset, length));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static Tags read(Source source) throws IOException {
+        ByteBuffer magic = source.readAt(0, 12);
+        if (magic.remaining() < 12) {
+            return null;
+        }
+        if (startsWith(magic, 0, "fLaC")) {
+            return readFlac(source);
+        }
+        if (startsWith(magic, 0, "RIFF") && startsWith(magic, 8, "WAVE")) {
+            return readWav(source);
+        }
+        if (startsWith(magic, 0, "OggS")) {
+            return readOgg(source);
+        }
+        if (startsWith(magic, 4, "ftyp")) {
+            return readMp4(source);
+        }
+        if (startsWith(magic, 0, "ID3") || isMpegFrameHeader(magic.getInt(0))) {
+            return readMp3(source);
+        }
+        return null;
+    }
+
+    // ---- MP3 ----
+
+    private static Tags readMp3(Source source) throws IOException {
+        Tags tags = new Tags();
+        long audioStart = 0;
+
+        ByteBuffer header = source.readAt(0, 10);
+        if (startsWith(header, 0, "ID3")) {
+            int version = header.get(3);
+            int flags = header.get(5) & 0xff;
+            int tagSize = syncSafe(header.getInt(6));
+            audioStart = 10 + tagSize + ((flags & 0x10) != 0 ? 10 : 0);
+            if (version >= 2 && version <= 4) {
+                readId3v2Frames(source, version, flags, tagSize, tags);
+            }
+        }
+
+        long fileSize = source.size();
+        long audioEnd = fileSize;
+        if (fileSize >= 128) {
+            ByteBuffer v1 = source.readAt(fileSize - 128, 128);
+            if (startsWith(v1, 0, "TAG")) {
+                audioEnd -= 128;
+                if (tags.title == null) tags.title = latin1(v1, 3, 30);
+                if (tags.artist == null) tags.artist = latin1(v1, 33, 30);
+                if (tags.album == null) tags.album = latin1(v1, 63, 30);
+            }
+        }
+
+        if (tags.durationMs < 0) {
+            tags.durationMs = mpegDuration(source, audioStart, audioEnd);
+        }
+        return tags;
+    }
+
+    private static void readId3v2Frames(Source source, int version, int flags, int tagSize,
+                                        Tags tags) throws IOException {
+        long position = 10;
+        long end = 10 + (long) tagSize;
+        if (version >= 3 && (flags & 0x40) != 0) {
+            // Extended header: v2.4 counts itself in a sync-safe size, v2.3 does not
+            ByteBuffer ext = source.readAt(position, 4);
+            position += version == 4 ? syncSafe(ext.getInt(0)) : ext.getInt(0) + 4;
+        }
+        int headerSize = version == 2 ? 6 : 10;
+
+        while (position + headerSize <= end) {
+            ByteBuffer frame = source.readAt(position, headerSize);
+            if (frame.remaining() < headerSize || frame.get(0) == 0) {
+                break;  // Padding
+            }
+            String id;
+            int size;
+            if (version == 2) {
+                id = ascii(frame, 0, 3);
+                size = ((frame.get(3) & 0xff) << 16) | ((frame.get(4) & 0xff) << 8) | (frame.get(5) & 0xff);
+            } else {
+                id = ascii(frame, 0, 4);
+                size = version == 4 ? syncSafe(frame.getInt(4)) : frame.getInt(4);
+            }
+            if (size <= 0 || position + headerSize + size > end) {
+                break;
+            }
+            long body = position + headerSize;
+            position = body + size;
+
+            boolean wanted;
+            switch (id) {
+                case "TIT2": case "TT2":
+                case "TPE1": case "TP1":
+                case "TALB": case "TAL":
+                case "TLEN": case "TLE":
+                    wanted = true;
+                    break;
+                default:
+                    wanted = false;
+            }
+            if (!wanted || size > MAX_TEXT_BYTES) {
+                continue;  // Skipped without reading, cover art included
+            }
+            String text = id3Text(source.readAt(body, size));
+            if (text == null || text.isEmpty()) {
+                continue;
+            }
+            switch (id) {
+                case "TIT2": case "TT2":
+                    tags.title = text;
+                    break;
+                case "TPE1": case "TP1":
+                    tags.artist = text;
+                    break;
+                case "TALB": case "TAL":
+                    tags.album = text;
+                    break;
+                default:
+                    try {
+                        tags.durationMs = Long.parseLong(text.trim());
+                    } catch (NumberFormatException e) {
+                        // Ignore, the frame headers give the duration
+                    }
+            }
+        }
+    }
+
+    // First value of an ID3v2 text frame: an encoding byte, then the text
+    private static String id3Text(ByteBuffer body) {
+        if (body.remaining() < 2) {
+            return null;
+        }
+        int encoding = body.get(0);
+        Charset charset;
+        int unit = 1;
+        switch (encoding) {
+            case 0:
+                charset = StandardCharsets.ISO_8859_1;
+                break;
+            case 1:
+                charset = StandardCharsets.UTF_16;  // Byte order mark first
+                unit = 2;
+                break;
+            case 2:
+                charset = StandardCharsets.UTF_16BE;
+                unit = 2;
+                break;
+            case 3:
+                charset = StandardCharsets.UTF_8;
+                break;
+            default:
+                return null;
+        }
+        // Stop at the first terminator; v2.4 may list several values
+        int start = 1;
+        int length = body.remaining() - start;
+        for (int i = start; i + unit <= body.remaining(); i += unit) {
+            if (body.get(i) == 0 && (unit == 1 || body.get(i + 1) == 0)) {
+                length = i - start;
+                break;
+            }
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = body.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return new String(bytes, charset).trim();
+    }
+
+    /**
+     * Duration from the first MPEG frame: exact when it carries a Xing/Info
+     * or VBRI frame count, otherwise estimated from the bitrate
+     */
+    private static long mpegDuration(Source source, long audioStart, long audioEnd) throws IOException {
+        ByteBuffer search = source.readAt(audioStart, FRAME_SEARCH_BYTES);
+        for (int i = 0; i + 4 <= search.remaining(); i++) {
+            int header = search.getInt(i);
+            if (!isMpegFrameHeader(header)) {
+                continue;
+            }
+            int versionBits = (header >>> 19) & 0x3;  // 3 = MPEG1, 2 = MPEG2, 0 = MPEG2.5
+            int layer = 4 - ((header >>> 17) & 0x3);
+            int bitrateIndex = (header >>> 12) & 0xf;
+            int sampleRateIndex = (header >>> 10) & 0x3;
+            int channelMode = (header >>> 6) & 0x3;
+            boolean mpeg1 = versionBits == 3;
+
+            int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex] >> (mpeg1 ? 0 : versionBits == 2 ? 1 : 2);
+            int bitrateKbps = mpeg1 ? MPEG1_BITRATES[layer - 1][bitrateIndex]
+                    : MPEG2_BITRATES[layer == 1 ? 0 : 1][bitrateIndex];
+            int samplesPerFrame = layer == 1 ? 384 : layer == 2 || mpeg1 ? 1152 : 576;
+
+            // Xing/Info sits after the side information, VBRI at a fixed offset
+            int sideInfo = mpeg1 ? (channelMode == 3 ? 17 : 32) : (channelMode == 3 ? 9 : 17);
+            long frames = -1;
+            int xing = i + 4 + sideInfo;
+            if (xing + 12 <= search.remaining() &&
+                    (startsWith(search, xing, "Xing") || startsWith(search, xing, "Info")) &&
+                    (search.getInt(xing + 4) & 0x1) != 0) {
+                frames = search.getInt(xing + 8) & 0xffffffffL;
+            }
+            int vbri = i + 4 + 32;
+            if (frames < 0 && vbri + 18 <= search.remaining() && startsWith(search, vbri, "VBRI")) {
+                frames = search.getInt(vbri + 14) & 0xffffffffL;
+            }
+
+            if (frames > 0) {
+                return frames * samplesPerFrame * 1000 / sampleRate;
+            }
+            if (bitrateKbps > 0) {
+                return (audioEnd - audioStart - i) * 8 / bitrateKbps;
+            }
+            return -1;
+        }
+        return -1;
+    }
+
+    private static boolean isMpegFrameHeader(int header) {
+        return (header & 0xffe00000) == 0xffe00000     // Frame sync
+                && ((header >>> 19) & 0x3) != 1         // Reserved version
+                && ((header >>> 17) & 0x3) != 0         // Reserved layer
+                && ((header >>> 12) & 0xf) != 0xf       // Bad bitrate
+                && ((header >>> 10) & 0x3) != 3;        // Reserved sample rate
+    }
+
+    // ---- WAV ----
+
+    private static Tags readWav(Source source) throws IOException {
+        Tags tags = new Tags();
+        long byteRate = 0;
+        long dataSize = -1;
+        long position = 12;
+        long size = source.size();
+
+        while (position + 8 <= size) {
+            ByteBuffer chunk = source.readAt(position, 8).order(ByteOrder.LITTLE_ENDIAN);
+            String id = ascii(chunk, 0, 4);
+            long chunkSize = chunk.getInt(4) & 0xffffffffL;
+            long body = position + 8;
+            switch (id) {
+                case "fmt ":
+                    byteRate = source.readAt(body, 16).order(ByteOrder.LITTLE_ENDIAN).getInt(8) & 0xffffffffL;
+                    break;
+                case "data":
+                    // Streams written on the fly may leave the size unset
+                    dataSize = Math.min(chunkSize, size - body);
+                    break;
+                case "LIST":
+                    if (chunkSize <= MAX_TEXT_BYTES) {
+                        readRiffInfo(source.readAt(body, (int) chunkSize), tags);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            // Chunks are padded to an even size
+            position = body + chunkSize + (chunkSize & 1);
+        }
+
+        if (byteRate > 0 && dataSize >= 0) {
+            tags.durationMs = dataSize * 1000 / byteRate;
+        }
+        return tags;
+    }
+
+    private static void readRiffInfo(ByteBuffer list, Tags tags) {
+        list.order(ByteOrder.LITTLE_ENDIAN);
+        if (list.remaining() < 4 || !startsWith(list, 0, "INFO")) {
+            return;
+        }
+        int position = 4;
+        while (position + 8 <= list.remaining()) {
+            String id = ascii(list, position, 4);
+            int size = list.getInt(position + 4);
+            int body = position + 8;
+            if (size < 0 || body + size > list.remaining()) {
+                return;
+            }
+            String text = zeroTerminated(list, body, size, StandardCharsets.UTF_8);
+            switch (id) {
+                case "INAM":
+                    tags.title = text;
+                    break;
+                case "IART":
+                    tags.artist = text;
+                    break;
+                case "IPRD":
+                    tags.album = text;
+                    break;
+                default:
+                    break;
+            }
+            position = body + size + (size & 1);
+        }
+    }
+
+    // ---- FLAC ----
+
+    private static Tags readFlac(Source source) throws IOException {
+        Tags tags = new Tags();
+        long position = 4;
+        boolean last = false;
+        while (!last) {
+            ByteBuffer header = source.readAt(position, 4);
+            if (header.remaining() < 4) {
+                return null;
+            }
+            int type = header.get(0) & 0x7f;
+            last = (header.get(0) & 0x80) != 0;
+            int length = header.getInt(0) & 0xffffff;
+            long body = position + 4;
+            if (type == 0 && length >= 18) {
+                // STREAMINFO: 20-bit sample rate, then 36-bit total sample count
+                ByteBuffer info = source.readAt(body, 18);
+                long packed = info.getLong(10);
+                long sampleRate = packed >>> 44;
+                long totalSamples = packed & 0xfffffffffL;
+                if (sampleRate > 0 && totalSamples > 0) {
+                    tags.durationMs = totalSamples * 1000 / sampleRate;
+                }
+            } else if (type == 4) {
+                readVorbisComments(source.readAt(body, Math.min(length, MAX_COMMENT_BYTES)), tags);
+            }
+            position = body + length;
+        }
+        return tags;
+    }
+
+    // Vorbis comment block: little-endian lengths, a vendor string, then KEY=value pairs
+    static void readVorbisComments(ByteBuffer block, Tags tags) {
+        block.order(ByteOrder.LITTLE_ENDIAN);
+        int position = 0;
+        if (block.remaining() < 8) {
+            return;
+        }
+        position += 4 + block.getInt(position);
+        if (position < 0 || position + 4 > block.remaining()) {
+            return;
+        }
+        int count = block.getInt(position);
+        position += 4;
+        for (int i = 0; i < count && position + 4 <= block.remaining(); i++) {
+            int length = block.getInt(position);
+            position += 4;
+            if (length < 0 || position + length > block.remaining()) {
+                return;
+            }
+            String comment = zeroTerminated(block, position, length, StandardCharsets.UTF_8);
+            position += length;
+            int equals = comment.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            String key = comment.substring(0, equals);
+            String value = comment.substring(equals + 1).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            // Keys are case-insensitive; the first value wins
+            if (key.equalsIgnoreCase("TITLE") && tags.title == null) {
+                tags.title = value;
+            } else if (key.equalsIgnoreCase("ARTIST") && tags.artist == null) {
+                tags.artist = value;
+            } else if (key.equalsIgnoreCase("ALBUM") && tags.album == null) {
+                tags.album = value;
+            }
+        }
+    }
+
+    // ---- Ogg Vorbis / Opus ----
+
+    private static Tags readOgg(Source source) throws IOException {
+        // The identification and comment headers are the first two packets
+        List<ByteBuffer> packets = readOggPackets(source, 2);
+        if (packets.size() < 2) {
+            return null;
+        }
+        ByteBuffer id = packets.get(0).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer comments = packets.get(1);
+        long sampleRate;
+        long preSkip = 0;
+        int commentsStart;
+        if (id.remaining() >= 16 && id.get(0) == 1 && startsWith(id, 1, "vorbis")) {
+            sampleRate = id.getInt(12) & 0xffffffffL;
+            if (comments.remaining() < 7 || comments.get(0) != 3 || !startsWith(comments, 1, "vorbis")) {
+                return null;
+            }
+            commentsStart = 7;
+        } else if (id.remaining() >= 12 && startsWith(id, 0, "OpusHead")) {
+            // Opus always runs at 48 kHz; the pre-skip is not part of the audio
+            sampleRate = 48000;
+            preSkip = id.getShort(10) & 0xffff;
+            if (!startsWith(comments, 0, "OpusTags")) {
+                return null;
+            }
+            commentsStart = 8;
+        } else {
+            return null;
+        }
+
+        Tags tags = new Tags();
+        comments.position(commentsStart);
+        readVorbisComments(comments.slice(), tags);
+
+        long granule = lastGranulePosition(source);
+        if (granule > preSkip && sampleRate > 0) {
+            tags.durationMs = (granule - preSkip) * 1000 / sampleRate;
+        }
+        return tags;
+    }
+
+    // Reassemble the first packets of the stream from its pages' segment tables
+    private static List<ByteBuffer> readOggPackets(Source source, int count) throws IOException {
+        List<ByteBuffer> packets = new ArrayList<>(count);
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        long position = 0;
+        while (packets.size() < count) {
+            ByteBuffer header = source.readAt(position, 27);
+            if (header.remaining() < 27 || !startsWith(header, 0, "OggS")) {
+                break;
+            }
+            int segments = header.get(26) & 0xff;
+            ByteBuffer lacing = source.readAt(position + 27, segments);
+            if (lacing.remaining() < segments) {
+                break;
+            }
+            int bodySize = 0;
+            for (int i = 0; i < segments; i++) {
+                bodySize += lacing.get(i) & 0xff;
+            }
+            // Pages past the size cap (embedded pictures) are walked by their lacing alone
+            ByteBuffer body = packet.size() < MAX_COMMENT_BYTES
+                    ? source.readAt(position + 27 + segments, bodySize) : null;
+            int offset = 0;
+            for (int i = 0; i < segments && packets.size() < count; i++) {
+                int length = lacing.get(i) & 0xff;
+                if (body != null && packet.size() < MAX_COMMENT_BYTES) {
+                    packet.write(body.array(), offset, Math.max(0, Math.min(length, body.remaining() - offset)));
+                }
+                offset += length;
+                // A segment shorter than 255 bytes ends the packet
+                if (length < 255) {
+                    packets.add(ByteBuffer.wrap(packet.toByteArray()));
+                    packet.reset();
+                }
+            }
+            position += 27 + segments + bodySize;
+        }
+        return packets;
+    }
+
+    // Granule position of the last page: the stream length in samples
+    private static long lastGranulePosition(Source source) throws IOException {
+        long size = source.size();
+        int tailSize = (int) Math.min(size, OGG_TAIL_BYTES);
+        ByteBuffer tail = source.readAt(size - tailSize, tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = tail.remaining() - 27; i >= 0; i--) {
+            if (startsWith(tail, i, "OggS")) {
+                return tail.getLong(i + 6);
+            }
+        }
+        return -1;
+    }
+
+    // ---- MP4 / M4A ----
+
+    private static Tags readMp4(Source source) throws IOException {
+        long[] moov = findAtom(source, 0, source.size(), "moov");
+        if (moov == null) {
+            return null;
+        }
+        Tags tags = new Tags();
+
+        long[] mvhd = findAtom(source, moov[0], moov[1], "mvhd");
+        if (mvhd != null) {
+            ByteBuffer box = source.readAt(mvhd[0], 32);
+            int version = box.get(0);
+            long timescale;
+            long duration;
+            if (version == 1 && box.remaining() >= 32) {
+                timescale = box.getInt(20) & 0xffffffffL;
+                duration = box.getLong(24);
+            } else if (box.remaining() >= 20) {
+                timescale = box.getInt(12) & 0xffffffffL;
+                duration = box.getInt(16) & 0xffffffffL;
+            } else {
+                timescale = 0;
+                duration = 0;
+            }
+            if (timescale > 0 && duration > 0) {
+                tags.durationMs = duration * 1000 / timescale;
+            }
+        }
+
+        long[] udta = findAtom(source, moov[0], moov[1], "udta");
+        long[] meta = udta != null ? findAtom(source, udta[0], udta[1], "meta") : null;
+        if (meta != null) {
+            // ISO meta is a full box with 4 bytes of version and flags; QuickTime's is not
+            long children = meta[0];
+            ByteBuffer peek = source.readAt(meta[0], 8);
+            if (peek.remaining() == 8 && !startsWith(peek, 4, "hdlr")) {
+                children += 4;
+            }
+            long[] ilst = findAtom(source, children, meta[1], "ilst");
+            if (ilst != null) {
+                readIlst(source, ilst[0], ilst[1], tags);
+            }
+        }
+        return tags;
+    }
+
+    private static void readIlst(Source source, long start, long end, Tags tags) throws IOException {
+        long position = start;
+        while (position + 8 <= end) {
+            ByteBuffer header = source.readAt(position, 8);
+            long size = header.getInt(0) & 0xffffffffL;
+            if (size < 8 || position + size > end) {
+                return;
+            }
+            int type = header.getInt(4);
+            if (type == ATOM_NAME || type == ATOM_ARTIST || type == ATOM_ALBUM) {
+                String text = ilstText(source, position + 8, position + size);
+                if (text != null && !text.isEmpty()) {
+                    if (type == ATOM_NAME) tags.title = text;
+                    else if (type == ATOM_ARTIST) tags.artist = text;
+                    else tags.album = text;
+                }
+            }
+            position += size;
+        }
+    }
+
+    // UTF-8 payload of the data atom inside an ilst item
+    private static String ilstText(Source source, long start, long end) throws IOException {
+        long[] data = findAtom(source, start, end, "data");
+        if (data == null) {
+            return null;
+        }
+        // Type indicator and locale come first; type 1 is UTF-8 text
+        int length = (int) (data[1] - data[0]);
+        if (length <= 8 || length > MAX_TEXT_BYTES) {
+            return null;
+        }
+        ByteBuffer payload = source.readAt(data[0], length);
+        if ((payload.getInt(0) & 0xffffff) != 1) {
+            return null;
+        }
+        return zeroTerminated(payload, 8, payload.remaining() - 8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find the first child atom of the given type between start and end.
+     * Returns the start and end of its payload, or null.
+     */
+    private static long[] findAtom(Source source, long start, long end, String type) throws IOException {
+        long position = start;
+        while (position + 8 <= end) {
+            ByteBuffer header = source.readAt(position, 16);
+            if (header.remaining() < 8) {
+                return null;
+            }
+            long size = header.getInt(0) & 0xffffffffL;
+            int headerSize = 8;
+            if (size == 1) {
+                // 64-bit size follows the type
+                if (header.remaining() < 16) {
+                    return null;
+                }
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                // Extends to the end of the enclosing range
+                size = end - position;
+            }
+            if (size < headerSize || position + size > end) {
+                return null;
+            }
+            if (startsWith(header, 4, type)) {
+                return new long[]{position + headerSize, position + size};
+            }
+            position += size;
+        }
+        return null;
+    }
+
+    // ---- Helpers ----
+
+    /**
+     * Byte range of a channel holding one audio file, e.g. a whole file or
+     * an uncompressed asset inside the APK. Positions are relative to it.
+     */
+    static final class Source {
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+
+        Source(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        long size() {
+            return length;
+        }
+
+        // Up to length bytes from the given position; fewer near the end
+        ByteBuffer readAt(long position, int count) throws IOException {
+            long available = Math.max(0, length - position);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, available));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static int syncSafe(int value) {
+        return ((value & 0x7f000000) >>> 3) | ((value & 0x7f0000) >>> 2) |
+                ((value & 0x7f00) >>> 1) | (value & 0x7f);
+    }
+
+    static boolean startsWith(ByteBuffer buffer, int offset, String ascii) {
+        if (offset + ascii.length() > buffer.remaining()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer.get(offset + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String ascii(ByteBuffer buffer, int offset, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private static String latin1(ByteBuffer buffer, int offset, int length) {
+        String text = zeroTerminated(buffer, offset, length, StandardCharsets.ISO_8859_1);
+        return text.isEmpty() ? null : text;
+    }
+
+    static String zeroTerminated(ByteBuffer buffer, int offset, int length, Charset charset) {
+        int end = offset;
+        while (end < offset + length && buffer.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, charset).trim();
+    }
+}
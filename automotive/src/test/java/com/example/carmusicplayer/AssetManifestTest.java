@@ -0,0 +1,66 @@
+package com.example.carmusicplayer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the build-time manifest of the bundled music.
+ */
+public class AssetManifestTest {
+
+    @Test
+    public void roundTripKeepsEveryField() throws IOException {
+        TagReader.Tags tags = new TagReader.Tags();
+        tags.title = "Nocturne – Op. 9";
+        tags.artist = "Chopin";
+        tags.album = "Nocturnes";
+        tags.durationMs = 271_000;
+        List<Song> songs = Arrays.asList(
+                AssetManifest.fromTags("music/nocturne.flac", tags),
+                AssetManifest.fromTags("music/broken_file.m4a", null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AssetManifest.write(out, songs);
+        List<Song> read = AssetManifest.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertNotNull(read);
+        assertEquals(2, read.size());
+        Song first = read.get(0);
+        assertEquals("music/nocturne.flac", first.getPath());
+        assertEquals("Nocturne – Op. 9", first.getTitle());
+        assertEquals("Chopin", first.getArtist());
+        assertEquals("Nocturnes", first.getAlbum());
+        assertEquals(271_000, first.getDuration());
+    }
+
+    @Test
+    public void unreadableFilesGetDeviceDefaultsAndAreProbed() {
+        Song song = AssetManifest.fromTags("music/road_trip_mix.ogg", null);
+        assertEquals("road trip mix", song.getTitle());
+        assertEquals("Unknown Artist", song.getArtist());
+        assertEquals("Assets", song.getAlbum());
+        // -1 tells the device to read this file itself
+        assertEquals(-1, song.getDuration());
+    }
+
+    @Test
+    public void foreignStreamIsRejected() throws IOException {
+        byte[] notAManifest = {0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0};
+        assertNull(AssetManifest.read(new ByteArrayInputStream(notAManifest)));
+    }
+
+    @Test
+    public void audioExtensionsAreCaseInsensitive() {
+        assertTrue(AssetManifest.isAudioFile("Track.MP3"));
+        assertTrue(AssetManifest.isAudioFile("a.flac"));
+        assertFalse(AssetManifest.isAudioFile("cover.jpg"));
+        assertFalse(AssetManifest.isAudioFile(AssetManifest.ASSET_NAME));
+    }
+}
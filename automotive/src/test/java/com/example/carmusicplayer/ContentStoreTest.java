@@ -0,0 +1,101 @@
+package com.example.carmusicplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the content-addressed store of imported music.
+ */
+public class ContentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hexDigestMatchesKnownVector() {
+        MessageDigest digest = ContentStore.newDigest();
+        digest.update("abc".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                ContentStore.toHex(digest.digest()));
+    }
+
+    @Test
+    public void openIndexesStoredFilesOnly() throws IOException {
+        File dir = folder.getRoot();
+        String hash = hashOf("first song");
+        File stored = new File(dir, hash + ".mp3");
+        write(stored, "first song");
+        // Imported before content addressing, and an unfinished copy
+        write(new File(dir, "My Song.mp3"), "legacy");
+        write(new File(dir, "import_0.part"), "partial");
+
+        ContentStore store = ContentStore.open(dir, registered(stored));
+        assertEquals(1, store.size());
+        assertTrue(store.contains(hash));
+        assertTrue(store.mayContain("first song".length()));
+        assertFalse(store.mayContain("legacy".length()));
+        assertTrue(store.getOrphans().isEmpty());
+    }
+
+    @Test
+    public void unregisteredFilesAreOrphansNotDuplicates() throws IOException {
+        File dir = folder.getRoot();
+        String hash = hashOf("never registered");
+        File orphan = new File(dir, hash + ".mp3");
+        write(orphan, "never registered");
+
+        ContentStore store = ContentStore.open(dir, Collections.<String>emptySet());
+        assertFalse(store.contains(hash));
+        assertFalse(store.mayContain("never registered".length()));
+        assertEquals(Collections.singletonList(orphan), store.getOrphans());
+    }
+
+    @Test
+    public void addedContentIsFoundBySizeAndHash() {
+        ContentStore store = ContentStore.open(folder.getRoot(), Collections.<String>emptySet());
+        String hash = hashOf("x");
+        assertFalse(store.mayContain(1));
+        store.add(hash, 1);
+        assertTrue(store.mayContain(1));
+        assertTrue(store.contains(hash));
+        assertFalse(store.contains(hashOf("y")));
+    }
+
+    @Test
+    public void storedNameKeepsNormalizedExtension() {
+        ContentStore store = ContentStore.open(folder.getRoot(), Collections.<String>emptySet());
+        String hash = hashOf("z");
+        assertEquals(hash + ".mp3", store.fileFor(hash, "Track 01.MP3").getName());
+        assertEquals(hash + ".flac", store.fileFor(hash, "a.b.flac").getName());
+        assertEquals(hash, store.fileFor(hash, "no extension").getName());
+        assertEquals(hash, store.fileFor(hash, "weird.ext with spaces").getName());
+        assertEquals(hash, store.fileFor(hash, "trailing.").getName());
+    }
+
+    private static String hashOf(String content) {
+        MessageDigest digest = ContentStore.newDigest();
+        digest.update(content.getBytes(StandardCharsets.UTF_8));
+        return ContentStore.toHex(digest.digest());
+    }
+
+    private static Set<String> registered(File file) {
+        return Collections.singleton(file.getAbsolutePath());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.carmusicplayer;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The single writer thread must survive any failure inside a batch, so
+ * that no caller is left blocking on a future that never completes.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = 33)
+public class DatabaseWriterTest {
+
+    private static final String TEST_DB = "writer_test.db";
+
+    private Context context;
+    private SQLiteOpenHelper helper;
+    private DatabaseWriter writer;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(TEST_DB);
+        helper = new SQLiteOpenHelper(context, TEST_DB, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE t (v INTEGER)");
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        writer = new DatabaseWriter(helper);
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdown();
+        helper.close();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void errorFailsItsWriteAndKeepsWriterAlive() throws Exception {
+        CompletableFuture<Integer> broken = writer.submit(db -> {
+            throw new StackOverflowError("bad caller");
+        });
+        try {
+            broken.get(5, TimeUnit.SECONDS);
+            fail("write should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StackOverflowError);
+        }
+
+        long rowId = writer.submit(db -> db.insert("t", null, null)).get(5, TimeUnit.SECONDS);
+        assertTrue(rowId > 0);
+    }
+
+    @Test
+    public void writesAfterShutdownFailRightAway() throws Exception {
+        long rowId = writer.submit(db -> db.insert("t", null, null)).get(5, TimeUnit.SECONDS);
+        writer.shutdown();
+        try {
+            writer.submit(db -> db.insert("t", null, null)).get(5, TimeUnit.SECONDS);
+            fail("write after shutdown should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(rowId > 0);
+    }
+
+    @Test
+    public void failingWriteDoesNotTakeItsBatchDown() throws Exception {
+        CompletableFuture<Void> block = new CompletableFuture<>();
+        // Hold the writer so the next writes queue up into one batch
+        writer.submit(db -> block.join());
+        CompletableFuture<Long> before = writer.submit(db -> db.insert("t", null, null));
+        CompletableFuture<Object> broken = writer.submit(db -> {
+            throw new OutOfMemoryError("simulated");
+        });
+        CompletableFuture<Long> after = writer.submit(db -> db.insert("t", null, null));
+        block.complete(null);
+
+        assertTrue(before.get(5, TimeUnit.SECONDS) > 0);
+        assertTrue(after.get(5, TimeUnit.SECONDS) > 0);
+        assertTrue(broken.isCompletedExceptionally());
+    }
+}
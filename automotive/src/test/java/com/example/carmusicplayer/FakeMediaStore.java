@@ -0,0 +1,189 @@
+package com.example.carmusicplayer;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.MediaStore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Stand-in for the MediaStore provider in Robolectric tests, serving
+ * synthetic audio rows from an in-memory table. Queries run the caller's
+ * projection and selection against it as they are, so the real scanner
+ * code paths (generation and DATE_MODIFIED watermarks, path diffs) are
+ * exercised unchanged. Every mutation bumps the generation, like the
+ * platform provider does.
+ * <p>
+ * Register it with
+ * {@code Robolectric.buildContentProvider(FakeMediaStore.class).create(MediaStore.AUTHORITY).get()}.
+ */
+public class FakeMediaStore extends ContentProvider {
+
+    private static final String TABLE = "audio";
+    // Hidden MediaStore call methods behind getVersion() and getGeneration()
+    private static final String GET_VERSION_CALL = "get_version";
+    private static final String GET_GENERATION_CALL = "get_generation";
+
+    private SQLiteDatabase db;
+    private long generation = 0;
+    private long nextId = 1;
+    private long now = 1_700_000_000L;
+    private String version = "fake-1";
+    private int fullRowsServed = 0;
+    private final Random random = new Random(7);
+
+    @Override
+    public boolean onCreate() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + TABLE + " (" +
+                MediaStore.Audio.Media._ID + " INTEGER PRIMARY KEY, " +
+                MediaStore.Audio.Media.TITLE + " TEXT, " +
+                MediaStore.Audio.Media.ARTIST + " TEXT, " +
+                MediaStore.Audio.Media.ALBUM + " TEXT, " +
+                MediaStore.Audio.Media.DATA + " TEXT, " +
+                MediaStore.Audio.Media.DURATION + " INTEGER, " +
+                MediaStore.Audio.Media.ALBUM_ID + " INTEGER, " +
+                MediaStore.Audio.Media.DATE_MODIFIED + " INTEGER, " +
+                MediaStore.Audio.Media.GENERATION_MODIFIED + " INTEGER)");
+        return true;
+    }
+
+    /**
+     * Add synthetic music tracks spread over a few hundred albums, each
+     * with a distinct path under /storage/emulated/0/Music
+     */
+    public synchronized void addTracks(int count) {
+        generation++;
+        now++;
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO " + TABLE + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                long id = nextId++;
+                long album = id % 500;
+                insert.bindLong(1, id);
+                insert.bindString(2, "Track " + id);
+                insert.bindString(3, "Artist " + album % 120);
+                insert.bindString(4, "Album " + album);
+                insert.bindString(5, "/storage/emulated/0/Music/Album " + album + "/track_" + id + ".mp3");
+                insert.bindLong(6, 60_000 + random.nextInt(300_000));
+                insert.bindLong(7, album);
+                insert.bindLong(8, now);
+                insert.bindLong(9, generation);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Delete random existing tracks, as if the user removed files
+    public synchronized int removeRandomTracks(int count) {
+        generation++;
+        return db.delete(TABLE, MediaStore.Audio.Media._ID + " IN (SELECT " +
+                MediaStore.Audio.Media._ID + " FROM " + TABLE + " ORDER BY random() LIMIT ?)",
+                new String[]{String.valueOf(count)});
+    }
+
+    // Delete one track by id
+    public synchronized int removeTrack(long id) {
+        generation++;
+        return db.delete(TABLE, MediaStore.Audio.Media._ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    // Change the title of a track in place, as a tag editor would
+    public synchronized void retagTrack(long id, String title) {
+        generation++;
+        now++;
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Audio.Media.TITLE, title);
+        values.put(MediaStore.Audio.Media.DATE_MODIFIED, now);
+        values.put(MediaStore.Audio.Media.GENERATION_MODIFIED, generation);
+        db.update(TABLE, values, MediaStore.Audio.Media._ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * Add one track whose file kept an old modification time, as a copy
+     * that preserves timestamps does. Returns its id.
+     */
+    public synchronized long addCopiedTrack() {
+        addTracks(1);
+        long id = nextId - 1;
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Audio.Media.DATE_MODIFIED, 1);
+        db.update(TABLE, values, MediaStore.Audio.Media._ID + " = ?", new String[]{String.valueOf(id)});
+        return id;
+    }
+
+    public synchronized int getTrackCount() {
+        return (int) DatabaseUtils.queryNumEntries(db, TABLE);
+    }
+
+    // A new version invalidates every watermark, as after a MediaStore rebuild
+    public synchronized void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Rows served with their tag columns since the last reset, i.e. what a
+     * sync paid to read in full rather than as an id and path
+     */
+    public synchronized int getFullRowsServed() {
+        return fullRowsServed;
+    }
+
+    public synchronized void resetFullRowsServed() {
+        fullRowsServed = 0;
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, String selection,
+                                     String[] selectionArgs, String sortOrder) {
+        Cursor cursor = db.query(TABLE, projection, selection, selectionArgs, null, null, sortOrder);
+        if (projection == null || Arrays.asList(projection).contains(MediaStore.Audio.Media.TITLE)) {
+            fullRowsServed += cursor.getCount();
+        }
+        return cursor;
+    }
+
+    @Override
+    public synchronized Bundle call(String method, String arg, Bundle extras) {
+        Bundle out = new Bundle();
+        if (GET_VERSION_CALL.equals(method)) {
+            out.putString(Intent.EXTRA_TEXT, version);
+        } else if (GET_GENERATION_CALL.equals(method)) {
+            out.putLong(Intent.EXTRA_INDEX, generation);
+        }
+        return out;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Use addTracks()");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Use removeRandomTracks()");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
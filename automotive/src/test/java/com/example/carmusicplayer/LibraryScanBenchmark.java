@@ -0,0 +1,168 @@
+package com.example.carmusicplayer;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Context;
+import android.provider.MediaStore;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Library scan timings against a synthetic MediaStore of 1k, 10k and 100k
+ * tracks, served by {@link FakeMediaStore}. Each size runs a first scan, a
+ * rescan with nothing changed and a rescan after 1% of the tracks were
+ * replaced, and prints wall time, rows written to the database and bytes
+ * allocated per track. Numbers are relative: compare runs on one machine.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = 33)
+public class LibraryScanBenchmark {
+
+    private static final String TEST_DB = "scan_benchmark.db";
+    private static final String WRITER_THREAD = "music-db-writer";
+
+    private Context context;
+    private MusicDatabaseHelper helper;
+    private FakeMediaStore mediaStore;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        shadowOf((Application) context).grantPermissions(Manifest.permission.READ_MEDIA_AUDIO);
+        mediaStore = Robolectric.buildContentProvider(FakeMediaStore.class)
+                .create(MediaStore.AUTHORITY).get();
+        context.deleteDatabase(TEST_DB);
+        helper = new MusicDatabaseHelper(context, TEST_DB);
+        MediaStoreSync.reset(context);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void scan1k() {
+        runScans(1_000);
+    }
+
+    @Test
+    public void scan10k() {
+        runScans(10_000);
+    }
+
+    @Test
+    public void scan100k() {
+        runScans(100_000);
+    }
+
+    private void runScans(int tracks) {
+        mediaStore.addTracks(tracks);
+
+        Result first = scan("first scan", tracks);
+        int assets = helper.getLocalSongCount() - tracks;
+        assertTrue(assets >= 0);
+        assertEquals(tracks + assets, first.change.getAdded().size());
+
+        Result unchanged = scan("no-change rescan", tracks);
+        assertTrue(unchanged.change.isEmpty());
+        assertEquals(0, unchanged.rowsWritten);
+
+        // 1% of the library replaced: half the delta removed, half added
+        int half = Math.max(1, tracks / 200);
+        assertEquals(half, mediaStore.removeRandomTracks(half));
+        mediaStore.addTracks(half);
+        Result delta = scan("1% delta rescan", tracks);
+        assertEquals(half, delta.change.getAdded().size());
+        assertEquals(half, delta.change.getRemovedIds().length);
+        assertEquals(tracks + assets, helper.getLocalSongCount());
+    }
+
+    private Result scan(String label, int tracks) {
+        helper.getQueryStats().reset();
+        Map<Long, Long> allocatedBefore = allocatedBytesByThread();
+        long start = System.nanoTime();
+
+        LibraryChange change = MusicScanner.scanLibrary(context, helper, null);
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        long allocated = allocatedSince(allocatedBefore);
+        long rowsWritten = rowsWritten(helper.getQueryStats());
+
+        System.out.println(String.format(Locale.US,
+                "LibraryScanBenchmark %,7d tracks, %-16s %6d ms, %7d rows written, %s",
+                tracks, label + ":", elapsedMs, rowsWritten,
+                allocated < 0 ? "allocations n/a" : allocated / tracks + " B allocated/track"));
+        return new Result(change, rowsWritten);
+    }
+
+    // Rows touched by operations that ran on the writer thread
+    private static long rowsWritten(QueryStats stats) {
+        long rows = 0;
+        for (QueryStats.MethodSnapshot method : stats.snapshot()) {
+            if (method.threads.contains(WRITER_THREAD)) {
+                rows += method.rows;
+            }
+        }
+        return rows;
+    }
+
+    // Bytes allocated by every live thread, or an empty map if the JVM cannot tell
+    private static Map<Long, Long> allocatedBytesByThread() {
+        Map<Long, Long> allocated = new HashMap<>();
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return allocated;
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    // Threads that ended in between (e.g. extractor workers) are not counted
+    private static long allocatedSince(Map<Long, Long> before) {
+        Map<Long, Long> after = allocatedBytesByThread();
+        if (after.isEmpty()) {
+            return -1;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : after.entrySet()) {
+            Long previous = before.get(thread.getKey());
+            total += thread.getValue() - (previous != null ? previous : 0);
+        }
+        return total;
+    }
+
+    private static final class Result {
+        final LibraryChange change;
+        final long rowsWritten;
+
+        Result(LibraryChange change, long rowsWritten) {
+            this.change = change;
+            this.rowsWritten = rowsWritten;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.carmusicplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the binary library snapshot format.
+ */
+public class LibrarySnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsEverySong() throws IOException {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            songs.add(new Song(i + 1, "Track " + i, "Artist " + (i % 7), "Album " + (i % 13),
+                    "/music/track_" + i + ".mp3", 180_000 + i, 0));
+        }
+        songs.add(new Song(5_000, "Überschall – 東京", null, "", "music/ü.mp3", 0, 0));
+        File file = folder.newFile("library.snapshot");
+        LibrarySnapshot.write(file, songs);
+
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+        assertNotNull(snapshot);
+        assertEquals(songs.size(), snapshot.size());
+        for (int i = 0; i < songs.size(); i++) {
+            Song expected = songs.get(i);
+            Song actual = snapshot.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getArtist(), actual.getArtist());
+            assertEquals(expected.getAlbum(), actual.getAlbum());
+            assertEquals(expected.getPath(), actual.getPath());
+            assertEquals(expected.getDuration(), actual.getDuration());
+        }
+    }
+
+    @Test
+    public void repeatedStringsAreStoredOnce() throws IOException {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            songs.add(new Song(i, "Same title", "Same artist", "Same album", "/p/" + i, 0, 0));
+        }
+        File file = folder.newFile("library.snapshot");
+        LibrarySnapshot.write(file, songs);
+
+        long paths = 0;
+        for (int i = 0; i < 100; i++) {
+            paths += ("/p/" + i).length();
+        }
+        long pool = file.length() - 16 - 100 * 48;
+        assertEquals(paths + "Same title".length() + "Same artist".length() + "Same album".length(), pool);
+    }
+
+    @Test
+    public void rejectsMissingOrDamagedFiles() throws IOException {
+        assertNull(LibrarySnapshot.open(new File(folder.getRoot(), "missing")));
+
+        File garbage = folder.newFile("garbage");
+        try (FileOutputStream out = new FileOutputStream(garbage)) {
+            out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+        }
+        assertNull(LibrarySnapshot.open(garbage));
+
+        // Header claiming more records than the file holds
+        List<Song> songs = new ArrayList<>();
+        songs.add(new Song(1, "Title", "Artist", "Album", "/p/1", 0, 0));
+        File file = folder.newFile("truncated");
+        LibrarySnapshot.write(file, songs);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(30);
+        }
+        assertNull(LibrarySnapshot.open(file));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsOutOfRangeIndex() throws IOException {
+        File file = folder.newFile("empty.snapshot");
+        LibrarySnapshot.write(file, new ArrayList<>());
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+        assertEquals(0, snapshot.size());
+        snapshot.get(0);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.carmusicplayer;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the primitive long set behind FavoritesIndex.
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void addContainsRemove() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertTrue(set.remove(42));
+        assertFalse(set.remove(42));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void zeroAndNegativeValues() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.contains(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void matchesHashSetUnderRandomOperations() {
+        LongHashSet set = new LongHashSet(4);
+        Set<Long> reference = new HashSet<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 200_000; i++) {
+            // Small key range so adds, removes and probe-chain collisions all happen often
+            long value = random.nextInt(5_000) - 100;
+            if (random.nextBoolean()) {
+                assertEquals(reference.add(value), set.add(value));
+            } else {
+                assertEquals(reference.remove(value), set.remove(value));
+            }
+        }
+
+        assertEquals(reference.size(), set.size());
+        for (long value = -100; value < 4_900; value++) {
+            assertEquals(reference.contains(value), set.contains(value));
+        }
+        assertEquals(reference.size(), set.toArray().length);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.carmusicplayer;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Context;
+import android.provider.MediaStore;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Device syncs against {@link FakeMediaStore}: changes the watermark alone
+ * would miss must still reach the library.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = 33)
+public class MediaStoreSyncTest {
+
+    private static final String TEST_DB = "sync_test.db";
+
+    private Context context;
+    private MusicDatabaseHelper helper;
+    private FakeMediaStore mediaStore;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        shadowOf((Application) context).grantPermissions(Manifest.permission.READ_MEDIA_AUDIO,
+                Manifest.permission.READ_EXTERNAL_STORAGE);
+        mediaStore = Robolectric.buildContentProvider(FakeMediaStore.class)
+                .create(MediaStore.AUTHORITY).get();
+        context.deleteDatabase(TEST_DB);
+        helper = new MusicDatabaseHelper(context, TEST_DB);
+        MediaStoreSync.reset(context);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void retaggedTrackIsUpdatedInPlace() {
+        mediaStore.addTracks(3);
+        MusicScanner.syncDevice(context, helper);
+
+        mediaStore.retagTrack(2, "Renamed");
+        LibraryChange change = MusicScanner.syncDevice(context, helper);
+        assertTrue(change.isEmpty());
+        assertEquals(3, helper.getDeviceSongCount());
+        assertEquals("Renamed", findByPath("/track_2.mp3").getTitle());
+    }
+
+    @Test
+    @Config(sdk = 28)
+    public void balancedAddAndDeleteIsFoundWithoutGenerations() {
+        mediaStore.addTracks(10);
+        MusicScanner.syncDevice(context, helper);
+
+        // Same count as before, and the new file looks older than the last sync
+        mediaStore.removeTrack(1);
+        long copied = mediaStore.addCopiedTrack();
+        LibraryChange change = MusicScanner.syncDevice(context, helper);
+        assertEquals(1, change.getRemovedIds().length);
+        assertEquals(1, change.getAdded().size());
+        assertNull(findByPath("/track_1.mp3"));
+        assertNotNull(findByPath("/track_" + copied + ".mp3"));
+        assertEquals(10, helper.getDeviceSongCount());
+    }
+
+    @Test
+    public void unchangedRescanReadsNoFullRows() {
+        mediaStore.addTracks(5);
+        MusicScanner.syncDevice(context, helper);
+        assertEquals(5, mediaStore.getFullRowsServed());
+
+        mediaStore.resetFullRowsServed();
+        assertTrue(MusicScanner.syncDevice(context, helper).isEmpty());
+        // Only ids and paths were read
+        assertEquals(0, mediaStore.getFullRowsServed());
+
+        mediaStore.retagTrack(3, "Live");
+        mediaStore.addTracks(1);
+        MusicScanner.syncDevice(context, helper);
+        assertEquals(2, mediaStore.getFullRowsServed());
+    }
+
+    private Song findByPath(String suffix) {
+        for (Song song : helper.getLocalSongs()) {
+            if (song.getPath().endsWith(suffix)) {
+                return song;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.carmusicplayer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the in-memory path diff used by library scans.
+ */
+public class PathHashIndexTest {
+
+    @Test
+    public void hashIsStableAndSpreadsSimilarPaths() {
+        assertEquals(PathHashIndex.hash("/music/a.mp3"), PathHashIndex.hash("/music/a.mp3"));
+        assertNotEquals(PathHashIndex.hash("/music/a.mp3"), PathHashIndex.hash("/music/b.mp3"));
+        // FNV-1a 64 of the empty input is the offset basis
+        assertEquals(0xcbf29ce484222325L, PathHashIndex.hash(""));
+    }
+
+    @Test
+    public void unseenEntriesAreTheVanishedRows() {
+        String[] paths = {"/music/1.mp3", "/music/2.mp3", "/music/3.mp3", "/music/4.mp3"};
+        long[][] entries = new long[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            entries[i] = new long[]{PathHashIndex.hash(paths[i]), i + 1};
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        PathHashIndex index = new PathHashIndex(2);
+        for (long[] entry : entries) {
+            index.add(entry[0], entry[1]);
+        }
+        assertEquals(4, index.size());
+
+        assertTrue(index.markSeen("/music/1.mp3"));
+        assertTrue(index.markSeen("/music/3.mp3"));
+        assertFalse(index.markSeen("/music/new.mp3"));
+
+        long[] unseen = index.unseenIds();
+        Arrays.sort(unseen);
+        assertArrayEquals(new long[]{2, 4}, unseen);
+    }
+
+    @Test
+    public void duplicateHashesAreMarkedTogether() {
+        PathHashIndex index = new PathHashIndex();
+        index.add(-5, 1);
+        index.add(7, 2);
+        index.add(7, 3);
+        index.add(7, 4);
+        index.add(9, 5);
+
+        assertTrue(index.markSeen(7));
+        assertArrayEquals(new long[]{1, 5}, index.unseenIds());
+    }
+
+    @Test
+    public void untouchedIndexReportsEverything() {
+        PathHashIndex index = new PathHashIndex();
+        index.add(1, 10);
+        index.add(2, 20);
+        assertArrayEquals(new long[]{10, 20}, index.unseenIds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsortedInput() {
+        PathHashIndex index = new PathHashIndex();
+        index.add(2, 1);
+        index.add(1, 2);
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.carmusicplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Corpus of hand-built audio file headers for the tag reader tests. Each
+ * sample carries the header structures a real encoder writes, followed by
+ * filler in place of the audio data.
+ */
+final class SampleHeaders {
+
+    static final String TITLE = "Nocturne – Op. 9 🎵";
+    static final String ARTIST = "Frédéric Chopin";
+    static final String ALBUM = "Nocturnes";
+
+    private SampleHeaders() {
+    }
+
+    // ---- MP3 ----
+
+    // ID3v2.3 with UTF-16 frames and cover art, then a Xing frame announcing the frame count
+    static byte[] mp3Id3v23Xing(int frames) {
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        id3Frame23(tag, "TIT2", 1, TITLE);
+        id3Frame23(tag, "TPE1", 1, ARTIST);
+        id3Frame23(tag, "TALB", 0, ALBUM);
+        // Cover art bigger than any text frame; must be skipped unread
+        byte[] picture = new byte[100_000];
+        tag.write(ascii("APIC"), 0, 4);
+        tag.write(int32(picture.length), 0, 4);
+        tag.write(new byte[2], 0, 2);
+        tag.write(picture, 0, picture.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeId3Header(out, 3, tag.size() + 256);
+        write(out, tag.toByteArray());
+        write(out, new byte[256]);  // Padding
+        write(out, mpegFrame(frames, true));
+        write(out, new byte[4096]);
+        return out.toByteArray();
+    }
+
+    // ID3v2.4 with UTF-8 frames, sync-safe frame sizes and a TLEN frame
+    static byte[] mp3Id3v24(long lengthMs) {
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        id3Frame24(tag, "TIT2", TITLE);
+        id3Frame24(tag, "TPE1", ARTIST + "\0Second Artist");
+        id3Frame24(tag, "TALB", ALBUM);
+        id3Frame24(tag, "TLEN", String.valueOf(lengthMs));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeId3Header(out, 4, tag.size());
+        write(out, tag.toByteArray());
+        write(out, mpegFrame(0, false));
+        write(out, new byte[4096]);
+        return out.toByteArray();
+    }
+
+    // ID3v2.2 with three-letter frame ids
+    static byte[] mp3Id3v22() {
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        for (String[] frame : new String[][]{{"TT2", TITLE}, {"TP1", ARTIST}, {"TAL", ALBUM}}) {
+            byte[] text = frame[1].getBytes(StandardCharsets.UTF_16);
+            tag.write(ascii(frame[0]), 0, 3);
+            int size = text.length + 1;
+            tag.write(new byte[]{(byte) (size >> 16), (byte) (size >> 8), (byte) size}, 0, 3);
+            tag.write(1);
+            tag.write(text, 0, text.length);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeId3Header(out, 2, tag.size());
+        write(out, tag.toByteArray());
+        write(out, mpegFrame(0, false));
+        return out.toByteArray();
+    }
+
+    // Constant bitrate frames only, with an ID3v1 tag at the end
+    static byte[] mp3Id3v1Cbr(int audioBytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] audio = new byte[audioBytes];
+        byte[] frame = mpegFrame(0, false);
+        System.arraycopy(frame, 0, audio, 0, Math.min(frame.length, audio.length));
+        write(out, audio);
+
+        ByteBuffer v1 = ByteBuffer.allocate(128);
+        v1.put(ascii("TAG"));
+        v1.position(3);
+        v1.put("Old Title".getBytes(StandardCharsets.ISO_8859_1));
+        v1.position(33);
+        v1.put("Old Artist".getBytes(StandardCharsets.ISO_8859_1));
+        v1.position(63);
+        v1.put("Old Album".getBytes(StandardCharsets.ISO_8859_1));
+        write(out, v1.array());
+        return out.toByteArray();
+    }
+
+    // MPEG-1 Layer III, 128 kbps, 44.1 kHz, stereo; optionally carrying a Xing header
+    private static byte[] mpegFrame(int frames, boolean xing) {
+        byte[] frame = new byte[417];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(0, 0xfffb9000);
+        if (xing) {
+            // Side information of a stereo MPEG-1 frame is 32 bytes
+            buffer.position(4 + 32);
+            buffer.put(ascii("Xing"));
+            buffer.putInt(0x1);  // Frame count present
+            buffer.putInt(frames);
+        }
+        return frame;
+    }
+
+    private static void writeId3Header(ByteArrayOutputStream out, int version, int size) {
+        write(out, ascii("ID3"));
+        out.write(version);
+        out.write(0);
+        out.write(0);
+        write(out, syncSafe(size));
+    }
+
+    private static void id3Frame23(ByteArrayOutputStream out, String id, int encoding, String text) {
+        Charset charset = encoding == 1 ? StandardCharsets.UTF_16 : StandardCharsets.ISO_8859_1;
+        byte[] bytes = text.getBytes(charset);
+        write(out, ascii(id));
+        write(out, int32(bytes.length + 1));
+        write(out, new byte[2]);
+        out.write(encoding);
+        write(out, bytes);
+    }
+
+    private static void id3Frame24(ByteArrayOutputStream out, String id, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        write(out, ascii(id));
+        write(out, syncSafe(bytes.length + 1));
+        write(out, new byte[2]);
+        out.write(3);
+        write(out, bytes);
+    }
+
+    // ---- WAV ----
+
+    static byte[] wav(int sampleRate, int seconds) {
+        ByteArrayOutputStream info = new ByteArrayOutputStream();
+        write(info, ascii("INFO"));
+        riffText(info, "INAM", TITLE);
+        riffText(info, "IART", ARTIST);
+        riffText(info, "IPRD", ALBUM);
+        byte[] list = info.toByteArray();
+
+        int dataSize = sampleRate * 2 * seconds;
+        ByteBuffer out = ByteBuffer.allocate(12 + 24 + 8 + list.length + 8 + dataSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put(ascii("RIFF")).putInt(out.capacity() - 8).put(ascii("WAVE"));
+        out.put(ascii("fmt ")).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(sampleRate).putInt(sampleRate * 2).putShort((short) 2).putShort((short) 16);
+        out.put(ascii("LIST")).putInt(list.length).put(list);
+        out.put(ascii("data")).putInt(dataSize);
+        return out.array();
+    }
+
+    private static void riffText(ByteArrayOutputStream out, String id, String text) {
+        byte[] bytes = (text + "\0").getBytes(StandardCharsets.UTF_8);
+        write(out, ascii(id));
+        write(out, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length).array());
+        write(out, bytes);
+        if ((bytes.length & 1) != 0) {
+            out.write(0);
+        }
+    }
+
+    // ---- FLAC ----
+
+    static byte[] flac(int sampleRate, long totalSamples) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, ascii("fLaC"));
+
+        ByteBuffer streamInfo = ByteBuffer.allocate(34);
+        streamInfo.putShort((short) 4096).putShort((short) 4096);
+        streamInfo.position(10);
+        // Sample rate (20 bits), channels - 1 (3), bits per sample - 1 (5), total samples (36)
+        streamInfo.putLong(((long) sampleRate << 44) | (1L << 41) | (15L << 36) | totalSamples);
+        write(out, new byte[]{0, 0, 0, 34});
+        write(out, streamInfo.array());
+
+        // A padding block sits between STREAMINFO and the comments
+        write(out, new byte[]{1, 0, 4, 0});
+        write(out, new byte[1024]);
+
+        byte[] comments = vorbisComments("title=" + TITLE, "ARTIST=" + ARTIST, "Album=" + ALBUM);
+        write(out, new byte[]{(byte) 0x84, (byte) (comments.length >> 16),
+                (byte) (comments.length >> 8), (byte) comments.length});
+        write(out, comments);
+        write(out, new byte[8192]);  // Frames
+        return out.toByteArray();
+    }
+
+    // ---- Ogg ----
+
+    static byte[] oggVorbis(int sampleRate, long totalSamples) {
+        ByteBuffer id = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        id.put((byte) 1).put(ascii("vorbis")).putInt(0).put((byte) 2).putInt(sampleRate);
+        byte[] comments = concat(new byte[]{3}, ascii("vorbis"),
+                vorbisComments("TITLE=" + TITLE, "ARTIST=" + ARTIST, "ALBUM=" + ALBUM), new byte[]{1});
+        return oggStream(id.array(), comments, totalSamples);
+    }
+
+    static byte[] oggOpus(int preSkip, long totalSamples48k) {
+        ByteBuffer id = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        id.put(ascii("OpusHead")).put((byte) 1).put((byte) 2).putShort((short) preSkip)
+                .putInt(44100).putShort((short) 0).put((byte) 0);
+        // A comment packet longer than one page, as with embedded cover art
+        byte[] picture = new byte[70_000];
+        byte[] comments = concat(ascii("OpusTags"),
+                vorbisComments("TITLE=" + TITLE, "ARTIST=" + ARTIST, "ALBUM=" + ALBUM,
+                        "METADATA_BLOCK_PICTURE=" + new String(picture, StandardCharsets.ISO_8859_1)));
+        return oggStream(id.array(), comments, totalSamples48k + preSkip);
+    }
+
+    // Identification page, comment pages, then one audio page carrying the final granule
+    private static byte[] oggStream(byte[] idPacket, byte[] commentPacket, long lastGranule) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        oggPages(out, idPacket, 0);
+        oggPages(out, commentPacket, 0);
+        oggPages(out, new byte[3000], lastGranule);
+        return out.toByteArray();
+    }
+
+    // Lace one packet into as many pages as it needs, up to 255 segments each
+    private static void oggPages(ByteArrayOutputStream out, byte[] packet, long granule) {
+        int offset = 0;
+        boolean done = false;
+        while (!done) {
+            ByteArrayOutputStream lacing = new ByteArrayOutputStream();
+            int start = offset;
+            while (lacing.size() < 255) {
+                int length = Math.min(255, packet.length - offset);
+                lacing.write(length);
+                offset += length;
+                if (length < 255) {
+                    done = true;
+                    break;
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(27).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(ascii("OggS")).put((byte) 0).put((byte) (start > 0 ? 1 : 0))
+                    .putLong(done ? granule : -1).putInt(1).putInt(0).putInt(0)
+                    .put((byte) lacing.size());
+            write(out, header.array());
+            write(out, lacing.toByteArray());
+            out.write(packet, start, offset - start);
+        }
+    }
+
+    static byte[] vorbisComments(String... comments) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] vendor = ascii("reference libFLAC 1.4.3");
+        write(out, int32le(vendor.length));
+        write(out, vendor);
+        write(out, int32le(comments.length));
+        for (String comment : comments) {
+            byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+            write(out, int32le(bytes.length));
+            write(out, bytes);
+        }
+        return out.toByteArray();
+    }
+
+    // ---- MP4 ----
+
+    // ftyp, a large mdat, then moov at the end as non-faststart files have it
+    static byte[] m4a(int timescale, long duration, boolean version1) {
+        byte[] mvhd;
+        if (version1) {
+            mvhd = ByteBuffer.allocate(112).put((byte) 1).put(new byte[3]).putLong(0).putLong(0)
+                    .putInt(timescale).putLong(duration).array();
+        } else {
+            mvhd = ByteBuffer.allocate(100).putInt(0).putInt(0).putInt(0)
+                    .putInt(timescale).putInt((int) duration).array();
+        }
+        byte[] ilst = atom("ilst",
+                ilstItem(0xa96e616d, TITLE),
+                ilstItem(0xa9415254, ARTIST),
+                ilstItem(0xa9616c62, ALBUM));
+        byte[] hdlr = atom("hdlr", new byte[25]);
+        byte[] meta = atom("meta", new byte[4], hdlr, ilst);
+        byte[] trak = atom("trak", new byte[2000]);
+        byte[] moov = atom("moov", atom("mvhd", mvhd), trak, atom("udta", meta));
+        // Long recordings come with 64-bit sizes; use one for the mdat alongside
+        byte[] audio = new byte[50_000];
+        byte[] mdat = version1
+                ? concat(int32(1), ascii("mdat"), ByteBuffer.allocate(8).putLong(16 + audio.length).array(), audio)
+                : atom("mdat", audio);
+        return concat(atom("ftyp", ascii("M4A "), new byte[4], ascii("isomM4A ")), mdat, moov);
+    }
+
+    private static byte[] ilstItem(int type, String text) {
+        byte[] data = atom("data", int32(1), new byte[4], text.getBytes(StandardCharsets.UTF_8));
+        return concat(int32(8 + data.length), int32(type), data);
+    }
+
+    private static byte[] atom(String type, byte[]... children) {
+        byte[] body = concat(children);
+        return concat(int32(8 + body.length), ascii(type), body);
+    }
+
+    // ---- Helpers ----
+
+    static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] int32le(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+
+    private static byte[] syncSafe(int value) {
+        return new byte[]{(byte) ((value >> 21) & 0x7f), (byte) ((value >> 14) & 0x7f),
+                (byte) ((value >> 7) & 0x7f), (byte) (value & 0x7f)};
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            write(out, part);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.carmusicplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the title order live library updates insert into.
+ */
+public class SongOrderTest {
+
+    @Test
+    public void titleThenIdLikeTheLibraryQuery() {
+        List<Song> songs = new ArrayList<>(Arrays.asList(
+                song(3, "b"), song(2, "a"), song(1, "b"), song(4, null), song(5, "B")));
+        songs.sort(Song.LIBRARY_ORDER);
+
+        // NULL first, then byte order (upper case before lower case), ties by id
+        long[] ids = new long[songs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = songs.get(i).getId();
+        }
+        assertArrayEquals(new long[]{4, 5, 2, 1, 3}, ids);
+    }
+
+    @Test
+    public void supplementaryCharactersSortLikeUtf8() {
+        // U+1F3B5 is a surrogate pair in UTF-16 but sorts after U+FF21 in UTF-8
+        Song note = song(1, "🎵");
+        Song fullWidth = song(2, "Ａ");
+        assertTrue("🎵".compareTo("Ａ") < 0);
+        assertTrue(Song.LIBRARY_ORDER.compare(fullWidth, note) < 0);
+    }
+
+    @Test
+    public void prefixSortsFirst() {
+        assertTrue(Song.LIBRARY_ORDER.compare(song(9, "Love"), song(1, "Love Song")) < 0);
+    }
+
+    private static Song song(long id, String title) {
+        return new Song(id, title, "Artist", "Album", null, 0, 0);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.carmusicplayer;
+
+import com.example.carmusicplayer.shared.Track;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the mapping between library songs and the tracks the
+ * playback service plays.
+ */
+public class SongQueueTest {
+
+    @Test
+    public void assetSongsPlayFromAssetUris() {
+        Song song = new Song(7, "Intro", "Band", "Demo", "music/intro.mp3", 1000, 0);
+        Track track = SongQueue.toTrack(song);
+        assertEquals("7", track.getMediaId());
+        assertTrue(track.isAsset());
+        assertEquals("music/intro.mp3", track.getAssetPath());
+
+        Song back = SongQueue.toSong(track);
+        assertEquals(7, back.getId());
+        assertEquals("music/intro.mp3", back.getPath());
+        assertEquals(1000, back.getDuration());
+    }
+
+    @Test
+    public void localSongsKeepTheirPath() {
+        Song song = new Song(12, "Song", "Artist", "Album", "/storage/music/song.mp3", 2000, 0);
+        Track track = SongQueue.toTrack(song);
+        assertFalse(track.isAsset());
+        assertEquals("/storage/music/song.mp3", track.getSource());
+        assertEquals("/storage/music/song.mp3", SongQueue.toSong(track).getPath());
+    }
+
+    @Test
+    public void idQueuesFindTheClickedSong() {
+        long[] ids = {5, 3, 9, 3};
+        assertEquals(4, new SongQueue(null, ids).size());
+        assertEquals(2, SongQueue.indexOf(ids, 9, 2));
+        // The list on screen moved on since the click
+        assertEquals(2, SongQueue.indexOf(ids, 9, 0));
+        assertEquals(3, SongQueue.indexOf(ids, 3, 3));
+        assertEquals(0, SongQueue.indexOf(ids, 42, 1));
+    }
+
+    @Test
+    public void streamsAreNotLibrarySongs() {
+        Track stream = new Track(null, "Online Stream", "Radio", "Stream", "https://example.com/live", 0);
+        assertEquals(0, SongQueue.toSong(stream).getId());
+    }
+
+    @Test
+    public void previewsKeepTheirDeezerId() {
+        // Previews are recorded in the play history under their Deezer id
+        Track preview = new Track("42", "Preview", "Artist", "Album", "https://example.com/p.mp3", 30_000);
+        Song song = SongQueue.toSong(preview);
+        assertEquals(42, song.getId());
+        assertEquals("https://example.com/p.mp3", song.getPath());
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.carmusicplayer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the per-category byte totals and LRU order behind
+ * the storage quotas.
+ */
+public class StorageLedgerTest {
+
+    private static final int IMPORTED = 0;
+    private static final int CACHE = 1;
+
+    @Test
+    public void totalsFollowAddReplaceAndRemove() {
+        StorageLedger ledger = new StorageLedger(2);
+        ledger.add(new StorageUsage("/a", IMPORTED, 100, 1, 1));
+        ledger.add(new StorageUsage("/b", IMPORTED, 50, 2, 2));
+        ledger.add(new StorageUsage("/c", CACHE, 7, 0, 3));
+        assertEquals(150, ledger.getUsedBytes(IMPORTED));
+        assertEquals(7, ledger.getUsedBytes(CACHE));
+
+        // Same path again replaces the old entry instead of counting twice
+        ledger.add(new StorageUsage("/a", IMPORTED, 120, 1, 4));
+        assertEquals(170, ledger.getUsedBytes(IMPORTED));
+        assertEquals(2, ledger.getFileCount(IMPORTED));
+
+        assertNotNull(ledger.remove("/b"));
+        assertNull(ledger.remove("/b"));
+        assertEquals(120, ledger.getUsedBytes(IMPORTED));
+    }
+
+    @Test
+    public void evictsLeastRecentlyPlayedFirst() {
+        StorageLedger ledger = new StorageLedger(2);
+        ledger.add(new StorageUsage("/old", IMPORTED, 10, 1, 1));
+        ledger.add(new StorageUsage("/mid", IMPORTED, 10, 2, 2));
+        ledger.add(new StorageUsage("/new", IMPORTED, 10, 3, 3));
+        // Playing the oldest file makes it the newest
+        assertEquals(100, ledger.touch("/old", 100).getLastPlayed());
+        assertNull(ledger.touch("/untracked", 100));
+
+        List<StorageUsage> evicted = ledger.evict(IMPORTED, 15, id -> false);
+        assertEquals(2, evicted.size());
+        assertEquals("/mid", evicted.get(0).getPath());
+        assertEquals("/new", evicted.get(1).getPath());
+        assertEquals(10, ledger.getUsedBytes(IMPORTED));
+    }
+
+    @Test
+    public void favoritesAreNeverEvicted() {
+        StorageLedger ledger = new StorageLedger(2);
+        ledger.add(new StorageUsage("/fav", IMPORTED, 40, 7, 1));
+        ledger.add(new StorageUsage("/other", IMPORTED, 40, 8, 2));
+
+        List<StorageUsage> evicted = ledger.evict(IMPORTED, 0, id -> id == 7);
+        assertEquals(1, evicted.size());
+        assertEquals("/other", evicted.get(0).getPath());
+        // Still over quota, but only protected files are left
+        assertEquals(40, ledger.getUsedBytes(IMPORTED));
+        assertTrue(ledger.evict(IMPORTED, 0, id -> id == 7).isEmpty());
+    }
+
+    @Test
+    public void categoriesAreBudgetedSeparately() {
+        StorageLedger ledger = new StorageLedger(2);
+        ledger.add(new StorageUsage("/song", IMPORTED, 100, 1, 1));
+        ledger.add(new StorageUsage("/cached", CACHE, 100, 0, 2));
+
+        assertTrue(ledger.evict(IMPORTED, 100, id -> false).isEmpty());
+        List<StorageUsage> evicted = ledger.evict(CACHE, 50, id -> false);
+        assertEquals(1, evicted.size());
+        assertEquals(0, ledger.getUsedBytes(CACHE));
+        assertEquals(100, ledger.getUsedBytes(IMPORTED));
+    }
+
+    @Test
+    public void loadingInPlayOrderRestoresLruOrder() {
+        StorageLedger ledger = new StorageLedger(2);
+        // As read back ordered by last_played
+        for (int i = 0; i < 1000; i++) {
+            ledger.add(new StorageUsage("/f" + i, IMPORTED, 1, i + 1, i));
+        }
+        List<StorageUsage> evicted = ledger.evict(IMPORTED, 997, id -> false);
+        assertEquals(3, evicted.size());
+        assertEquals("/f0", evicted.get(0).getPath());
+        assertEquals("/f2", evicted.get(2).getPath());
+    }
+}
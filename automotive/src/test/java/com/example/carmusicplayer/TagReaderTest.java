@@ -0,0 +1,207 @@
+package com.example.carmusicplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.carmusicplayer.SampleHeaders.ALBUM;
+import static com.example.carmusicplayer.SampleHeaders.ARTIST;
+import static com.example.carmusicplayer.SampleHeaders.TITLE;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the header-only tag reader, against the sample
+ * headers in {@link SampleHeaders}.
+ */
+public class TagReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mp3Id3v23WithXingFrameCount() throws IOException {
+        TagReader.Tags tags = read("a.mp3", SampleHeaders.mp3Id3v23Xing(1000));
+        assertTags(tags);
+        // 1000 frames of 1152 samples at 44.1 kHz
+        assertEquals(26_122, tags.durationMs);
+    }
+
+    @Test
+    public void mp3Id3v24TakesFirstValueAndTlen() throws IOException {
+        TagReader.Tags tags = read("a.mp3", SampleHeaders.mp3Id3v24(183_500));
+        assertTags(tags);
+        assertEquals(183_500, tags.durationMs);
+    }
+
+    @Test
+    public void mp3Id3v22() throws IOException {
+        assertTags(read("a.mp3", SampleHeaders.mp3Id3v22()));
+    }
+
+    @Test
+    public void mp3Id3v1WithConstantBitrateEstimate() throws IOException {
+        TagReader.Tags tags = read("a.mp3", SampleHeaders.mp3Id3v1Cbr(160_000));
+        assertEquals("Old Title", tags.title);
+        assertEquals("Old Artist", tags.artist);
+        assertEquals("Old Album", tags.album);
+        // 160 000 bytes at 128 kbps
+        assertEquals(10_000, tags.durationMs);
+    }
+
+    @Test
+    public void wavInfoAndDataSize() throws IOException {
+        TagReader.Tags tags = read("a.wav", SampleHeaders.wav(8_000, 2));
+        assertTags(tags);
+        assertEquals(2_000, tags.durationMs);
+    }
+
+    @Test
+    public void flacStreamInfoAndComments() throws IOException {
+        TagReader.Tags tags = read("a.flac", SampleHeaders.flac(44_100, 132_300));
+        assertTags(tags);
+        assertEquals(3_000, tags.durationMs);
+    }
+
+    @Test
+    public void oggVorbis() throws IOException {
+        TagReader.Tags tags = read("a.ogg", SampleHeaders.oggVorbis(44_100, 441_000));
+        assertTags(tags);
+        assertEquals(10_000, tags.durationMs);
+    }
+
+    @Test
+    public void opusCommentsSpanningPagesAndPreSkip() throws IOException {
+        TagReader.Tags tags = read("a.opus", SampleHeaders.oggOpus(312, 96_000));
+        assertTags(tags);
+        assertEquals(2_000, tags.durationMs);
+    }
+
+    @Test
+    public void m4aWithMoovAfterMdat() throws IOException {
+        TagReader.Tags tags = read("a.m4a", SampleHeaders.m4a(44_100, 441_000, false));
+        assertTags(tags);
+        assertEquals(10_000, tags.durationMs);
+    }
+
+    @Test
+    public void m4aWith64BitSizesAndDuration() throws IOException {
+        TagReader.Tags tags = read("a.m4a", SampleHeaders.m4a(1_000, 5_400_000, true));
+        assertTags(tags);
+        assertEquals(5_400_000, tags.durationMs);
+    }
+
+    @Test
+    public void readsFileEmbeddedInLargerChannel() throws IOException {
+        // Uncompressed assets sit at an offset inside the APK
+        byte[] flac = SampleHeaders.flac(48_000, 96_000);
+        byte[] before = new byte[12_345];
+        File apk = write("base.apk", SampleHeaders.concat(before, flac, new byte[777]));
+        try (RandomAccessFile raf = new RandomAccessFile(apk, "r");
+             FileChannel channel = raf.getChannel()) {
+            TagReader.Tags tags = TagReader.read(channel, before.length, flac.length);
+            assertTags(tags);
+            assertEquals(2_000, tags.durationMs);
+            assertTrue(channel.isOpen());
+        }
+    }
+
+    @Test
+    public void unknownAndEmptyFilesGiveNull() throws IOException {
+        assertNull(read("empty.mp3", new byte[0]));
+        assertNull(read("text.mp3", SampleHeaders.ascii("just some text, not audio")));
+        assertNull(TagReader.read(new File(folder.getRoot(), "missing.mp3")));
+    }
+
+    @Test
+    public void truncatedFilesNeverThrow() throws IOException {
+        List<byte[]> samples = Arrays.asList(
+                SampleHeaders.mp3Id3v23Xing(10), SampleHeaders.mp3Id3v24(1),
+                SampleHeaders.wav(8_000, 1), SampleHeaders.flac(44_100, 44_100),
+                SampleHeaders.oggVorbis(44_100, 44_100), SampleHeaders.oggOpus(0, 48_000),
+                SampleHeaders.m4a(44_100, 44_100, false));
+        for (byte[] sample : samples) {
+            for (int length : new int[]{4, 11, 12, 40, 200, 1_000, sample.length / 2}) {
+                byte[] truncated = Arrays.copyOf(sample, Math.min(length, sample.length));
+                // Null or partial tags are fine; an exception is not
+                TagReader.Tags tags = read("cut", truncated);
+                if (tags != null) {
+                    assertTrue(tags.durationMs >= -1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void garbageAfterMagicNeverThrows() throws IOException {
+        Random random = new Random(42);
+        String[] magics = {"ID3\u0003", "fLaC", "OggS", "RIFF\0\0\0\0WAVE", "\0\0\0\u0010ftypM4A "};
+        for (String magic : magics) {
+            for (int i = 0; i < 50; i++) {
+                byte[] noise = new byte[64 + random.nextInt(4_096)];
+                random.nextBytes(noise);
+                byte[] head = SampleHeaders.ascii(magic);
+                System.arraycopy(head, 0, noise, 0, head.length);
+                TagReader.Tags tags = read("noise", noise);
+                if (tags != null) {
+                    assertTrue(tags.durationMs >= -1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void throughput() throws IOException {
+        // Realistically sized files: the reader must not touch the audio data
+        byte[] audio = new byte[2 * 1024 * 1024];
+        List<byte[]> samples = Arrays.asList(
+                SampleHeaders.concat(SampleHeaders.mp3Id3v23Xing(5_000), audio),
+                SampleHeaders.concat(SampleHeaders.flac(44_100, 44_100 * 200), audio),
+                SampleHeaders.m4a(44_100, 44_100 * 200, false),
+                SampleHeaders.oggVorbis(44_100, 44_100 * 200));
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            files.add(write("track_" + i, samples.get(i % samples.size())));
+        }
+
+        // One warm-up pass, then the timed one
+        for (File file : files) {
+            TagReader.read(file);
+        }
+        long start = System.nanoTime();
+        for (File file : files) {
+            assertNotNull(TagReader.read(file));
+        }
+        long elapsedUs = Math.max(1, (System.nanoTime() - start) / 1_000);
+        System.out.println("TagReader: " + files.size() + " files in " + elapsedUs / 1_000 +
+                " ms (" + files.size() * 1_000_000L / elapsedUs + " files/s)");
+    }
+
+    private TagReader.Tags read(String name, byte[] content) throws IOException {
+        return TagReader.read(write(name, content));
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = folder.newFile(name + "_" + System.nanoTime());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static void assertTags(TagReader.Tags tags) {
+        assertNotNull(tags);
+        assertEquals(TITLE, tags.title);
+        assertEquals(ARTIST, tags.artist);
+        assertEquals(ALBUM, tags.album);
+    }
+}
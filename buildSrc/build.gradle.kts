@@ -0,0 +1,33 @@
+plugins {
+    java
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The shared app sources are UTF-8 whatever the host locale is
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+dependencies {
+    implementation(gradleApi())
+}
+
+sourceSets {
+    main {
+        java {
+            // Plain-Java tag and manifest code shared with the app, so the
+            // build writes exactly what the device reads
+            srcDir("../automotive/src/main/java")
+            include(
+                "com/example/carmusicplayer/build/**",
+                "com/example/carmusicplayer/AssetManifest.java",
+                "com/example/carmusicplayer/Song.java",
+                "com/example/carmusicplayer/TagReader.java"
+            )
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.carmusicplayer.build;
+
+import com.example.carmusicplayer.AssetManifest;
+import com.example.carmusicplayer.Song;
+import com.example.carmusicplayer.TagReader;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the tags of every file in assets/music and writes them to the
+ * asset manifest the app loads instead of probing the files on the device.
+ */
+public abstract class AssetManifestTask extends DefaultTask {
+
+    private static final String MUSIC_FOLDER = "music";
+
+    // The assets/music files; only their names and contents matter
+    @InputFiles
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getMusicFiles();
+
+    // Generated assets root; the manifest is written at its top level
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDir();
+
+    @TaskAction
+    public void generate() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (File file : getMusicFiles().getFiles()) {
+            if (file.isFile() && AssetManifest.isAudioFile(file.getName())) {
+                files.add(file);
+            }
+        }
+        // Stable order keeps the output byte-identical for the build cache
+        files.sort(Comparator.comparing(File::getName));
+
+        List<Song> songs = new ArrayList<>(files.size());
+        int unreadable = 0;
+        for (File file : files) {
+            TagReader.Tags tags = TagReader.read(file);
+            if (tags == null || tags.durationMs < 0) {
+                unreadable++;
+            }
+            songs.add(AssetManifest.fromTags(MUSIC_FOLDER + "/" + file.getName(), tags));
+        }
+
+        File outputDir = getOutputDir().get().getAsFile();
+        outputDir.mkdirs();
+        try (OutputStream out = new FileOutputStream(new File(outputDir, AssetManifest.ASSET_NAME))) {
+            AssetManifest.write(out, songs);
+        }
+        getLogger().info("Asset manifest: " + songs.size() + " songs, " + unreadable +
+                " left for the device to probe");
+    }
+}
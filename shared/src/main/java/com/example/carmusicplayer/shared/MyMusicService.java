@@ -1,17 +1,41 @@
 package com.example.carmusicplayer.shared;
 
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioAttributes;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+import androidx.media.app.NotificationCompat.MediaStyle;
 
 import android.support.v4.media.MediaBrowserCompat.MediaItem;
+import android.support.v4.media.MediaMetadataCompat;
 
 import androidx.media.MediaBrowserServiceCompat;
 
 import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This class provides a MediaBrowser through a service. It exposes the media library to a browsing
@@ -64,25 +88,143 @@ import java.util.List;
  *          &lt;/automotiveApp&gt;
  *
  * </ul>
+ * <p>
+ * Playback itself lives here rather than in an activity: the service owns
+ * the MediaPlayer, the queue, the position in it and the repeat mode, so a
+ * recreated activity finds the track still playing and the car's media UI
+ * drives the same player through the session. While a track plays the
+ * service runs in the foreground and outlives its clients; it holds audio
+ * focus while playing and stops itself once the queue ends or playback
+ * fails. In-process
+ * clients bind with {@link #ACTION_BIND_LOCAL} to call it directly and
+ * receive {@link PlaybackListener} callbacks; app-specific work (resolving
+ * media ids, recording plays) goes through a {@link PlaybackDelegate}.
  */
 public class MyMusicService extends MediaBrowserServiceCompat {
 
+    private static final String TAG = "MyMusicService";
+    // Intent action for in-process clients that want the LocalBinder
+    public static final String ACTION_BIND_LOCAL = "com.example.carmusicplayer.shared.BIND_LOCAL";
+    private static final String CHANNEL_ID = "playback";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long PLAYBACK_ACTIONS = PlaybackStateCompat.ACTION_PLAY |
+            PlaybackStateCompat.ACTION_PAUSE |
+            PlaybackStateCompat.ACTION_PLAY_PAUSE |
+            PlaybackStateCompat.ACTION_STOP |
+            PlaybackStateCompat.ACTION_SEEK_TO |
+            PlaybackStateCompat.ACTION_SKIP_TO_NEXT |
+            PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS |
+            PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID |
+            PlaybackStateCompat.ACTION_SET_REPEAT_MODE;
+    private static final AudioAttributes PLAYBACK_ATTRIBUTES = new AudioAttributes.Builder()
+            .setUsage(AudioAttributes.USAGE_MEDIA)
+            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+            .build();
+
+    /**
+     * Receives playback changes on the main thread
+     */
+    public interface PlaybackListener {
+        // A new track is loading; index is its position in the queue
+        void onTrackChanged(Track track, int index);
+
+        // Playback started, paused or stopped, or the duration became known
+        void onPlaybackStateChanged(boolean playing);
+
+        void onPlaybackError(String message);
+    }
+
+    /**
+     * App-side hooks. The service picks them up from the Application, so
+     * they apply whoever started playback: the app's screens or the car.
+     */
+    public interface PlaybackDelegate {
+        // Passes the track for a media id from a browsing client, or null if
+        // unknown, to callback on the main thread
+        void loadTrack(String mediaId, Consumer<Track> callback);
+
+        void onTrackStarted(Track track);
+
+        // The track played to its end
+        void onTrackCompleted(Track track);
+    }
+
+    public final class LocalBinder extends Binder {
+        public MyMusicService getService() {
+            return MyMusicService.this;
+        }
+    }
+
+    private final IBinder localBinder = new LocalBinder();
     private MediaSessionCompat mSession;
+    private PlaybackDelegate delegate;
+    private PlaybackListener listener;
+    private AudioManager audioManager;
+    private AudioFocusRequest focusRequest;
+
+    // Playback state, main thread only
+    private MediaPlayer mediaPlayer;
+    private PlaybackQueue queue = PlaybackQueue.of(Collections.<Track>emptyList());
+    private int currentIndex = -1;
+    private Track currentTrack;
+    private boolean prepared = false;
+    private boolean playWhenReady = false;
+    // Bumped by every new play request and by stop, so a track that finishes loading late is dropped
+    private int loadGeneration = 0;
+    private int repeatMode = PlaybackStateCompat.REPEAT_MODE_NONE;
+    private float volume = 1f;
+    private boolean started = false;
+    // Paused by a transient focus loss, to resume when focus comes back
+    private boolean resumeOnFocusGain = false;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        if (getApplication() instanceof PlaybackDelegate) {
+            delegate = (PlaybackDelegate) getApplication();
+        }
+        getSystemService(NotificationManager.class).createNotificationChannel(
+                new NotificationChannel(CHANNEL_ID, "Playback", NotificationManager.IMPORTANCE_LOW));
+        audioManager = getSystemService(AudioManager.class);
+        // Ducking is left to the system; other losses pause
+        focusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
+                .setAudioAttributes(PLAYBACK_ATTRIBUTES)
+                .setOnAudioFocusChangeListener(this::onAudioFocusChange)
+                .build();
 
         mSession = new MediaSessionCompat(this, "MyMusicService");
         setSessionToken(mSession.getSessionToken());
         mSession.setCallback(new MediaSessionCallback());
         mSession.setFlags(MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS |
                 MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        if (launch != null) {
+            mSession.setSessionActivity(PendingIntent.getActivity(this, 0, launch,
+                    PendingIntent.FLAG_IMMUTABLE));
+        }
+        updateSessionState();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        if (ACTION_BIND_LOCAL.equals(intent.getAction())) {
+            return localBinder;
+        }
+        return super.onBind(intent);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Only started to stay alive while playing; nothing to resume after a kill
+        return START_NOT_STICKY;
     }
 
     @Override
     public void onDestroy() {
+        releasePlayer();
+        abandonAudioFocus();
         mSession.release();
+        super.onDestroy();
     }
 
     @Override
@@ -98,37 +240,431 @@ public class MyMusicService extends MediaBrowserServiceCompat {
         result.sendResult(new ArrayList<MediaItem>());
     }
 
+    // ============= Playback =============
+
+    public void setListener(PlaybackListener listener) {
+        this.listener = listener;
+    }
+
+    // Replace the queue and start playing at index
+    public void play(PlaybackQueue queue, int index) {
+        this.queue = queue;
+        playIndex(index);
+    }
+
+    // Play a single track, e.g. a stream, as a queue of its own
+    public void playTrack(Track track) {
+        play(PlaybackQueue.of(Collections.singletonList(track)), 0);
+    }
+
+    // Rows were inserted or removed in the queue in front of the current track
+    public void updateQueuePosition(PlaybackQueue queue, int index) {
+        if (queue == this.queue && index >= 0) {
+            currentIndex = index;
+        }
+    }
+
+    // Resume, or restart the current track if it was stopped
+    public void play() {
+        if (currentTrack == null) {
+            return;
+        }
+        if (mediaPlayer == null) {
+            prepare(currentTrack);
+            return;
+        }
+        if (!requestAudioFocus()) {
+            return;
+        }
+        playWhenReady = true;
+        if (prepared) {
+            mediaPlayer.start();
+        }
+        mSession.setActive(true);
+        startForegroundPlayback();
+        notifyStateChanged();
+    }
+
+    public void pause() {
+        pausePlayback();
+        abandonAudioFocus();
+    }
+
+    public void stop() {
+        loadGeneration++;
+        releasePlayer();
+        abandonAudioFocus();
+        playWhenReady = false;
+        mSession.setActive(false);
+        stopForegroundPlayback(true);
+        notifyStateChanged();
+    }
+
+    public void seekTo(long position) {
+        if (prepared) {
+            mediaPlayer.seekTo((int) position);
+            updateSessionState();
+        }
+    }
+
+    public void skipToNext() {
+        if (queue.size() == 0) {
+            return;
+        }
+        int index = currentIndex + 1;
+        playIndex(index >= queue.size() ? 0 : index);
+    }
+
+    public void skipToPrevious() {
+        if (queue.size() == 0) {
+            return;
+        }
+        int index = currentIndex - 1;
+        playIndex(index < 0 ? queue.size() - 1 : index);
+    }
+
+    // One of PlaybackStateCompat.REPEAT_MODE_NONE, REPEAT_MODE_ALL or REPEAT_MODE_ONE
+    public void setRepeatMode(int repeatMode) {
+        this.repeatMode = repeatMode;
+        mSession.setRepeatMode(repeatMode);
+    }
+
+    public int getRepeatMode() {
+        return repeatMode;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    // 0..1, kept for every track played after it is set
+    public void setVolume(float volume) {
+        this.volume = volume;
+        if (mediaPlayer != null) {
+            mediaPlayer.setVolume(volume, volume);
+        }
+    }
+
+    public PlaybackQueue getQueue() {
+        return queue;
+    }
+
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    // The track playing, paused or loading; null before anything was played
+    public Track getCurrentTrack() {
+        return currentTrack;
+    }
+
+    // True while playing or loading a track that will start once ready
+    public boolean isPlaying() {
+        return playWhenReady;
+    }
+
+    public int getCurrentPosition() {
+        return prepared ? mediaPlayer.getCurrentPosition() : 0;
+    }
+
+    public int getDuration() {
+        if (prepared) {
+            return mediaPlayer.getDuration();
+        }
+        return currentTrack != null ? (int) currentTrack.getDurationMs() : 0;
+    }
+
+    private void playIndex(int index) {
+        if (index < 0 || index >= queue.size()) {
+            return;
+        }
+        // Skips made while loading move on from here
+        currentIndex = index;
+        PlaybackQueue target = queue;
+        int generation = ++loadGeneration;
+        target.loadTrack(index, track -> {
+            if (generation != loadGeneration || target != queue) {
+                return;
+            }
+            if (track == null) {
+                if (listener != null) {
+                    listener.onPlaybackError("Song is no longer in the library");
+                }
+                return;
+            }
+            prepare(track);
+        });
+    }
+
+    // Load a track without blocking the main thread; it starts once prepared
+    private void prepare(Track track) {
+        releasePlayer();
+        currentTrack = track;
+        // Without focus the track loads but waits for play()
+        playWhenReady = requestAudioFocus();
+        mSession.setMetadata(toMetadata(track));
+        mSession.setActive(true);
+        if (listener != null) {
+            listener.onTrackChanged(track, currentIndex);
+        }
+        if (delegate != null) {
+            delegate.onTrackStarted(track);
+        }
+
+        MediaPlayer player = new MediaPlayer();
+        mediaPlayer = player;
+        player.setAudioAttributes(PLAYBACK_ATTRIBUTES);
+        player.setOnPreparedListener(mp -> onPrepared());
+        player.setOnCompletionListener(mp -> onCompletion());
+        player.setOnErrorListener((mp, what, extra) -> {
+            Log.w(TAG, "Playback error " + what + "/" + extra + " for " + track.getSource());
+            onError("Error playing " + track.getTitle());
+            return true;
+        });
+        try {
+            if (track.isAsset()) {
+                try (AssetFileDescriptor afd = getAssets().openFd(track.getAssetPath())) {
+                    player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+                }
+            } else {
+                player.setDataSource(this, Uri.parse(track.getSource()));
+            }
+            player.prepareAsync();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot open " + track.getSource(), e);
+            onError("Error playing song: " + e.getMessage());
+            return;
+        }
+        startForegroundPlayback();
+        notifyStateChanged();
+    }
+
+    private void onPrepared() {
+        prepared = true;
+        mediaPlayer.setVolume(volume, volume);
+        if (playWhenReady) {
+            mediaPlayer.start();
+        }
+        notifyStateChanged();
+    }
+
+    private void onCompletion() {
+        if (delegate != null) {
+            delegate.onTrackCompleted(currentTrack);
+        }
+        if (repeatMode == PlaybackStateCompat.REPEAT_MODE_ONE) {
+            mediaPlayer.seekTo(0);
+            mediaPlayer.start();
+        } else if (repeatMode != PlaybackStateCompat.REPEAT_MODE_NONE ||
+                currentIndex < queue.size() - 1) {
+            skipToNext();
+        } else {
+            // End of the queue: nothing left to stay in the foreground for
+            playWhenReady = false;
+            abandonAudioFocus();
+            stopForegroundPlayback(true);
+            notifyStateChanged();
+        }
+    }
+
+    private void onError(String message) {
+        releasePlayer();
+        playWhenReady = false;
+        abandonAudioFocus();
+        stopForegroundPlayback(true);
+        mSession.setPlaybackState(new PlaybackStateCompat.Builder()
+                .setActions(PLAYBACK_ACTIONS)
+                .setState(PlaybackStateCompat.STATE_ERROR, 0, 0f)
+                .setErrorMessage(PlaybackStateCompat.ERROR_CODE_UNKNOWN_ERROR, message)
+                .build());
+        if (listener != null) {
+            listener.onPlaybackStateChanged(false);
+            listener.onPlaybackError(message);
+        }
+    }
+
+    private void pausePlayback() {
+        playWhenReady = false;
+        if (prepared && mediaPlayer.isPlaying()) {
+            mediaPlayer.pause();
+        }
+        stopForegroundPlayback(false);
+        notifyStateChanged();
+    }
+
+    private boolean requestAudioFocus() {
+        resumeOnFocusGain = false;
+        if (audioManager.requestAudioFocus(focusRequest) == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+            return true;
+        }
+        Log.w(TAG, "Audio focus denied");
+        return false;
+    }
+
+    private void abandonAudioFocus() {
+        resumeOnFocusGain = false;
+        audioManager.abandonAudioFocusRequest(focusRequest);
+    }
+
+    // Another app took the audio, e.g. navigation prompts or a phone call
+    private void onAudioFocusChange(int focusChange) {
+        switch (focusChange) {
+            case AudioManager.AUDIOFOCUS_GAIN:
+                if (resumeOnFocusGain) {
+                    resumeOnFocusGain = false;
+                    play();
+                }
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                // Keep the request, so focus comes back when the other app is done
+                if (playWhenReady) {
+                    pausePlayback();
+                    resumeOnFocusGain = true;
+                }
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS:
+                pause();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void releasePlayer() {
+        if (mediaPlayer != null) {
+            mediaPlayer.release();
+            mediaPlayer = null;
+        }
+        prepared = false;
+    }
+
+    private void notifyStateChanged() {
+        updateSessionState();
+        if (listener != null) {
+            listener.onPlaybackStateChanged(playWhenReady);
+        }
+    }
+
+    private void updateSessionState() {
+        int state;
+        if (currentTrack == null) {
+            state = PlaybackStateCompat.STATE_NONE;
+        } else if (mediaPlayer == null) {
+            state = PlaybackStateCompat.STATE_STOPPED;
+        } else if (!prepared) {
+            state = PlaybackStateCompat.STATE_BUFFERING;
+        } else {
+            state = playWhenReady ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED;
+        }
+        mSession.setPlaybackState(new PlaybackStateCompat.Builder()
+                .setActions(PLAYBACK_ACTIONS)
+                .setState(state, getCurrentPosition(), state == PlaybackStateCompat.STATE_PLAYING ? 1f : 0f)
+                .build());
+    }
+
+    private static MediaMetadataCompat toMetadata(Track track) {
+        return new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, track.getMediaId())
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, track.getTitle())
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, track.getArtist())
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, track.getAlbum())
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, track.getDurationMs())
+                .build();
+    }
+
+    // Keeps the service, and the player, alive when every client unbinds
+    private void startForegroundPlayback() {
+        if (!started) {
+            ContextCompat.startForegroundService(this, new Intent(this, MyMusicService.class));
+            started = true;
+        }
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .setContentTitle(currentTrack.getTitle())
+                .setContentText(currentTrack.getArtist())
+                .setContentIntent(mSession.getController().getSessionActivity())
+                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+                .setOnlyAlertOnce(true)
+                .setStyle(new MediaStyle().setMediaSession(mSession.getSessionToken()))
+                .build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+    }
+
+    // Paused playback keeps its notification; a stopped, finished or failed service goes away once unbound
+    private void stopForegroundPlayback(boolean stopService) {
+        if (!started) {
+            return;
+        }
+        stopForeground(stopService ? STOP_FOREGROUND_REMOVE : STOP_FOREGROUND_DETACH);
+        if (stopService) {
+            stopSelf();
+            started = false;
+        }
+    }
+
     private final class MediaSessionCallback extends MediaSessionCompat.Callback {
         @Override
         public void onPlay() {
+            play();
         }
 
         @Override
         public void onSkipToQueueItem(long queueId) {
+            // The session publishes no queue; ids are positions in the current one
+            playIndex((int) queueId);
         }
 
         @Override
         public void onSeekTo(long position) {
+            seekTo(position);
         }
 
         @Override
         public void onPlayFromMediaId(String mediaId, Bundle extras) {
+            if (delegate == null) {
+                Log.w(TAG, "Unknown media id " + mediaId);
+                return;
+            }
+            int generation = ++loadGeneration;
+            delegate.loadTrack(mediaId, track -> {
+                if (generation != loadGeneration) {
+                    return;
+                }
+                if (track != null) {
+                    playTrack(track);
+                } else {
+                    Log.w(TAG, "Unknown media id " + mediaId);
+                }
+            });
         }
 
         @Override
         public void onPause() {
+            pause();
         }
 
         @Override
         public void onStop() {
+            stop();
         }
 
         @Override
         public void onSkipToNext() {
+            skipToNext();
         }
 
         @Override
         public void onSkipToPrevious() {
+            skipToPrevious();
+        }
+
+        @Override
+        public void onSetRepeatMode(int repeatMode) {
+            setRepeatMode(repeatMode);
         }
 
         @Override
@@ -139,4 +675,4 @@ public class MyMusicService extends MediaBrowserServiceCompat {
         public void onPlayFromSearch(final String query, final Bundle extras) {
         }
     }
-}
\ No newline at end of file
+}
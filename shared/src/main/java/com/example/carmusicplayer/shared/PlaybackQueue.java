@@ -0,0 +1,38 @@
+package com.example.carmusicplayer.shared;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The list the playback service plays through. Tracks are resolved one at a
+ * time when they are about to play, so a queue over a large library list
+ * costs nothing up front.
+ */
+public interface PlaybackQueue {
+
+    int size();
+
+    /**
+     * Resolves the track at a position and passes it to callback on the main
+     * thread; null if it can no longer be played (e.g. its song was removed
+     * from the library). Called on the main thread.
+     */
+    void loadTrack(int index, Consumer<Track> callback);
+
+    // A queue that holds exactly the given tracks
+    static PlaybackQueue of(List<Track> tracks) {
+        List<Track> copy = Collections.unmodifiableList(tracks);
+        return new PlaybackQueue() {
+            @Override
+            public int size() {
+                return copy.size();
+            }
+
+            @Override
+            public void loadTrack(int index, Consumer<Track> callback) {
+                callback.accept(copy.get(index));
+            }
+        };
+    }
+}
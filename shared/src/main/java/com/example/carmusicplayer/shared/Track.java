@@ -0,0 +1,43 @@
+package com.example.carmusicplayer.shared;
+
+/**
+ * What the playback service needs to know about one playable item. The
+ * source is anything MediaPlayer can open: a file path, a content or http
+ * URI, or a bundled asset as {@link #ASSET_URI_PREFIX} plus its asset path.
+ */
+public final class Track {
+
+    public static final String ASSET_URI_PREFIX = "file:///android_asset/";
+
+    private final String mediaId;
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final String source;
+    private final long durationMs;
+
+    public Track(String mediaId, String title, String artist, String album, String source, long durationMs) {
+        this.mediaId = mediaId;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.source = source;
+        this.durationMs = durationMs;
+    }
+
+    public String getMediaId() { return mediaId; }
+    public String getTitle() { return title; }
+    public String getArtist() { return artist; }
+    public String getAlbum() { return album; }
+    public String getSource() { return source; }
+    public long getDurationMs() { return durationMs; }
+
+    public boolean isAsset() {
+        return source != null && source.startsWith(ASSET_URI_PREFIX);
+    }
+
+    // Path inside the APK's assets, for isAsset() tracks
+    public String getAssetPath() {
+        return source.substring(ASSET_URI_PREFIX.length());
+    }
+}